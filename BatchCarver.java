@@ -0,0 +1,388 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+/*BATCH APPLICATION LAYER*/
+/**
+ * carves every image of a directory without asking anything, for batch jobs
+ * files go through three pipelined stages (decode, carve, encode), each with its own threads,
+ * joined by bounded queues so only a few decoded images are in memory at once
+ */
+public class BatchCarver {
+
+    /**
+     * one step of an operation script: remove count seams of a type, vertical or horizontal
+     * @param count number of seams to remove
+     * @param type type of seams to remove
+     * @param horizontal true to remove horizontal seams (reducing the height)
+     */
+    record Step(int count, Image.SeamType type, boolean horizontal) {
+    }
+
+    /**
+     * a file on its way through the stages, with the time each stage took and the first failure
+     */
+    static final class Job {
+        final Path input;
+        final Path output;
+        BufferedImage image;
+        long decodeNanos;
+        long carveNanos;
+        long encodeNanos;
+        Throwable failure;
+
+        Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    private static final Job END = new Job(null, null); // passed down the stages once every file has been queued
+
+    private final List<Step> script;
+    private final Path outputDirectory;
+    private final int carveThreads;
+
+    /**
+     * creates a batch carver
+     * @param script steps applied to every image, in order
+     * @param outputDirectory directory carved images are written to, as PNG files of the same name (see outputsOf)
+     * @param carveThreads number of threads carving images (decoding and encoding get half as many each)
+     */
+    public BatchCarver(List<Step> script, Path outputDirectory, int carveThreads) {
+        if (carveThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + carveThreads);
+        }
+        this.script = script;
+        this.outputDirectory = outputDirectory;
+        this.carveThreads = carveThreads;
+    }
+
+    /**
+     * parses an operation script: steps separated by commas, each a seam count followed by
+     * e (lowest energy), g (greenest), he or hg (horizontal lowest energy or greenest), e.g. "200e,20g"
+     * @param script operation script
+     * @return parsed steps
+     * @throws IllegalArgumentException if a step cannot be parsed
+     */
+    static List<Step> parseScript(String script) {
+        List<Step> steps = new ArrayList<>();
+        for (String part : script.split(",")) {
+            String step = part.trim().toLowerCase(Locale.ROOT);
+            int digits = 0;
+            while (digits < step.length() && Character.isDigit(step.charAt(digits))) {
+                digits++;
+            }
+            String kind = step.substring(digits);
+            if (digits == 0 || !List.of("e", "g", "he", "hg").contains(kind)) {
+                throw new IllegalArgumentException("Invalid step \"" + part.trim() + "\", expected e.g. 200e or 20hg");
+            }
+            Image.SeamType type = kind.endsWith("g") ? Image.SeamType.GREENEST : Image.SeamType.LOWEST_ENERGY;
+            steps.add(new Step(Integer.parseInt(step.substring(0, digits)), type, kind.startsWith("h")));
+        }
+        return steps;
+    }
+
+    /**
+     * lists the files to carve: the image files of a directory, or the files matching a glob such as photos/*.jpg
+     * @param input directory or glob
+     * @return files in name order
+     * @throws IOException throws if the directory cannot be listed
+     */
+    static List<Path> listInputs(String input) throws IOException {
+        Path path = Path.of(input);
+        PathMatcher matcher;
+        Path directory;
+        if (Files.isDirectory(path)) {
+            directory = path;
+            matcher = FileSystems.getDefault().getPathMatcher("glob:*.{png,PNG,jpg,JPG,jpeg,JPEG,bmp,BMP,gif,GIF}");
+        } else {
+            directory = path.toAbsolutePath().getParent();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> Files.isRegularFile(file) && matcher.matches(file.getFileName()))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * names the output file of every input: the input name with a .png extension, or, for inputs whose names only
+     * differ in the extension (such as a.jpg and a.png), with their own extension kept in the name (a-jpg.png and
+     * a-png.png); a name that is still taken gets a number, so no output is written over another
+     * @param inputs files to carve
+     * @return output file of every input, in the same order
+     */
+    List<Path> outputsOf(List<Path> inputs) {
+        Map<String, Integer> stems = new HashMap<>();
+        for (Path input : inputs) {
+            stems.merge(stem(input).toLowerCase(Locale.ROOT), 1, Integer::sum);
+        }
+        Set<String> taken = new HashSet<>();
+        List<Path> outputs = new ArrayList<>(inputs.size());
+        for (Path input : inputs) {
+            String name = input.getFileName().toString();
+            String stem = stem(input);
+            if (stems.get(stem.toLowerCase(Locale.ROOT)) > 1 && stem.length() < name.length()) {
+                stem += "-" + name.substring(stem.length() + 1);
+            }
+            String unique = stem;
+            for (int i = 2; !taken.add(unique.toLowerCase(Locale.ROOT)); i++) {
+                unique = stem + "-" + i;
+            }
+            outputs.add(outputDirectory.resolve(unique + ".png"));
+        }
+        return outputs;
+    }
+
+    private static String stem(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * carves every file and writes a report with one line per file
+     * with the metrics summary property set, also prints the p50/p99 latency of every phase of the batch
+     * @param inputs files to carve
+     * @param report file the report is written to (CSV)
+     * @return number of files that failed
+     * @throws IOException throws if the output directory or the report cannot be written
+     * @throws InterruptedException throws if interrupted while waiting for the stages
+     */
+    public int run(List<Path> inputs, Path report) throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+        if (Boolean.getBoolean(OperationMetrics.SUMMARY_PROPERTY)) {
+            OperationMetrics.reset(); // the summary only covers this batch
+        }
+        int ioThreads = Math.max(1, carveThreads / 2);
+        BlockingQueue<Job> toDecode = new ArrayBlockingQueue<>(2 * ioThreads);
+        BlockingQueue<Job> toCarve = new ArrayBlockingQueue<>(carveThreads);
+        BlockingQueue<Job> toEncode = new ArrayBlockingQueue<>(ioThreads);
+        BlockingQueue<Job> done = new ArrayBlockingQueue<>(ioThreads);
+
+        List<Thread> threads = new ArrayList<>();
+        threads.addAll(stage("decode", ioThreads, toDecode, toCarve, this::decode));
+        threads.addAll(stage("carve", carveThreads, toCarve, toEncode, this::carve));
+        threads.addAll(stage("encode", ioThreads, toEncode, done, this::encode));
+
+        // queues the files from a thread of its own, so that the finished files below are taken in time
+        List<Path> outputs = outputsOf(inputs);
+        Thread feeder = Thread.ofPlatform().name("batch-feed").start(() -> {
+            try {
+                for (int i = 0; i < inputs.size(); i++) {
+                    toDecode.put(new Job(inputs.get(i), outputs.get(i)));
+                }
+                toDecode.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        int failed = 0;
+        long start = System.nanoTime();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(report))) {
+            writer.println("file,status,decode ms,carve ms,encode ms,error");
+            for (Job job = done.take(); job != END; job = done.take()) {
+                if (job.failure != null) {
+                    failed++;
+                }
+                writer.printf(Locale.ROOT, "%s,%s,%.1f,%.1f,%.1f,%s%n", job.input.getFileName(),
+                        job.failure == null ? "ok" : "failed", job.decodeNanos / OperationMetrics.NANOS_PER_MILLI,
+                        job.carveNanos / OperationMetrics.NANOS_PER_MILLI,
+                        job.encodeNanos / OperationMetrics.NANOS_PER_MILLI,
+                        job.failure == null ? "" : describe(job.failure));
+            }
+        }
+
+        feeder.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf(Locale.ROOT, "[INFO] Carved %d of %d files in %.1f s, report written to %s%n",
+                inputs.size() - failed, inputs.size(), (System.nanoTime() - start) / OperationMetrics.NANOS_PER_SECOND,
+                report);
+        OperationMetrics.printSummaryIfEnabled();
+        return failed;
+    }
+
+    /**
+     * work done on a job by a stage
+     */
+    private interface Work {
+        void apply(Job job) throws Exception;
+    }
+
+    /**
+     * starts the threads of a stage, which take jobs from one queue, work on them and put them on the next
+     * failed jobs, whatever was thrown, are passed on untouched so they still reach the report
+     * the end marker is put back for the other threads of the stage, and the last thread to stop passes it on,
+     * even if it stops on an error, so the stages after it and run never wait for it forever
+     * @param name name of the stage
+     * @param count number of threads
+     * @param input queue jobs are taken from
+     * @param output queue jobs are put on
+     * @param work work done on every job
+     * @return started threads
+     */
+    @SuppressWarnings("try")
+    private static List<Thread> stage(String name, int count, BlockingQueue<Job> input, BlockingQueue<Job> output,
+                                      Work work) {
+        AtomicInteger running = new AtomicInteger(count);
+        List<Thread> threads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            threads.add(Thread.ofPlatform().name("batch-" + name + "-" + i).start(() -> {
+                try (OperationMetrics.Scope scope = OperationMetrics.command("BATCH")) {
+                    for (Job job = input.take(); job != END; job = input.take()) {
+                        if (job.failure == null) {
+                            try {
+                                work.apply(job);
+                            } catch (Exception | Error e) { // e.g. out of memory or a stack overflow on one file
+                                job.failure = e;
+                                job.image = null;
+                            }
+                        }
+                        output.put(job);
+                    }
+                    input.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        putUninterruptibly(output, END);
+                    }
+                }
+            }));
+        }
+        return threads;
+    }
+
+    /**
+     * puts a job on a queue, waiting for room even if the thread is interrupted
+     * @param queue queue to put the job on
+     * @param job job to put
+     */
+    private static void putUninterruptibly(BlockingQueue<Job> queue, Job job) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(job);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void decode(Job job) throws IOException {
+        long start = System.nanoTime();
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.READ, 0, 0)) {
+            job.image = ImageIO.read(job.input.toFile());
+            if (job.image != null) {
+                phase.setSize(job.image.getWidth(), job.image.getHeight());
+            }
+        }
+        job.decodeNanos = System.nanoTime() - start;
+        if (job.image == null) {
+            throw new IOException("Unsupported image file");
+        }
+    }
+
+    private void carve(Job job) {
+        long start = System.nanoTime();
+        Image image = new Image(job.image);
+        job.image = null; // lets the decoded image be collected while carving
+        apply(script, image);
+        job.image = image.toBufferedImage();
+        job.carveNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * removes the seams of every step of a script from an image, in order
+     * @param script steps to apply
+     * @param image image to carve
+     */
+    static void apply(List<Step> script, Image image) {
+        for (Step step : script) {
+            if (!step.horizontal()) {
+                image.removeSeams(step.count(), step.type());
+                continue;
+            }
+            for (int i = 0; i < step.count() && image.getHeight() > 1; i++) {
+                image.removeHorizontalSeam(step.type() == Image.SeamType.GREENEST
+                        ? image.getGreenestHorizontalSeam() : image.getLowestEnergyHorizontalSeam());
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void encode(Job job) throws IOException {
+        long start = System.nanoTime();
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.WRITE,
+                job.image.getWidth(), job.image.getHeight())) {
+            ImageIO.write(job.image, "png", job.output.toFile());
+        }
+        job.image = null;
+        job.encodeNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * describes a failure in one line without commas, for the report
+     * @param failure failure of a job
+     * @return description
+     */
+    private static String describe(Throwable failure) {
+        String message = failure.getMessage() == null ? failure.getClass().getSimpleName() : failure.getMessage();
+        return message.replace(',', ';').replace('\n', ' ');
+    }
+
+    /**
+     * carves a directory of images
+     * usage: BatchCarver input script outputDirectory [threads] [report]
+     * @param args input directory or glob, operation script (e.g. "200e,20g"), output directory,
+     *             number of carving threads (available processors by default) and report file
+     *             (report.csv in the output directory by default)
+     * @throws IOException throws if the files cannot be listed or written
+     * @throws InterruptedException throws if interrupted while carving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Usage: BatchCarver input script outputDirectory [threads] [report]");
+            System.out.println("script: steps like 200e,20g (e/g lowest energy/greenest, he/hg horizontal)");
+            System.out.println("add -D" + OperationMetrics.SUMMARY_PROPERTY + "=true for a latency summary per phase");
+            return;
+        }
+        List<Step> script = parseScript(args[1]);
+        Path outputDirectory = Path.of(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        Path report = args.length > 4 ? Path.of(args[4]) : outputDirectory.resolve("report.csv");
+
+        int failed = new BatchCarver(script, outputDirectory, threads).run(listInputs(args[0]), report);
+        if (failed > 0) {
+            System.exit(1); // lets the batch job notice failed files
+        }
+    }
+}
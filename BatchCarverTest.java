@@ -0,0 +1,81 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class BatchCarverTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void parsesScript() {
+        Assertions.assertThat(BatchCarver.parseScript("200e, 20G,5hg")).containsExactly(
+                new BatchCarver.Step(200, Image.SeamType.LOWEST_ENERGY, false),
+                new BatchCarver.Step(20, Image.SeamType.GREENEST, false),
+                new BatchCarver.Step(5, Image.SeamType.GREENEST, true));
+        Assertions.assertThatThrownBy(() -> BatchCarver.parseScript("200x"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void carvesEveryFileAndReportsFailures() throws IOException, InterruptedException {
+        Path input = Files.createDirectory(directory.resolve("input"));
+        Path output = directory.resolve("output");
+        for (int i = 0; i < 6; i++) {
+            ImageIO.write(TestImages.synthetic(30 + i, 20), "png", input.resolve("image" + i + ".png").toFile());
+        }
+        Files.writeString(input.resolve("broken.png"), "not an image");
+
+        Path report = directory.resolve("report.csv");
+        List<BatchCarver.Step> script = BatchCarver.parseScript("10e,5g,3he");
+        int failed = new BatchCarver(script, output, 2).run(BatchCarver.listInputs(input.toString()), report);
+
+        Assertions.assertThat(failed).isEqualTo(1);
+        for (int i = 0; i < 6; i++) {
+            BufferedImage carved = ImageIO.read(output.resolve("image" + i + ".png").toFile());
+            Assertions.assertThat(carved.getWidth()).isEqualTo(15 + i);
+            Assertions.assertThat(carved.getHeight()).isEqualTo(17);
+        }
+
+        // single-threaded carving gives the same image
+        Image image = new Image(TestImages.synthetic(30, 20));
+        image.removeSeams(10, Image.SeamType.LOWEST_ENERGY);
+        image.removeSeams(5, Image.SeamType.GREENEST);
+        for (int i = 0; i < 3; i++) {
+            image.removeHorizontalSeam(image.getLowestEnergyHorizontalSeam());
+        }
+        TestImages.assertSamePixels(ImageIO.read(output.resolve("image0.png").toFile()), image.toBufferedImage());
+
+        List<String> lines = Files.readAllLines(report);
+        Assertions.assertThat(lines).hasSize(8);
+        Assertions.assertThat(lines).filteredOn(line -> line.startsWith("broken.png,failed,")).hasSize(1);
+        Assertions.assertThat(lines).filteredOn(line -> line.contains(",ok,")).hasSize(6);
+    }
+
+    @Test
+    void keepsTheOutputsOfFilesWithTheSameNameApart() throws IOException, InterruptedException {
+        Path input = Files.createDirectory(directory.resolve("input"));
+        Path output = directory.resolve("output");
+        ImageIO.write(TestImages.synthetic(30, 20), "png", input.resolve("a.png").toFile());
+        ImageIO.write(TestImages.synthetic(40, 20), "bmp", input.resolve("a.bmp").toFile());
+        ImageIO.write(TestImages.synthetic(50, 20), "png", input.resolve("b.png").toFile());
+
+        BatchCarver carver = new BatchCarver(BatchCarver.parseScript("10g"), output, 2);
+        List<Path> inputs = BatchCarver.listInputs(input.toString());
+        Assertions.assertThat(carver.outputsOf(inputs)).containsExactly(output.resolve("a-bmp.png"),
+                output.resolve("a-png.png"), output.resolve("b.png"));
+        Assertions.assertThat(carver.run(inputs, directory.resolve("report.csv"))).isZero();
+        Assertions.assertThat(ImageIO.read(output.resolve("a-bmp.png").toFile()).getWidth()).isEqualTo(30);
+        Assertions.assertThat(ImageIO.read(output.resolve("a-png.png").toFile()).getWidth()).isEqualTo(20);
+        Assertions.assertThat(ImageIO.read(output.resolve("b.png").toFile()).getWidth()).isEqualTo(40);
+    }
+}
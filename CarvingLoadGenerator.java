@@ -0,0 +1,116 @@
+package uk.ac.nulondon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/*PERFORMANCE REPORT*/
+/**
+ * load generator for CarvingServer: several clients, each on a virtual thread, post the same synthetic image
+ * one request after another, then the latency of the answers is printed per status code
+ * (200 for carved images, 503 for requests rejected by admission control)
+ */
+public class CarvingLoadGenerator {
+
+    private static final int DEFAULT_CLIENTS = 16; // clients sending at the same time unless given
+    private static final int DEFAULT_REQUESTS = 200; // requests posted in total unless given
+
+    private final URI uri;
+    private final byte[] image;
+
+    /**
+     * creates a load generator
+     * @param uri address requests are posted to, including the ops parameter
+     * @param image encoded image posted by every request
+     */
+    public CarvingLoadGenerator(URI uri, byte[] image) {
+        this.uri = uri;
+        this.image = image;
+    }
+
+    /**
+     * posts requests from several clients at once and waits for every answer
+     * @param clients number of clients sending at the same time
+     * @param requests total number of requests
+     * @return latency histogram of the answers by status code (-1 for requests that failed without an answer)
+     * @throws InterruptedException throws if interrupted while waiting for the clients
+     */
+    Map<Integer, OperationMetrics.Histogram> run(int clients, int requests) throws InterruptedException {
+        Map<Integer, OperationMetrics.Histogram> histograms = new ConcurrentHashMap<>();
+        AtomicInteger remaining = new AtomicInteger(requests);
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                executor.execute(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        HttpRequest request = HttpRequest.newBuilder(uri)
+                                .header("Content-Type", "image/png")
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(image))
+                                .build();
+                        long start = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (IOException e) {
+                            status = -1;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        histograms.computeIfAbsent(status, code -> new OperationMetrics.Histogram())
+                                .record(System.nanoTime() - start, 0);
+                    }
+                });
+            }
+        } // closing the executor waits for every client
+        return histograms;
+    }
+
+    /**
+     * loads a local carving server and prints throughput and latency percentiles per status code
+     * usage: CarvingLoadGenerator [url] [clients] [requests] [size] [ops]
+     * @param args server address (http://localhost:8080/carve by default), number of clients (16),
+     *             number of requests (200), size of the synthetic image (640x480) and operations (20e)
+     * @throws IOException throws if the image cannot be encoded
+     * @throws InterruptedException throws if interrupted while waiting for the clients
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String url = args.length > 0 ? args[0] : "http://localhost:" + CarvingServer.DEFAULT_PORT + "/carve";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CLIENTS;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_REQUESTS;
+        String[] size = (args.length > 3 ? args[3] : "640x480").split("x");
+        String ops = args.length > 4 ? args[4] : "20e";
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(TestImages.synthetic(Integer.parseInt(size[0]), Integer.parseInt(size[1])), "png",
+                encoded);
+        CarvingLoadGenerator generator = new CarvingLoadGenerator(URI.create(url + "?ops=" + ops),
+                encoded.toByteArray());
+
+        long start = System.nanoTime();
+        Map<Integer, OperationMetrics.Histogram> histograms = new TreeMap<>(generator.run(clients, requests));
+        double seconds = (System.nanoTime() - start) / OperationMetrics.NANOS_PER_SECOND;
+
+        System.out.printf(Locale.ROOT, "%d requests from %d clients in %.1f s (%.1f requests/s)%n", requests,
+                clients, seconds, requests / seconds);
+        System.out.println("| status | count | p50 ms | p99 ms | max ms |");
+        System.out.println("|--------|-------|--------|--------|--------|");
+        histograms.forEach((status, histogram) -> System.out.printf(Locale.ROOT, "| %d | %d | %.1f | %.1f | %.1f |%n",
+                status, histogram.count(),
+                histogram.percentile(OperationMetrics.MEDIAN) / OperationMetrics.NANOS_PER_MILLI,
+                histogram.percentile(OperationMetrics.P99) / OperationMetrics.NANOS_PER_MILLI,
+                histogram.maxNanos() / OperationMetrics.NANOS_PER_MILLI));
+    }
+}
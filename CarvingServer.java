@@ -0,0 +1,411 @@
+package uk.ac.nulondon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/*SERVICE APPLICATION LAYER*/
+/**
+ * carving over HTTP on localhost, so other tools can carve images without starting a JVM for each one
+ * POST /carve?ops=200e,20g with an image as the body answers with the carved image as a PNG,
+ * GET /metrics answers with the latency summary of every phase
+ * every request is handled on a virtual thread; before its body is read, the memory of the body is reserved
+ * from a budget, and before the image is decoded, the memory of its pixels as well;
+ * requests that do not fit wait in a queue for a while and are then rejected with 503
+ */
+public class CarvingServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+    static final long MIB = 1024 * 1024; // bytes in a mebibyte, the unit of the memory budget given on the command line
+    public static final long DEFAULT_MEMORY_BUDGET = 512 * MIB; // bytes of images carved at once
+    public static final int DEFAULT_MAX_QUEUED = 64; // requests waiting for memory before new ones are rejected
+    public static final Duration DEFAULT_QUEUE_TIMEOUT = Duration.ofSeconds(10);
+
+    // heap used per pixel while carving: decoded image (4), Image rows (4), brightness (8), energy (8),
+    // seam search moves (1), exported copy (4) and slack for the decoder and encoder
+    static final long BYTES_PER_PIXEL = 40;
+    private static final long MAX_BODY_BYTES = 64 * MIB; // largest encoded image accepted
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final MemoryBudget budget;
+    private final Semaphore admission = new Semaphore(1, true); // held while a body is read and reserved
+    private final int maxQueued;
+    private final Duration queueTimeout;
+
+    /**
+     * creates a server, which listens once started
+     * @param port port to listen on, 0 for any free port
+     * @param memoryBudget bytes of heap the images carved at the same time may take together
+     * @param maxQueued requests waiting for memory at most, further requests are rejected straight away
+     * @param queueTimeout time a request waits for memory before it is rejected
+     * @throws IOException throws if the port cannot be bound
+     */
+    public CarvingServer(int port, long memoryBudget, int maxQueued, Duration queueTimeout) throws IOException {
+        this.budget = new MemoryBudget(memoryBudget, maxQueued);
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/carve", this::carve);
+        server.createContext("/metrics", this::metrics);
+    }
+
+    /**
+     * starts answering requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * gets the port the server listens on
+     * @return port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * stops listening, waits up to a second for requests being answered, then stops their threads
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * carves the image in the body of a request with the operations of its ops parameter
+     * @param exchange request and response
+     * @throws IOException throws if the request cannot be read or the response cannot be written
+     */
+    @SuppressWarnings("try")
+    private void carve(HttpExchange exchange) throws IOException {
+        try (exchange; OperationMetrics.Scope scope = OperationMetrics.command("HTTP")) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Use POST with an image as the body");
+                return;
+            }
+            List<BatchCarver.Step> script;
+            try {
+                script = BatchCarver.parseScript(parameter(exchange.getRequestURI().getRawQuery(), "ops"));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, HttpURLConnection.HTTP_BAD_REQUEST, e.getMessage());
+                return;
+            }
+
+            long length = contentLength(exchange);
+            if (length < 0) {
+                respond(exchange, HttpURLConnection.HTTP_LENGTH_REQUIRED, "Send the image with a Content-Length");
+                return;
+            }
+            if (length > MAX_BODY_BYTES || length > budget.total) {
+                respond(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE, "Image files are limited to "
+                        + (Math.min(MAX_BODY_BYTES, budget.total) / MIB) + " MiB");
+                return;
+            }
+
+            // the body is read and its pixels reserved by one request at a time, so a request never holds the
+            // memory of its body while waiting behind others that hold theirs
+            long reserved = 0;
+            try {
+                if (admission.getQueueLength() >= maxQueued
+                        || !admission.tryAcquire(queueTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                    rejectBusy(exchange);
+                    return;
+                }
+                byte[] body;
+                try {
+                    if (!budget.acquire(length, queueTimeout.toNanos())) {
+                        rejectBusy(exchange);
+                        return;
+                    }
+                    reserved = length;
+                    body = exchange.getRequestBody().readNBytes((int) length);
+                    if (body.length < length) {
+                        respond(exchange, HttpURLConnection.HTTP_BAD_REQUEST,
+                                "Request body is shorter than its Content-Length");
+                        return;
+                    }
+                    long pixels = pixelCount(body);
+                    if (pixels < 0) {
+                        respond(exchange, HttpURLConnection.HTTP_UNSUPPORTED_TYPE, "Unsupported image file");
+                        return;
+                    }
+                    long bytes = pixels * BYTES_PER_PIXEL;
+                    if (length + bytes > budget.total) {
+                        respond(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE,
+                                "Image of " + pixels + " pixels does not fit the memory budget");
+                        return;
+                    }
+                    if (!budget.acquire(bytes, queueTimeout.toNanos())) {
+                        rejectBusy(exchange);
+                        return;
+                    }
+                    reserved += bytes;
+                } finally {
+                    admission.release();
+                }
+
+                BufferedImage carved;
+                try {
+                    carved = carve(body, script);
+                } catch (IOException e) {
+                    respond(exchange, HttpURLConnection.HTTP_UNSUPPORTED_TYPE, e.getMessage());
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "image/png");
+                // streamed, the PNG is written as it is encoded
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+                try (OutputStream output = exchange.getResponseBody();
+                     OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.WRITE,
+                             carved.getWidth(), carved.getHeight())) {
+                    ImageIO.write(carved, "png", output);
+                }
+            } finally {
+                budget.release(reserved);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // the server is stopping
+        }
+    }
+
+    /**
+     * answers that the server is too busy to carve the image now
+     * @param exchange request and response
+     * @throws IOException throws if the response cannot be written
+     */
+    private static void rejectBusy(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        respond(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "Too many images being carved, try again later");
+    }
+
+    /**
+     * gets the announced length of a request body
+     * @param exchange request
+     * @return length in bytes, or -1 if it is missing or not a number
+     */
+    private static long contentLength(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            return length == null ? -1 : Math.max(-1, Long.parseLong(length.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * decodes an image and carves it
+     * @param body encoded image
+     * @param script operations to apply
+     * @return carved image
+     * @throws IOException throws if the image cannot be decoded
+     */
+    private static BufferedImage carve(byte[] body, List<BatchCarver.Step> script) throws IOException {
+        BufferedImage decoded;
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.READ, 0, 0)) {
+            decoded = ImageIO.read(new ByteArrayInputStream(body));
+            if (decoded == null) {
+                throw new IOException("Unsupported image file");
+            }
+            phase.setSize(decoded.getWidth(), decoded.getHeight());
+        }
+        Image image = new Image(decoded);
+        BatchCarver.apply(script, image);
+        return image.toBufferedImage();
+    }
+
+    /**
+     * answers with the latency summary of every phase carved so far
+     * @param exchange request and response
+     * @throws IOException throws if the response cannot be written
+     */
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            respond(exchange, HttpURLConnection.HTTP_OK, OperationMetrics.summary());
+        }
+    }
+
+    /**
+     * answers with a plain text message
+     * @param exchange request and response
+     * @param status HTTP status code
+     * @param message message
+     * @throws IOException throws if the response cannot be written
+     */
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * gets a parameter of a query string
+     * @param query raw query string, or null if there is none
+     * @param name name of the parameter
+     * @return decoded value, or an empty string if the parameter is missing
+     */
+    static String parameter(String query, String name) {
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                    return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * reads the size of an encoded image from its header, without decoding its pixels
+     * @param body encoded image
+     * @return number of pixels, or -1 if the format is not supported
+     * @throws IOException throws if the header cannot be read
+     */
+    static long pixelCount(byte[] body) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return -1;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } catch (IOException e) {
+                return -1; // the header is broken
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * bytes of heap shared by the requests being carved, handed out in arrival order
+     * waiting uses a lock rather than synchronized, so virtual threads waiting for memory do not pin their carrier
+     */
+    static final class MemoryBudget {
+        final long total;
+        private final int maxQueued;
+        private long available;
+        private final Deque<Thread> queue = new ArrayDeque<>(); // waiting requests, the first one is served next
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+
+        MemoryBudget(long total, int maxQueued) {
+            this.total = total;
+            this.maxQueued = maxQueued;
+            this.available = total;
+        }
+
+        /**
+         * reserves memory, waiting behind the requests that arrived earlier
+         * @param bytes bytes to reserve (at most the total)
+         * @param timeoutNanos longest time to wait
+         * @return true if the memory was reserved, false if the queue is full or the wait timed out
+         * @throws InterruptedException throws if interrupted while waiting
+         */
+        boolean acquire(long bytes, long timeoutNanos) throws InterruptedException {
+            lock.lock();
+            try {
+                if (queue.isEmpty() && available >= bytes) {
+                    available -= bytes;
+                    return true;
+                }
+                if (queue.size() >= maxQueued) {
+                    return false;
+                }
+                Thread self = Thread.currentThread();
+                queue.addLast(self);
+                try {
+                    long remaining = timeoutNanos;
+                    while (queue.peekFirst() != self || available < bytes) {
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        remaining = released.awaitNanos(remaining);
+                    }
+                    available -= bytes;
+                    return true;
+                } finally {
+                    queue.remove(self);
+                    released.signalAll(); // the next request in the queue may fit now
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * gives reserved memory back
+         * @param bytes bytes reserved by acquire
+         */
+        void release(long bytes) {
+            lock.lock();
+            try {
+                available += bytes;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * gets the bytes not reserved at the moment
+         * @return available bytes
+         */
+        long available() {
+            lock.lock();
+            try {
+                return available;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * serves carving on localhost until the process is stopped
+     * usage: CarvingServer [port] [memory budget in MiB] [max queued requests]
+     * @param args port (8080 by default), memory budget in MiB (512 by default) and queue length (64 by default)
+     * @throws IOException throws if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) * MIB : DEFAULT_MEMORY_BUDGET;
+        int maxQueued = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_QUEUED;
+
+        CarvingServer server = new CarvingServer(port, budget, maxQueued, DEFAULT_QUEUE_TIMEOUT);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.out.printf("[INFO] Carving on http://localhost:%d/carve?ops=200e,20g with a %d MiB budget%n",
+                server.getPort(), budget / MIB);
+    }
+}
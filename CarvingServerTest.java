@@ -0,0 +1,92 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+class CarvingServerTest {
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(TestImages.synthetic(width, height), "png", encoded);
+        return encoded.toByteArray();
+    }
+
+    @Test
+    void carvesPostedImagesAndRejectsWhatDoesNotFit() throws IOException, InterruptedException {
+        // room for a single 100x80 image and its body
+        long budget = 100 * 80 * CarvingServer.BYTES_PER_PIXEL + png(100, 80).length;
+        try (CarvingServer server = new CarvingServer(0, budget, 8, Duration.ofSeconds(30));
+             HttpClient client = HttpClient.newHttpClient()) {
+            server.start();
+            String base = "http://localhost:" + server.getPort() + "/carve?ops=";
+
+            HttpResponse<byte[]> carved = client.send(HttpRequest.newBuilder(URI.create(base + "10e,3hg"))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(png(100, 80))).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            Assertions.assertThat(carved.statusCode()).isEqualTo(200);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(carved.body()));
+            Assertions.assertThat(image.getWidth()).isEqualTo(90);
+            Assertions.assertThat(image.getHeight()).isEqualTo(77);
+
+            HttpResponse<String> tooLarge = client.send(HttpRequest.newBuilder(URI.create(base + "1e"))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(png(101, 80))).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(tooLarge.statusCode()).isEqualTo(413);
+
+            HttpResponse<String> badScript = client.send(HttpRequest.newBuilder(URI.create(base + "lots"))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(png(10, 10))).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(badScript.statusCode()).isEqualTo(400);
+
+            // a body of unknown length cannot be reserved before it is read
+            byte[] small = png(10, 10);
+            HttpResponse<String> chunked = client.send(HttpRequest.newBuilder(URI.create(base + "1e"))
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(small))).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(chunked.statusCode()).isEqualTo(411);
+
+            // eight clients share the budget of one image, so requests wait in turn and all get carved
+            Map<Integer, OperationMetrics.Histogram> answers = new CarvingLoadGenerator(URI.create(base + "5e"),
+                    png(100, 80)).run(8, 24);
+            Assertions.assertThat(answers.keySet()).containsExactly(200);
+            Assertions.assertThat(answers.get(200).count()).isEqualTo(24);
+        }
+    }
+
+    @Test
+    void memoryBudgetQueuesInArrivalOrderAndRejectsWhenFull() throws InterruptedException {
+        CarvingServer.MemoryBudget budget = new CarvingServer.MemoryBudget(100, 1);
+        Assertions.assertThat(budget.acquire(80, 0)).isTrue();
+        Assertions.assertThat(budget.acquire(30, 1_000_000)).isFalse(); // timed out
+
+        Thread waiting = Thread.ofVirtual().start(() -> {
+            try {
+                Assertions.assertThat(budget.acquire(50, Duration.ofSeconds(30).toNanos())).isTrue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        while (budget.available() == 20 && waiting.getState() != Thread.State.WAITING
+                && waiting.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        // the queue holds one request, and a small request may not overtake it
+        Assertions.assertThat(budget.acquire(10, 0)).isFalse();
+
+        budget.release(80);
+        waiting.join();
+        Assertions.assertThat(budget.available()).isEqualTo(50);
+    }
+}
@@ -2,59 +2,182 @@ package uk.ac.nulondon;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.function.Function;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 public class Image {
 
-    private final List<Pixel> rows; // data structure for image (represented by a rows of linked list of pixels
+    /**
+     * properties of a pixel which seams can be found by
+     */
+    public enum SeamType {
+        GREENEST,
+        LOWEST_ENERGY
+    }
+
+    /**
+     * how far the seam of the pyramid search is from the exact seam
+     * @param meanColumns mean distance between the two seams over the rows, in columns
+     * @param maxColumns largest distance between the two seams in any row, in columns
+     * @param valueRatio value of the pyramid seam relative to the exact seam: its energy divided by the exact
+     *                   seam's energy for the lowest energy seam (at least 1), its greenness divided by the exact
+     *                   seam's greenness for the greenest seam (at most 1)
+     */
+    public record SeamDeviation(double meanColumns, int maxColumns, double valueRatio) {
+    }
+
+    /*
+    data structure for image: every row is its own array of packed ARGB ints
+    (rows can be longer than width, and there can be more rows than height,
+    so that removed seams can be added back without reallocating)
+     */
+    private int[][] rows;
+    private double[][] energies; // energy of every pixel, laid out like rows (only allocated once energy is needed)
+    private double[][] brightnessRows; // brightness of every pixel, filled in before energy is calculated from it
+
+    /*
+    energy bookkeeping: once energies has been fully calculated, edits only mark the columns next to the seam
+    they touched as dirty (per row, from dirtyFrom to dirtyTo inclusive) and only those get recalculated
+     */
+    private boolean energyCalculated = false;
+    private int[] dirtyFrom;
+    private int[] dirtyTo;
+    private boolean verifyEnergy = false; // if true, every incremental update is checked against a full recalculation
+
+    private List<Pixel> highlightedSeam = null; // seam currently painted over by higlightSeam
 
     private int width;
     private int height;
 
+    private ForkJoinPool pool = null; // pool that large images are processed in parallel on (null for one thread)
+    private static final int MIN_BAND_HEIGHT = 16; // fewest rows of the image given to one task
+
+    private SeamPyramid pyramid = null; // approximate coarse-to-fine seam search (null for the exact search)
+
     /**
-     * initializes rows field by looping through pixels of inputted buffered image
+     * initializes rows field from the pixels of inputted buffered image
+     * int RGB images are copied a whole row at a time straight from their backing array,
+     * other types are converted through their color model once per row
      * @param img buffered image
      */
+    @SuppressWarnings("try")
     public Image(BufferedImage img) {
         width = img.getWidth();
         height = img.getHeight();
-        rows = new ArrayList<>();
-        Pixel current = null;
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.CONSTRUCT, width,
+                height)) {
+            rows = new int[height][width];
+            copyRows(img);
+        }
+        dirtyFrom = new int[height];
+        dirtyTo = new int[height];
+        clearDirty();
+    }
+
+    /**
+     * initializes rows field from a version of an image, e.g. one shared by several editors,
+     * taking over its energy if the version has it
+     * @param version immutable version of an image
+     */
+    @SuppressWarnings("try")
+    Image(ImageVersion version) {
+        width = version.getWidth();
+        height = version.getHeight();
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.CONSTRUCT, width,
+                height)) {
+            rows = new int[height][];
+            for (int row = 0; row < height; row++) {
+                rows[row] = version.copyRow(row);
+            }
+        }
+        dirtyFrom = new int[height];
+        dirtyTo = new int[height];
+        clearDirty();
+        if (version.hasEnergy()) {
+            energies = new double[height][width];
+            brightnessRows = new double[height][];
+            for (int row = 0; row < height; row++) {
+                version.copyEnergy(row, energies[row]);
+            }
+            energyCalculated = true;
+        }
+    }
+
+    /**
+     * copies the pixels of a buffered image into the rows
+     * @param img buffered image of the same size as this image
+     */
+    private void copyRows(BufferedImage img) {
         for (int row = 0; row < height; row++) {
+            readRow(img, row, rows[row]);
+        }
+    }
+
+    /**
+     * copies one row of a buffered image as opaque packed ARGB ints
+     * int RGB images are read straight from their backing array, other types through their color model
+     * @param img buffered image
+     * @param row row to copy
+     * @param pixels array of at least the width of the image the row is copied into
+     */
+    static void readRow(BufferedImage img, int row, int[] pixels) {
+        int width = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        if (isPackedIntRgb(img)) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int start = raster.getDataBuffer().getOffset() + model.getOffset(-raster.getSampleModelTranslateX(),
+                    row - raster.getSampleModelTranslateY());
             for (int col = 0; col < width; col++) {
-                Pixel pixel = new Pixel(img.getRGB(col, row));
-                if (col == 0) {
-                    rows.add(pixel);
-                } else {
-                    current.right = pixel;
-                    pixel.left = current;
-                }
-                current = pixel;
+                pixels[col] = Pixel.OPAQUE | data[start + col]; // images are opaque, same as new Color(rgb)
+            }
+        } else {
+            img.getRGB(0, row, width, 1, pixels, 0, width);
+            for (int col = 0; col < width; col++) {
+                pixels[col] |= Pixel.OPAQUE;
             }
         }
+    }
 
+    /**
+     * checks if an image stores every pixel as one int laid out as 0xAARRGGBB (or 0x00RRGGBB),
+     * so its backing array can be read without going through the color model
+     * @param img buffered image
+     * @return true if the image is int RGB or non-premultiplied int ARGB
+     */
+    private static boolean isPackedIntRgb(BufferedImage img) {
+        return (img.getType() == BufferedImage.TYPE_INT_RGB || img.getType() == BufferedImage.TYPE_INT_ARGB)
+                && img.getRaster().getDataBuffer() instanceof DataBufferInt
+                && img.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel;
     }
 
     /**
      * turns internal image represented by the rows field into a buffered image type
+     * every row is written straight into the backing array of the new image
      * @return returns buffered image of internal image
      */
+    @SuppressWarnings("try")
     public BufferedImage toBufferedImage() {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        for (int row = 0; row < height; row++) {
-            Pixel pixel = rows.get(row);
-            int col = 0;
-            while (pixel != null) {
-                image.setRGB(col++, row, pixel.color.getRGB());
-                pixel = pixel.right;
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.EXPORT, width,
+                height)) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData(); // rows of width pixels
+            for (int row = 0; row < height; row++) {
+                int[] pixels = rows[row];
+                int start = row * width;
+                for (int col = 0; col < width; col++) {
+                    data[start + col] = pixels[col] & Pixel.RGB_MASK; // same as setRGB, which drops the alpha
+                }
             }
+            return image;
         }
-        return image;
     }
 
     /**
@@ -66,129 +189,386 @@ public class Image {
     }
 
     /**
-     * returns horizontal energy of a current pixel given the pixel above and below it
-     * @param above pixel above the current pixel in image
-     * @param current pixel whos horizontal energy value will be calculated
-     * @param below pixel below the current pixel in image
+     * height getter
+     * @return returns this.height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * copies the pixels of a row
+     * @param row row of the image
+     * @return packed ARGB ints of the row, exactly width long
+     */
+    int[] copyRow(int row) {
+        return Arrays.copyOf(rows[row], width);
+    }
+
+    /**
+     * sets the pool that seam searches on large images split their rows over
+     * @param pool pool to use, or null to do everything on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * turns the approximate pyramid seam search on or off
+     * seams are then found on a downsampled image and refined in a band around them at every finer level,
+     * which is much faster on large images but may miss the exact seam (pyramidDeviation measures by how much);
+     * the downsampled levels are kept across seam removals and only updated around each removed seam;
+     * images too small to downsample are always searched exactly, and removeSeams always uses the exact search
+     * @param band columns searched on each side of the refined seam (a wider band is slower but closer to exact),
+     *             or 0 for the exact search
+     */
+    public void setPyramidBand(int band) {
+        pyramid = band > 0 ? new SeamPyramid(band) : null;
+    }
+
+    /**
+     * turns the check of incremental energy updates against a full recalculation on or off
+     * @param verifyEnergy true to verify every incremental update
+     */
+    public void setVerifyEnergy(boolean verifyEnergy) {
+        this.verifyEnergy = verifyEnergy;
+    }
+
+    /**
+     * gets brightness of a packed pixel by getting the average of its RGB components
+     * @param argb packed pixel
+     * @return brightness of pixel
+     */
+    static double brightness(int argb) {
+        return ((argb & Pixel.CHANNEL_MASK) + ((argb >> Pixel.RED_SHIFT) & Pixel.CHANNEL_MASK)
+                + ((argb >> Pixel.GREEN_SHIFT) & Pixel.CHANNEL_MASK)) / 3.0;
+    }
+
+    /**
+     * gets green component of a packed pixel
+     * @param argb packed pixel
+     * @return green component of pixel
+     */
+    static double green(int argb) {
+        return (argb >> Pixel.GREEN_SHIFT) & Pixel.CHANNEL_MASK;
+    }
+
+    /**
+     * returns horizontal energy of the pixel at column x given the brightness of the rows above and below it
+     * @param above brightness of the row above the current pixel in image
+     * @param current brightness of the row of the pixel whos horizontal energy value will be calculated
+     * @param below brightness of the row below the current pixel in image
+     * @param x column of the current pixel
      * @return horizontal energy of current pixel
      */
-    double getHorizontalEnergy(Pixel above, Pixel current, Pixel below){
-        return (above.left.brightness() + 2 * current.left.brightness() + below.left.brightness()) -
-                (above.right.brightness() + 2 * current.right.brightness() + below.right.brightness());
+    static double getHorizontalEnergy(double[] above, double[] current, double[] below, int x) {
+        return (above[x - 1] + 2 * current[x - 1] + below[x - 1])
+                - (above[x + 1] + 2 * current[x + 1] + below[x + 1]);
     }
 
     /**
-     * returns vertical energy of a current pixel given the pixel above and below it
-     * @param above pixel above the current pixel in image
-     * @param current pixel whos vertical energy value will be calculated
-     * @param below pixel below the current pixel in image
+     * returns vertical energy of the pixel at column x given the brightness of the rows above and below it
+     * @param above brightness of the row above the current pixel in image
+     * @param current brightness of the row of the pixel whos vertical energy value will be calculated
+     * @param below brightness of the row below the current pixel in image
+     * @param x column of the current pixel
      * @return vertical energy of current pixel
      */
-    double getVerticalEnergy(Pixel above, Pixel current, Pixel below){
-        return (above.left.brightness() + 2 * above.brightness() + above.right.brightness()) -
-                (below.left.brightness() + 2 * below.brightness() + below.right.brightness());
+    static double getVerticalEnergy(double[] above, double[] current, double[] below, int x) {
+        return (above[x - 1] + 2 * above[x] + above[x + 1])
+                - (below[x - 1] + 2 * below[x] + below[x + 1]);
     }
 
     /**
-     * returns total energy of the current pixel
-     * @param above pixel above the current pixel in image
-     * @param current pixel whos total energy will be calculated
-     * @param below pixel below the current pixel in image
+     * returns total energy of the pixel at column x
+     * @param above brightness of the row above the current pixel in image
+     * @param current brightness of the row of the pixel whos total energy will be calculated
+     * @param below brightness of the row below the current pixel in image
+     * @param x column of the current pixel
      * @return total energy of current pixel
      */
-    double energy(Pixel above, Pixel current, Pixel below) {
+    static double energy(double[] above, double[] current, double[] below, int x) {
 
-        double horizontalEnergy = getHorizontalEnergy(above, current, below);
-        double verticalEnergy = getVerticalEnergy(above, current, below);
+        double horizontalEnergy = getHorizontalEnergy(above, current, below, x);
+        double verticalEnergy = getVerticalEnergy(above, current, below, x);
 
         return Math.sqrt(horizontalEnergy * horizontalEnergy + verticalEnergy * verticalEnergy);
     }
 
     /**
-     * loops through all pixels in image by going row by row
-     * for each pixel, call the energy method on it and set its energy property equal to the result
+     * calculates the brightness of every pixel once, then the energy of every pixel from it
+     * on large images with a pool set, both passes are split into bands of rows calculated in parallel
      */
+    @SuppressWarnings("try")
     public void calculateEnergy() {
-        Pixel currentPixel;
-        Pixel abovePixel;
-        Pixel belowPixel;
+        if (energies == null) {
+            energies = new double[rows.length][]; // as many rows as the pixels, so ensureRow grows them together
+            brightnessRows = new double[rows.length][];
+        }
 
-        for(int y = 0; y < height; y ++) {
-            // edge case testing abovePixel and belowPixel values
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.ENERGY, width,
+                height)) {
+            forEachRow(y -> {
+                if (energies[y] == null || energies[y].length < rows[y].length) {
+                    energies[y] = new double[rows[y].length];
+                }
+                ensureBrightnessRow(y);
+                calculateBrightness(y, 0, width - 1);
+            });
+            forEachRow(y -> calculateEnergy(y, 0, width - 1));
+        }
 
-            if (y == 0) {
-                abovePixel = null;
-            } else {
-                abovePixel = rows.get(y - 1);
+        energyCalculated = true;
+        clearDirty();
+        pixelsChanged();
+    }
+
+    /**
+     * runs an action for every row, in parallel bands of rows if the image is large and a pool is set
+     * @param action action taking the row index
+     */
+    private void forEachRow(IntConsumer action) {
+        if (pool == null || pool.getParallelism() == 1 || (long) width * height < SeamCosts.PARALLEL_THRESHOLD) {
+            for (int y = 0; y < height; y++) {
+                action.accept(y);
             }
+            return;
+        }
+        int bandHeight = Math.max(MIN_BAND_HEIGHT, height / (4 * pool.getParallelism())); // a few bands per thread
+        pool.invoke(new RowBand(action, 0, height - 1, bandHeight));
+    }
+
+    /**
+     * band of rows handled by one task, split in half until it is at most bandHeight rows high
+     */
+    private static final class RowBand extends RecursiveAction {
+        private final IntConsumer action;
+        private final int from;
+        private final int to;
+        private final int bandHeight;
+
+        RowBand(IntConsumer action, int from, int to, int bandHeight) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.bandHeight = bandHeight;
+        }
 
-            if (y == height - 1) {
-                belowPixel = null;
-            } else {
-                belowPixel = rows.get(y + 1);
+        @Override
+        protected void compute() {
+            if (to - from + 1 <= bandHeight) {
+                for (int y = from; y <= to; y++) {
+                    action.accept(y);
+                }
+                return;
             }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowBand(action, from, middle, bandHeight), new RowBand(action, middle + 1, to, bandHeight));
+        }
+    }
 
-            currentPixel = rows.get(y);
+    /**
+     * makes sure the brightness row is as long as the row of pixels
+     * @param y row of the pixels
+     */
+    private void ensureBrightnessRow(int y) {
+        if (brightnessRows[y] == null || brightnessRows[y].length < rows[y].length) {
+            brightnessRows[y] = new double[rows[y].length];
+        }
+    }
 
-            for (int x = 0; x < width; x++) {
+    /**
+     * calculates the brightness of the pixels of one row between two columns
+     * @param y row of the pixels
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     */
+    private void calculateBrightness(int y, int from, int to) {
+        RowKernels.ACTIVE.brightness(rows[y], brightnessRows[y], from, to);
+    }
 
-                if (currentPixel.left == null || currentPixel.right == null || y == 0 || y == height - 1) {
-                    currentPixel.energy = currentPixel.brightness();
-                } else {
-                    currentPixel.energy = energy(abovePixel, currentPixel, belowPixel);
-                }
+    /**
+     * calculates the energy of the pixels of one row between two columns
+     * brightness must be calculated for the row and the rows next to it, one column further on each side
+     * @param y row of the pixels
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     */
+    private void calculateEnergy(int y, int from, int to) {
+        boolean edge = y == 0 || y == height - 1;
+        calculateEnergy(edge ? null : brightnessRows[y - 1], brightnessRows[y], edge ? null : brightnessRows[y + 1],
+                energies[y], from, to, width);
+    }
 
-                if (y == 0) {
-                    currentPixel = currentPixel.right;
-                    belowPixel = belowPixel.right;
+    /**
+     * calculates the energy of the pixels of one row between two columns from the brightness around them,
+     * the same way for an image and for the segments of a version
+     * @param above brightness of the row above, or null if the row is the first or last one
+     * @param current brightness of the row, one column further on each side
+     * @param below brightness of the row below, or null if the row is the first or last one
+     * @param energy array the energy of column x is written to at index x
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     * @param width width of the image
+     */
+    static void calculateEnergy(double[] above, double[] current, double[] below, double[] energy, int from, int to,
+                                int width) {
+        // edge pixels (first/last row or column) take their brightness as energy
+        if (above == null) {
+            System.arraycopy(current, from, energy, from, to - from + 1);
+            return;
+        }
 
-                } else if (y == height - 1) {
-                    currentPixel = currentPixel.right;
-                    abovePixel = abovePixel.right;
-                } else {
-                    currentPixel = currentPixel.right;
-                    abovePixel = abovePixel.right;
-                    belowPixel = belowPixel.right;
+        if (from == 0) {
+            energy[0] = current[0];
+        }
+        if (to == width - 1) {
+            energy[to] = current[to];
+        }
+        RowKernels.ACTIVE.energy(above, current, below, energy, Math.max(from, 1), Math.min(to, width - 2));
+    }
+
+    /**
+     * brings energies up to date, only recalculating dirty pixels if the energy was calculated before
+     */
+    @SuppressWarnings("try")
+    void updateEnergy() {
+        if (!energyCalculated) {
+            calculateEnergy();
+            return;
+        }
 
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.ENERGY, width,
+                height)) {
+            for (int y = 0; y < height; y++) {
+                int from = Math.max(0, dirtyFrom[y]);
+                int to = Math.min(width - 1, dirtyTo[y]);
+                if (from <= to) {
+                    // refreshes the brightness the dirty pixels are calculated from
+                    for (int row = Math.max(0, y - 1); row <= Math.min(height - 1, y + 1); row++) {
+                        ensureBrightnessRow(row);
+                        calculateBrightness(row, Math.max(0, from - 1), Math.min(width - 1, to + 1));
+                    }
+                    calculateEnergy(y, from, to);
                 }
             }
+        }
+        clearDirty();
 
+        if (verifyEnergy) {
+            verifyEnergy();
         }
     }
 
     /**
-     * given a list of pixels and a color, highlights the given pixels on the image the supplied color
-     * @param seam list of pixels that will be highlighted
-     * @param color color of highlighted seam
-     * @return returns original, un-highlighted seam
+     * compares the incrementally updated energies against a full recalculation
+     * @throws IllegalStateException if any pixel's energy differs
      */
-    public List<Pixel> higlightSeam(List<Pixel> seam, Color color) {
+    private void verifyEnergy() {
+        double[][] incremental = new double[height][];
+        for (int y = 0; y < height; y++) {
+            incremental[y] = Arrays.copyOf(energies[y], width);
+        }
 
-        int iterationNum = 0;
+        calculateEnergy();
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (Double.compare(incremental[y][x], energies[y][x]) != 0) {
+                    throw new IllegalStateException("Incremental energy " + incremental[y][x] + " at row " + y
+                            + ", column " + x + " does not match recalculated energy " + energies[y][x]);
+                }
+            }
+        }
+    }
 
-        // for each pixel in seam, create a new pixel with the specified color and modify pointers correctly
+    /**
+     * marks the pixels whose energy changes when the given seam is painted, removed or added as dirty
+     * a pixel's energy depends on its 3x3 neighbourhood, and the pixels after the seam move by one,
+     * so every pixel within two rows and columns of a seam pixel is marked
+     * @param seam seam that was changed (positions are where the seam is, or was, in the current image)
+     */
+    private void markDirty(List<Pixel> seam) {
         for (Pixel pixel : seam) {
+            markDirty(pixel.row, pixel.col);
+        }
+    }
 
-            Pixel newPixel = new Pixel(color);
+    /**
+     * marks the pixels within two rows and columns of a changed pixel as dirty
+     * @param row row of the changed pixel
+     * @param col column of the changed pixel
+     */
+    private void markDirty(int row, int col) {
+        if (!energyCalculated) {
+            return; // everything is calculated the first time anyway
+        }
 
-            // new pixel points to same pixels as current pixel
-            newPixel.left = pixel.left;
-            newPixel.right = pixel.right;
+        for (int y = Math.max(0, row - 2); y <= Math.min(height - 1, row + 2); y++) {
+            dirtyFrom[y] = Math.min(dirtyFrom[y], col - 2);
+            dirtyTo[y] = Math.max(dirtyTo[y], col + 2);
+        }
+    }
 
-            // if not first pixel in row
-            if (pixel.left != null) {
-                pixel.left.right = newPixel; // removes current pixel from image by modifying its neighbor pixel pointer to new pixel
-            } else {
-                rows.set(iterationNum, newPixel);
+    /**
+     * widens the dirty columns of every row by one on each side, as columns marked earlier
+     * may have moved by one when a vertical seam is removed or added
+     */
+    private void moveDirtyColumns() {
+        for (int y = 0; y < height; y++) {
+            if (dirtyFrom[y] <= dirtyTo[y]) {
+                dirtyFrom[y]--;
+                dirtyTo[y]++;
             }
+        }
+    }
 
-            if (pixel.right != null) {
-                pixel.right.left = newPixel; // removes current pixel from image by modifying its neighbor pixel pointer to new pixel
+    /**
+     * merges the dirty columns of every row with the row next to it, as pixels marked earlier
+     * may have moved to the row above (horizontal seam removed) or below (horizontal seam added)
+     * @param up true if pixels moved up, false if they moved down
+     */
+    private void moveDirtyRows(boolean up) {
+        if (up) {
+            for (int y = 0; y < height; y++) {
+                dirtyFrom[y] = Math.min(dirtyFrom[y], dirtyFrom[y + 1]);
+                dirtyTo[y] = Math.max(dirtyTo[y], dirtyTo[y + 1]);
+            }
+            dirtyFrom[height] = Integer.MAX_VALUE; // row below the image is clean
+            dirtyTo[height] = -1;
+        } else {
+            for (int y = height - 1; y > 0; y--) {
+                dirtyFrom[y] = Math.min(dirtyFrom[y], dirtyFrom[y - 1]);
+                dirtyTo[y] = Math.max(dirtyTo[y], dirtyTo[y - 1]);
             }
+        }
+    }
 
-            iterationNum ++;
+    /**
+     * marks every row as clean
+     */
+    private void clearDirty() {
+        Arrays.fill(dirtyFrom, Integer.MAX_VALUE);
+        Arrays.fill(dirtyTo, -1);
+    }
+
+    /**
+     * given a list of pixels and a color, highlights the given pixels on the image the supplied color
+     * @param seam list of pixels that will be highlighted
+     * @param color color of highlighted seam
+     * @return returns original, un-highlighted seam
+     */
+    public List<Pixel> higlightSeam(List<Pixel> seam, Color color) {
+        int rgb = color.getRGB();
+
+        // paints over every pixel of the seam, the seam itself keeps the original colors
+        for (Pixel pixel : seam) {
+            rows[pixel.row][pixel.col] = rgb;
         }
 
+        highlightedSeam = seam;
+        markDirty(seam);
+        pixelsChanged();
         return seam; // returns original seam
     }
 
@@ -197,174 +577,539 @@ public class Image {
      * @param seam list of pixels that will be removed from image
      */
     public void removeSeam(List<Pixel> seam) {
-
-        // loops throguh seam and deletes each pixel
+        if (seam == highlightedSeam) {
+            highlightedSeam = null; // the highlighted pixels go with the seam
+        }
+        int[] cols = new int[height];
         for (int row = 0; row < height; row++) {
-            Pixel seamPixel = seam.get(row);
-
-            if (seamPixel.left == null) { // if current pixel from seam is the first in the row
-                rows.set(row, seamPixel.right);
-            } else {
-                seamPixel.left.right = seamPixel.right; // modify neighbor pixel pointers to delete current pixel from image
-            }
+            cols[row] = seam.get(row).col;
+        }
+        removeSeam(cols);
+    }
 
-            if (seamPixel.right != null) { // if not last pixel in row
-                seamPixel.right.left = seamPixel.left;// modify neighbor pixel pointers to delete current pixel from image
+    /**
+     * removes a seam given as its column in every row
+     * @param cols column of the seam in every row
+     */
+    void removeSeam(int[] cols) {
+        // loops through seam and shifts the rest of each row left over the seam pixel
+        for (int row = 0; row < height; row++) {
+            int col = cols[row];
+            System.arraycopy(rows[row], col + 1, rows[row], col, width - col - 1);
+            if (energies != null && energies[row] != null) {
+                System.arraycopy(energies[row], col + 1, energies[row], col, width - col - 1);
             }
         }
+
         width--;
+        moveDirtyColumns();
+        for (int row = 0; row < height; row++) {
+            markDirty(row, cols[row]);
+        }
+        if (pyramid != null) {
+            pyramid.removeSeam(cols, false);
+        }
     }
 
     /**
      * adds a list of supplied pixels to image
+     * if the seam is the currently highlighted one, its original colors are painted back instead
      * @param seam list of pixels that will be added to image
      */
     public void addSeam(List<Pixel> seam) {
-        int iterationNum = 0;
+        if (seam == highlightedSeam) {
+            restoreHighlighted();
+            return;
+        }
 
-        // loops through each pixel in seam, adding it back with the correct pointers
-        for (Pixel pixel : seam) {
-            if (pixel.left == null) {
-                rows.set(iterationNum, pixel);
-            } else {
-                pixel.left.right = pixel;
+        int[] cols = new int[height];
+        int[] colors = new int[height];
+        for (int row = 0; row < height; row++) {
+            cols[row] = seam.get(row).col;
+            colors[row] = seam.get(row).rgb;
+        }
+        addSeam(cols, colors);
+    }
+
+    /**
+     * adds a seam given as the column and packed color of its pixel in every row
+     * @param cols column of the seam in every row
+     * @param colors packed color of the seam pixel in every row
+     */
+    public void addSeam(int[] cols, int[] colors) {
+        // loops through each row, shifting the rest of the row right to make room for the seam pixel
+        for (int row = 0; row < height; row++) {
+            int col = cols[row];
+            int[] pixels = rows[row];
+            if (pixels.length == width) {
+                pixels = new int[width + Math.max(1, width / 2)];
+                System.arraycopy(rows[row], 0, pixels, 0, width);
+                rows[row] = pixels;
             }
+            System.arraycopy(pixels, col, pixels, col + 1, width - col);
+            pixels[col] = colors[row];
 
-            if (pixel.right != null) {
-                pixel.right.left = pixel;
+            if (energies != null && energies[row] != null) {
+                if (energies[row].length < pixels.length) {
+                    energies[row] = Arrays.copyOf(energies[row], pixels.length);
+                }
+                System.arraycopy(energies[row], col, energies[row], col + 1, width - col);
             }
-            
-            iterationNum++;
         }
 
         width++;
+        moveDirtyColumns();
+        for (int row = 0; row < height; row++) {
+            markDirty(row, cols[row]);
+        }
+        pixelsChanged();
     }
 
     /**
-     * finds seam with maximum cumulative value defined by the valueGetter lambda function
-     * @param valueGetter lambda function which takes in a pixel and returns a double value
-     *                    (such as energy or a color component)
-     * @return seam with maximum cumulative value
+     * paints the original colors of the highlighted seam back
      */
-    private List<Pixel> getSeamMaximizing(Function<Pixel, Double> valueGetter) {
-        HashMap<Pixel, Pixel> p2p = new HashMap<>(); // map given pixel to a pixel in which it got its max value from
-        HashMap<Pixel, Double> p2s = new HashMap<>(); // maps pixel to its maximum cumulative value
+    private void restoreHighlighted() {
+        for (Pixel pixel : highlightedSeam) {
+            rows[pixel.row][pixel.col] = pixel.rgb;
+        }
+        markDirty(highlightedSeam);
+        pixelsChanged();
+        highlightedSeam = null;
+    }
 
-        // intializes first row of values and adds them to p2s hashmap
-        Pixel current = rows.getFirst();
-        while (current != null) {
-            p2s.put(current, valueGetter.apply(current));
-            current = current.right;
+    /**
+     * removes a horizontal seam (one pixel per column) from image
+     * every column moves up over its seam pixel, going through the rows in order
+     * @param seam list of pixels that will be removed from image
+     */
+    public void removeHorizontalSeam(List<Pixel> seam) {
+        if (seam == highlightedSeam) {
+            highlightedSeam = null; // the highlighted pixels go with the seam
+        }
+        int[] seamRows = new int[width];
+        for (int x = 0; x < width; x++) {
+            seamRows[x] = seam.get(x).row;
         }
+        removeHorizontalSeam(seamRows);
+    }
 
-        for(int y = 1; y < height; y++){
-            Pixel above = rows.get(y-1);
-            current = rows.get(y);
+    /**
+     * removes a horizontal seam given as its row in every column
+     * @param seamRows row of the seam in every column
+     */
+    void removeHorizontalSeam(int[] seamRows) {
+        for (int y = 0; y < height - 1; y++) {
+            int[] pixels = rows[y];
+            int[] below = rows[y + 1];
+            double[] energy = energies != null ? energies[y] : null;
+            for (int x = 0; x < width; x++) {
+                if (y >= seamRows[x]) {
+                    pixels[x] = below[x];
+                    if (energy != null) {
+                        energy[x] = energies[y + 1][x];
+                    }
+                }
+            }
+        }
 
-            while(current != null){ // loops through all pixels in current row
-                double c_value = valueGetter.apply(current); // value of current pixel
+        height--;
+        if (energyCalculated) {
+            moveDirtyRows(true);
+        }
+        for (int x = 0; x < width; x++) {
+            markDirty(seamRows[x], x);
+        }
+        if (pyramid != null) {
+            pyramid.removeSeam(seamRows, true);
+        }
+    }
 
-                // sets values of above.left, above and above.right pixels to negative infinity as default
-                double al_value = Double.NEGATIVE_INFINITY;
-                double a_value = Double.NEGATIVE_INFINITY;
-                double ar_value = Double.NEGATIVE_INFINITY;
+    /**
+     * adds a horizontal seam (one pixel per column) to image
+     * if the seam is the currently highlighted one, its original colors are painted back instead
+     * @param seam list of pixels that will be added to image
+     */
+    public void addHorizontalSeam(List<Pixel> seam) {
+        if (seam == highlightedSeam) {
+            restoreHighlighted();
+            return;
+        }
 
-                if (above.left != null) {
-                    al_value = p2s.get(above.left) + c_value; // sum of above.left and current pixel
-                }
+        int[] seamRows = new int[width];
+        int[] colors = new int[width];
+        for (int x = 0; x < width; x++) {
+            seamRows[x] = seam.get(x).row;
+            colors[x] = seam.get(x).rgb;
+        }
+        addHorizontalSeam(seamRows, colors);
+    }
 
-                if (above != null) {
-                    a_value = p2s.get(above) + c_value; // sum of above and current pixel
+    /**
+     * adds a horizontal seam given as the row and packed color of its pixel in every column
+     * @param seamRows row of the seam in every column
+     * @param colors packed color of the seam pixel in every column
+     */
+    public void addHorizontalSeam(int[] seamRows, int[] colors) {
+        ensureRow(height);
+        for (int y = height; y >= 0; y--) {
+            int[] pixels = rows[y];
+            double[] energy = energies != null ? energies[y] : null;
+            for (int x = 0; x < width; x++) {
+                if (y > seamRows[x]) {
+                    pixels[x] = rows[y - 1][x];
+                    if (energy != null) {
+                        energy[x] = energies[y - 1][x];
+                    }
+                } else if (y == seamRows[x]) {
+                    pixels[x] = colors[x];
                 }
+            }
+        }
 
-                if (above.right != null) {
-                    ar_value = p2s.get(above.right) + c_value; // sum of above.right and current pixel
-                }
+        height++;
+        if (energyCalculated) {
+            moveDirtyRows(false);
+        }
+        for (int x = 0; x < width; x++) {
+            markDirty(seamRows[x], x);
+        }
+        pixelsChanged();
+    }
 
-                // compares values of above pixels to get maximum cumulative value
-                if (al_value > a_value) {
-                    if (al_value > ar_value) {
-                        /*
-                        if max value is from summing above.left and current value,
-                         add pointer to above.left for current pixel to backtrack later for max seam
-                         */
-                        p2p.put(current, above.left);
-                        p2s.put(current, al_value); // maps pixel to its max value
-                    } else {
-                        /*
-                        if max value is from summing above.right and current value,
-                         add pointer to above.left for current pixel to backtrack later for max seam
-                         */
-                        p2p.put(current, above.right);
-                        p2s.put(current, ar_value); // maps pixel to its max value
-                    }
-                } else {
-                    if (a_value > ar_value) {
-                        /*
-                        if max value is from summing above and current value,
-                         add pointer to above.left for current pixel to backtrack later for max seam
-                         */
-                        p2p.put(current, above);
-                        p2s.put(current, a_value); // maps pixel to its max value
-                    } else {
-                        /*
-                        if max value is from summing above.right and current value,
-                         add pointer to above.left for current pixel to backtrack later for max seam
-                         */
-                        p2p.put(current, above.right);
-                        p2s.put(current, ar_value); // maps pixel to its max value
-                    }
-                }
+    /**
+     * makes sure a row exists below the image and is long enough to hold the image width
+     * @param y index of the row
+     */
+    private void ensureRow(int y) {
+        if (y == rows.length) {
+            int capacity = y + Math.max(1, y / 2);
+            rows = Arrays.copyOf(rows, capacity);
+            dirtyFrom = Arrays.copyOf(dirtyFrom, capacity);
+            dirtyTo = Arrays.copyOf(dirtyTo, capacity);
+            Arrays.fill(dirtyFrom, y, capacity, Integer.MAX_VALUE);
+            Arrays.fill(dirtyTo, y, capacity, -1);
+        }
+        if (energies != null && energies.length < rows.length) {
+            energies = Arrays.copyOf(energies, rows.length);
+            brightnessRows = Arrays.copyOf(brightnessRows, rows.length);
+        }
+        if (rows[y] == null || rows[y].length < width) {
+            rows[y] = rows[y] == null ? new int[width] : Arrays.copyOf(rows[y], width);
+        }
+        if (energies != null && (energies[y] == null || energies[y].length < rows[y].length)) {
+            energies[y] = energies[y] == null ? new double[rows[y].length] : Arrays.copyOf(energies[y], rows[y].length);
+        }
+    }
 
-                above = above.right;
-                current = current.right;
+    /**
+     * value of pixels which seams are maximized over, read a row at a time so that the seam search
+     * makes one call per row instead of one per pixel
+     */
+    interface PixelValue {
+        /**
+         * writes the values of the pixels of a row between two columns
+         * @param row row of the pixels
+         * @param from first column (inclusive)
+         * @param to last column (inclusive)
+         * @param values array the value of column x is written to at index x
+         */
+        void get(int row, int from, int to, double[] values);
+    }
+
+    // scorers are kept in fields so that finding a seam does not allocate a new lambda every time
+    private final PixelValue greenness = this::greenRow;
+    private final PixelValue negativeEnergy = this::negativeEnergyRow;
+
+    // same scorers on the transposed image (row and column swapped), horizontal seams are its vertical seams
+    private final PixelValue transposedGreenness = this::transposedGreenRow;
+    private final PixelValue transposedNegativeEnergy = this::transposedNegativeEnergyRow;
+
+    private final SeamSearch search = new SeamSearch(); // scratch space of the exact seam search
+
+    private void greenRow(int row, int from, int to, double[] values) {
+        int[] pixels = rows[row];
+        for (int x = from; x <= to; x++) {
+            values[x] = green(pixels[x]);
+        }
+    }
+
+    private void negativeEnergyRow(int row, int from, int to, double[] values) {
+        double[] energy = energies[row];
+        for (int x = from; x <= to; x++) {
+            values[x] = -energy[x];
+        }
+    }
+
+    private void transposedGreenRow(int col, int from, int to, double[] values) {
+        for (int y = from; y <= to; y++) {
+            values[y] = green(rows[y][col]);
+        }
+    }
+
+    private void transposedNegativeEnergyRow(int col, int from, int to, double[] values) {
+        for (int y = from; y <= to; y++) {
+            values[y] = -energies[y][col];
+        }
+    }
+
+    /**
+     * builds the seam of pixels at the given columns of every row
+     * @param cols column of the seam in every row
+     * @return seam of pixels
+     */
+    private List<Pixel> seamAt(int[] cols) {
+        Pixel[] seam = new Pixel[height];
+        for (int y = 0; y < height; y++) {
+            seam[y] = new Pixel(y, cols[y], rows[y][cols[y]]);
+        }
+        return Arrays.asList(seam);
+    }
+
+    /**
+     * builds the horizontal seam of pixels at the given rows of every column
+     * @param seamRows row of the seam in every column
+     * @return seam of pixels
+     */
+    private List<Pixel> horizontalSeamAt(int[] seamRows) {
+        Pixel[] seam = new Pixel[width];
+        for (int x = 0; x < width; x++) {
+            seam[x] = new Pixel(seamRows[x], x, rows[seamRows[x]][x]);
+        }
+        return Arrays.asList(seam);
+    }
+
+    /**
+     * removes several seams of the given type one after another
+     * the cumulative seam values are kept between removals and only updated around each removed seam
+     * @param count number of seams to remove (at most width - 1 are removed)
+     * @param type type of seams to remove
+     * @return removed seams in the order they were removed
+     */
+    @SuppressWarnings("try")
+    public List<List<Pixel>> removeSeams(int count, SeamType type) {
+        PixelValue value = type == SeamType.GREENEST ? greenness : negativeEnergy;
+        if (type == SeamType.LOWEST_ENERGY) {
+            updateEnergy();
+        }
+
+        List<List<Pixel>> removed = new ArrayList<>(count);
+        SeamCosts costs;
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, width,
+                height)) {
+            costs = new SeamCosts(value, width, height, pool);
+        }
+        while (removed.size() < count && width > 1) {
+            int[] cols;
+            try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.BACKTRACK, width,
+                    height)) {
+                cols = costs.findSeam();
+            }
+            List<Pixel> seam = seamAt(cols);
+            removeSeam(cols);
+            if (type == SeamType.LOWEST_ENERGY) {
+                updateEnergy();
+            }
+            try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, width,
+                    height)) {
+                costs.removeSeam(cols);
             }
+            removed.add(seam);
         }
+        return removed;
+    }
 
-        // gets maximum value from last row
+    /**
+     * widens the image by inserting several lowest energy seams at once
+     * the seams are all taken from one search, then every row is rebuilt in a single pass with a new pixel
+     * right of each seam pixel, colored as the average of the seam pixel and its right neighbour
+     * @param count number of seams to insert (at most width)
+     * @return columns of the inserted pixels in every row of the widened image, in increasing order
+     */
+    @SuppressWarnings("try")
+    public int[][] addSeams(int count) {
+        updateEnergy();
+        int[][] seams;
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, width,
+                height)) {
+            seams = new SeamCosts(negativeEnergy, width, height, pool).findSeams(count);
+        }
+
+        int[][] inserted = new int[height][count];
+        int[] cols = new int[count];
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < count; i++) {
+                cols[i] = seams[i][y];
+            }
+            Arrays.sort(cols);
+
+            int[] pixels = rows[y];
+            int[] widened = new int[width + count + Math.max(1, (width + count) / 2)];
+            int i = 0;
+            int n = 0;
+            for (int x = 0; x < width; x++) {
+                widened[n++] = pixels[x];
+                while (i < count && cols[i] == x) {
+                    int neighbour = x < width - 1 ? pixels[x + 1] : pixels[Math.max(0, x - 1)];
+                    inserted[y][i++] = n;
+                    widened[n++] = average(pixels[x], neighbour);
+                }
+            }
+            rows[y] = widened;
+        }
 
-        Pixel bottomRow = rows.get(height - 1);
-        current = bottomRow;
-        Pixel maxPixel = current;
-        double maxValue = p2s.get(current);
+        width += count;
+        invalidateEnergy();
+        return inserted;
+    }
 
-        while (current != null) {
-            if (p2s.get(current) > maxValue) {
-                maxValue = p2s.get(current);
-                maxPixel = current;
+    /**
+     * removes pixels at the given columns of every row, shifting the rest of each row left in a single pass
+     * (undoes addSeams when given the columns it returned)
+     * @param cols columns to remove in every row, in increasing order and the same number in every row
+     */
+    public void removeColumns(int[][] cols) {
+        for (int y = 0; y < height; y++) {
+            int[] pixels = rows[y];
+            int[] removed = cols[y];
+            int i = 0;
+            int n = 0;
+            for (int x = 0; x < width; x++) {
+                if (i < removed.length && removed[i] == x) {
+                    i++;
+                } else {
+                    pixels[n++] = pixels[x];
+                }
             }
-            current = current.right;
         }
 
-        List<Pixel> path = new ArrayList<>();
-        current = maxPixel;
+        width -= cols[0].length;
+        invalidateEnergy();
+    }
+
+    /**
+     * averages every channel of two packed pixels
+     * @param first first packed pixel
+     * @param second second packed pixel
+     * @return opaque packed pixel with the average color
+     */
+    private static int average(int first, int second) {
+        int red = (((first >> Pixel.RED_SHIFT) & Pixel.CHANNEL_MASK)
+                + ((second >> Pixel.RED_SHIFT) & Pixel.CHANNEL_MASK)) / 2;
+        int green = (((first >> Pixel.GREEN_SHIFT) & Pixel.CHANNEL_MASK)
+                + ((second >> Pixel.GREEN_SHIFT) & Pixel.CHANNEL_MASK)) / 2;
+        int blue = ((first & Pixel.CHANNEL_MASK) + (second & Pixel.CHANNEL_MASK)) / 2;
+        return Pixel.OPAQUE | (red << Pixel.RED_SHIFT) | (green << Pixel.GREEN_SHIFT) | blue;
+    }
 
-        /*
-        goes from bottom to top of image through pixel to pixel hashmap
-         (which contains pointers from where the current pixel got its maximum value),
-         creating a maximum seam
+    /**
+     * drops the calculated energy after an edit that touched too many pixels to track as dirty columns,
+     * so the next energy update is a full recalculation
+     */
+    private void invalidateEnergy() {
+        energyCalculated = false;
+        clearDirty();
+        pixelsChanged();
+    }
 
-         */
-        while (current != null) {
-            path.add(current);
-            current = p2p.get(current);
+    /**
+     * drops the levels of the pyramid search after an edit it cannot follow, so the next search builds them again
+     */
+    private void pixelsChanged() {
+        if (pyramid != null) {
+            pyramid.invalidate();
         }
+    }
 
-        // since seam was created from bottom up, reverse it and then return it
-        Collections.reverse(path);
+    /**
+     * finds the seam maximizing a value with the pyramid search if it is turned on, otherwise exactly
+     * @param valueGetter lambda function which writes the double values of a row of pixels
+     * @param viewWidth width of the image as seen by valueGetter
+     * @param viewHeight height of the image as seen by valueGetter
+     * @param transposed true if valueGetter sees the image transposed
+     * @return column of the seam in every row
+     */
+    @SuppressWarnings("try")
+    private int[] findSeam(PixelValue valueGetter, int viewWidth, int viewHeight, boolean transposed) {
+        if (pyramid != null && SeamPyramid.applies(viewWidth, viewHeight)) {
+            try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, width,
+                    height)) {
+                return pyramid.findSeam(valueGetter, viewWidth, viewHeight, transposed);
+            }
+        }
+        return search.findSeam(valueGetter, viewWidth, viewHeight, pool);
+    }
 
-        return path;
+    /**
+     * finds a seam as positions only, without a Pixel for each of its pixels
+     * @param type property of the pixels the seam is found by
+     * @param horizontal true to find a horizontal seam, searching the transposed image without copying it
+     * @return column of the seam in every row, or row of the seam in every column if horizontal
+     */
+    int[] findSeam(SeamType type, boolean horizontal) {
+        if (type == SeamType.LOWEST_ENERGY) {
+            updateEnergy();
+            return horizontal ? findSeam(transposedNegativeEnergy, height, width, true)
+                    : findSeam(negativeEnergy, width, height, false);
+        }
+        return horizontal ? findSeam(transposedGreenness, height, width, true)
+                : findSeam(greenness, width, height, false);
     }
 
+    /**
+     * compares the vertical seam the pyramid search finds with the exact seam
+     * @param type property of the pixels the seams are found by
+     * @return deviation of the pyramid seam, or null if the pyramid search is off or the image is too small for it
+     */
+    public SeamDeviation pyramidDeviation(SeamType type) {
+        if (pyramid == null || !SeamPyramid.applies(width, height)) {
+            return null;
+        }
+        PixelValue value = type == SeamType.GREENEST ? greenness : negativeEnergy;
+        if (type == SeamType.LOWEST_ENERGY) {
+            updateEnergy();
+        }
+        int[] exact = search.findSeam(value, width, height, pool);
+        int[] approximate = pyramid.findSeam(value, width, height, false);
+
+        long totalColumns = 0;
+        int maxColumns = 0;
+        double exactValue = 0;
+        double approximateValue = 0;
+        double[] values = new double[width];
+        for (int y = 0; y < height; y++) {
+            int distance = Math.abs(approximate[y] - exact[y]);
+            totalColumns += distance;
+            maxColumns = Math.max(maxColumns, distance);
+            value.get(y, exact[y], exact[y], values);
+            exactValue += values[exact[y]];
+            value.get(y, approximate[y], approximate[y], values);
+            approximateValue += values[approximate[y]];
+        }
+        return new SeamDeviation((double) totalColumns / height, maxColumns, approximateValue / exactValue);
+    }
 
     public List<Pixel> getGreenestSeam() {
-        return getSeamMaximizing(Pixel::getGreen);
+        return seamAt(findSeam(SeamType.GREENEST, false));
     }
 
     public List<Pixel> getLowestEnergySeam() {
-        calculateEnergy();
-        return getSeamMaximizing(pixel -> -pixel.energy);
+        return seamAt(findSeam(SeamType.LOWEST_ENERGY, false));
+    }
 
+    /**
+     * finds the greenest horizontal seam, searching the transposed image without copying it
+     * @return seam with one pixel per column
+     */
+    public List<Pixel> getGreenestHorizontalSeam() {
+        return horizontalSeamAt(findSeam(SeamType.GREENEST, true));
+    }
 
+    /**
+     * finds the horizontal seam with the lowest energy, searching the transposed image without copying it
+     * the energy of a pixel is the same in the transposed image, so the energies are reused
+     * @return seam with one pixel per column
+     */
+    public List<Pixel> getLowestEnergyHorizontalSeam() {
+        return horizontalSeamAt(findSeam(SeamType.LOWEST_ENERGY, true));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*PERFORMANCE BENCHMARKS*/
+/**
+ * JMH benchmarks of the hot paths of Image and ImageEditor on synthetic images of several sizes
+ * run with mvn -Pbenchmarks verify, which adds the GC profiler so allocation rates are reported as well
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+
+    @Param({"640x480", "1920x1080", "3840x2160"})
+    private String size;
+
+    private BufferedImage bufferedImage;
+    private Image image;
+    private List<Pixel> seam;
+
+    private Path directory;
+    private ImageEditor editor;
+
+    /**
+     * creates the image of the benchmarked size, and an editor which has it loaded
+     * @throws IOException throws if the image cannot be written to or loaded from a temporary file
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String[] dimensions = size.split("x");
+        bufferedImage = TestImages.synthetic(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        image = new Image(bufferedImage);
+        image.calculateEnergy();
+        seam = image.getGreenestSeam();
+
+        directory = Files.createTempDirectory("benchmark");
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(bufferedImage, "png", file);
+        // no previews are encoded in the background and no messages printed while the editor is measured
+        editor = new ImageEditor(PreviewWriter.discarding());
+        editor.setMessages(new PrintStream(OutputStream.nullOutputStream()));
+        editor.load(file.getPath());
+    }
+
+    /**
+     * waits for the last preview, then deletes the temporary files
+     * @throws IOException throws if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        editor.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Image construct() {
+        return new Image(bufferedImage);
+    }
+
+    @Benchmark
+    public void calculateEnergy() {
+        image.calculateEnergy();
+    }
+
+    @Benchmark
+    public List<Pixel> getGreenestSeam() {
+        return image.getGreenestSeam();
+    }
+
+    /**
+     * finds the lowest energy seam of an image whose energy is up to date, so only the search is measured
+     * @return seam
+     */
+    @Benchmark
+    public List<Pixel> getLowestEnergySeam() {
+        return image.getLowestEnergySeam();
+    }
+
+    /**
+     * removes a seam and adds it back, leaving the image as it was
+     */
+    @Benchmark
+    public void removeAndAddSeam() {
+        image.removeSeam(seam);
+        image.addSeam(seam);
+    }
+
+    @Benchmark
+    public BufferedImage toBufferedImage() {
+        return image.toBufferedImage();
+    }
+
+    /**
+     * highlights the greenest seam, removes it and undoes the removal, as the menu of Main does
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    @Benchmark
+    public void editorRemoveAndUndo() throws IOException {
+        editor.highlightGreenest();
+        editor.removeHighlighted();
+        editor.undo();
+    }
+}
@@ -2,18 +2,125 @@ package uk.ac.nulondon;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.zip.Deflater;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /*APPLICATION SERVICE LAYER*/
 public class ImageEditor {
 
+    /**
+     * seam waiting to be removed or cancelled: its position in every row (or column) and the color it is shown in,
+     * painted over the previews without touching the image, so highlighting and cancelling copy no pixels
+     * @param horizontal true if the seam runs across the image
+     * @param positions column of the seam in every row, or row of the seam in every column if horizontal
+     * @param rgb packed color the seam is shown in
+     */
+    record Highlight(boolean horizontal, int[] positions, int rgb) {
+        void paint(BufferedImage image) {
+            for (int i = 0; i < positions.length; i++) {
+                if (horizontal) {
+                    image.setRGB(i, positions[i], rgb);
+                } else {
+                    image.setRGB(positions[i], i, rgb);
+                }
+            }
+        }
+
+        /**
+         * writes a highlight, or that there is none
+         * @param highlight highlight, or null
+         * @param output stream the highlight is written to
+         * @throws IOException throws if the stream cannot be written
+         */
+        static void write(Highlight highlight, DataOutputStream output) throws IOException {
+            output.writeBoolean(highlight != null);
+            if (highlight != null) {
+                output.writeBoolean(highlight.horizontal);
+                output.writeInt(highlight.rgb);
+                output.writeInt(highlight.positions.length);
+                for (int position : highlight.positions) {
+                    output.writeInt(position);
+                }
+            }
+        }
+
+        static Highlight read(DataInputStream input) throws IOException {
+            if (!input.readBoolean()) {
+                return null;
+            }
+            boolean horizontal = input.readBoolean();
+            int rgb = input.readInt();
+            int[] positions = new int[input.readInt()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = input.readInt();
+            }
+            return new Highlight(horizontal, positions, rgb);
+        }
+
+        long bytes() {
+            return UndoLog.OBJECT_BYTES + 4L * positions.length;
+        }
+
+        /**
+         * copies the highlight, for keeping it once the seam buffer it shares is written again
+         * @return highlight holding its own positions
+         */
+        Highlight copy() {
+            return new Highlight(horizontal, positions.clone(), rgb);
+        }
+    }
+
+    /**
+     * finds a seam into the seam buffer of its direction and highlights it
+     * @param type property of the pixels the seam is found by
+     * @param horizontal true to find a horizontal seam
+     * @param color color the seam is shown in
+     * @return highlight sharing the seam buffer
+     */
+    private Highlight highlightSeam(Image.SeamType type, boolean horizontal, Color color) {
+        int direction = horizontal ? 1 : 0;
+        int length = horizontal ? version.getWidth() : version.getHeight();
+        if (seamBuffers[direction].length != length) {
+            seamBuffers[direction] = new int[length];
+        }
+        int[] seam = version.findSeam(type, horizontal, search, seamBuffers[direction]);
+
+        int index = 2 * direction + type.ordinal();
+        Highlight found = bufferHighlights[index];
+        if (found == null || found.positions() != seam) {
+            found = new Highlight(horizontal, seam, color.getRGB());
+            bufferHighlights[index] = found;
+        }
+        return found;
+    }
+
+    /**
+     * gets a highlight which stays the same when the seam buffers are written again
+     * @param shown highlight, or null
+     * @return the highlight, or a copy of it if it shares a seam buffer
+     */
+    private Highlight kept(Highlight shown) {
+        if (shown != null && (shown.positions() == seamBuffers[0] || shown.positions() == seamBuffers[1])) {
+            return shown.copy();
+        }
+        return shown;
+    }
+
     /**
      * Command interface with two abstract methods, execute and undo, which all actions of image editor implement
      */
@@ -22,20 +129,100 @@ public class ImageEditor {
         void undo() throws IOException;
     }
 
-    private Image image;
-    private List<Pixel> highlightedSeam = null;
-    private final Deque<Command> commandHistory = new ArrayDeque<>(); // undo stack of commands
+    /*
+    the image as last edited is an immutable version, sharing the pixels it did not change with earlier versions
+    and with other editors of the same file; commands find seams on the version and edit it into a new one,
+    which carries the energy along, so the editor holds no mutable copy of the image between commands
+     */
+    private ImageVersion version;
+    private final SeamSearch search = new SeamSearch(); // scratch space of the seam searches, kept between commands
+    /*
+    seam buffers the highlighted seams are found into, one per direction, and the highlights sharing them
+    (by direction and seam type); highlighting and cancelling again and again allocates no seam, only a highlight kept
+    after the next search writes its buffer again (by a command's undo or a background preview) is copied
+     */
+    private final int[][] seamBuffers = {new int[0], new int[0]};
+    private final Highlight[] bufferHighlights = new Highlight[4];
+    private Highlight highlight = null; // highlighted seam, painted over the exported images only
+    private final UndoLog commandHistory; // undo stack of commands
+    private final PreviewWriter previewWriter; // writes live updates of the image in the background
+    private final StripPngEncoder saveEncoder = new StripPngEncoder(Deflater.DEFAULT_COMPRESSION);
+    private PrintStream messages = System.out; // where the [INFO] and [ERROR] messages of the commands go
+
+    public static final long DEFAULT_UNDO_BUDGET = 64L * 1024 * 1024; // bytes of undo history kept in memory
+    public static final String SESSION_EXTENSION = ".session"; // files written by checkpoint
+    // heap needed per pixel: decoded image, version and its energy, and the image seams are inserted into
+    public static final int HEAP_BYTES_PER_PIXEL = 32;
+
+    /**
+     * creates an editor writing full size live updates to target/currentImg.png
+     */
+    public ImageEditor() {
+        this(new PreviewWriter("target/currentImg.png"));
+    }
+
+    /**
+     * creates an editor writing live updates with the given preview writer
+     * @param previewWriter writer of live updates
+     */
+    public ImageEditor(PreviewWriter previewWriter) {
+        this(previewWriter, DEFAULT_UNDO_BUDGET);
+    }
+
+    /**
+     * creates an editor writing live updates with the given preview writer
+     * @param previewWriter writer of live updates
+     * @param undoBudget bytes of undo history kept in memory, older history is compressed to a file on disk
+     */
+    public ImageEditor(PreviewWriter previewWriter, long undoBudget) {
+        this.previewWriter = previewWriter;
+        this.commandHistory = new UndoLog(undoBudget, this::readCommand);
+    }
+
+    /**
+     * sets where the editor prints the messages of its commands
+     * @param messages stream for the messages, e.g. one over OutputStream.nullOutputStream() to keep the editor quiet
+     */
+    public void setMessages(PrintStream messages) {
+        this.messages = messages;
+    }
 
     /**
      * loads an image from a file path
      * @param filePath filepath of image
      * @throws IOException throws if file cannot be read or accessed
      */
+    @SuppressWarnings("try")
     public void load(String filePath) throws IOException {
-        File originalFile = new File(filePath);
-        BufferedImage img = ImageIO.read(originalFile);
-        image = new Image(img);
-        save("target/currentImg.png");
+        try (OperationMetrics.Scope scope = OperationMetrics.command("LOAD")) {
+            version = ImageVersion.load(new File(filePath)); // only decoded if no other editor has the file open
+        }
+        preview("LOAD");
+    }
+
+    /**
+     * checks from the size in its header if an image file can be loaded on the heap that is left,
+     * larger images can only be carved with MappedImage
+     * @param filePath filepath of image
+     * @return true if the image fits, or if its size cannot be read (load then reports the error)
+     * @throws IOException throws if file cannot be read or accessed
+     */
+    public static boolean fitsInHeap(String filePath) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filePath))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return true;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                Runtime runtime = Runtime.getRuntime();
+                long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+                return (long) reader.getWidth(0) * reader.getHeight(0) * HEAP_BYTES_PER_PIXEL <= available;
+            } finally {
+                reader.dispose();
+            }
+        }
     }
 
     /**
@@ -43,9 +230,131 @@ public class ImageEditor {
      * @param filePath filepath where image should be saved
      * @throws IOException throws if image cannot be saved at the given filepath
      */
+    @SuppressWarnings("try")
     public void save(String filePath) throws IOException {
-        BufferedImage img = image.toBufferedImage();
-        ImageIO.write(img, "png", new File(filePath));
+        try (OperationMetrics.Scope scope = OperationMetrics.command("SAVE");
+             OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.WRITE,
+                     version.getWidth(), version.getHeight());
+             OutputStream output = new BufferedOutputStream(new FileOutputStream(filePath))) {
+            saveEncoder.write(version, highlight, output); // segments unchanged since the last save are not encoded
+        }
+    }
+
+    /**
+     * writes the session to a file it can be resumed from: the pixels, the energy if it has been calculated,
+     * the highlighted seam and the undo history
+     * @param filePath filepath of the session file
+     * @throws IOException throws if the session file cannot be written
+     */
+    @SuppressWarnings("try")
+    public void checkpoint(String filePath) throws IOException {
+        try (OperationMetrics.Scope scope = OperationMetrics.command("CHECKPOINT")) {
+            SessionFile.write(Path.of(filePath), version, output -> {
+                Highlight.write(highlight, output);
+                commandHistory.write(output);
+            });
+        }
+    }
+
+    /**
+     * resumes a session written by checkpoint, replacing the image, highlight and undo history;
+     * the pixels and energy are mapped from the file, so no image is decoded and no energy calculated
+     * @param filePath filepath of the session file
+     * @throws IOException throws if the session file cannot be read
+     */
+    @SuppressWarnings("try")
+    public void resume(String filePath) throws IOException {
+        try (OperationMetrics.Scope scope = OperationMetrics.command("RESUME")) {
+            SessionFile session = SessionFile.read(Path.of(filePath));
+            version = session.version;
+            highlight = Highlight.read(session.state);
+            commandHistory.read(session.state); // commands that are undone are read back from the journal
+        }
+        preview("RESUME");
+    }
+
+    /**
+     * executes a command, tagging the phases it spends its time in with its type
+     * @param type command type, such as HG, HLE or RH
+     * @param command command to execute
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    @SuppressWarnings("try")
+    private void execute(String type, Command command) throws IOException {
+        try (OperationMetrics.Scope scope = OperationMetrics.command(type)) {
+            command.execute();
+        }
+    }
+
+    /**
+     * hands a snapshot of the image to the preview writer for live updates, without waiting for it to be written
+     * @param type type of the command the snapshot is taken after, which the copying is tagged with
+     */
+    @SuppressWarnings("try")
+    private void preview(String type) {
+        try (OperationMetrics.Scope scope = OperationMetrics.command(type)) {
+            previewWriter.submit(version, highlight); // versions are immutable, so only the highlight is copied
+        }
+    }
+
+    /**
+     * copies a version into a buffered image, with the highlighted seam painted over it
+     * @param version version of the image
+     * @param highlight highlighted seam, or null
+     * @return buffered image of the image as shown to the user
+     */
+    static BufferedImage export(ImageVersion version, Highlight highlight) {
+        BufferedImage img = version.toBufferedImage();
+        if (highlight != null) {
+            highlight.paint(img);
+        }
+        return img;
+    }
+
+    /**
+     * gets the current version of the image
+     * @return version as last edited
+     */
+    ImageVersion version() {
+        return version;
+    }
+
+    /**
+     * writes the last live update and stops the preview writer, then deletes the undo journal
+     * @throws IOException throws if a live update could not be saved
+     */
+    public void close() throws IOException {
+        try {
+            previewWriter.close();
+        } finally {
+            commandHistory.close();
+        }
+    }
+
+    /**
+     * recreates a command that the undo history wrote to its journal
+     * @param input stream the command is read from, starting with the tag written by the command
+     * @return command
+     * @throws IOException throws if the command cannot be read
+     */
+    private Command readCommand(DataInputStream input) throws IOException {
+        byte tag = input.readByte();
+        return switch (tag) {
+            case RHCommand.TAG -> new RHCommand(this, SeamRecord.read(input));
+            case RSCommand.TAG -> RSCommand.read(this, input);
+            case ASCommand.TAG -> ASCommand.read(this, input);
+            case HGCommand.TAG -> {
+                HGCommand command = new HGCommand(this);
+                command.previousHighlight = Highlight.read(input);
+                yield command;
+            }
+            case HLECommand.TAG -> {
+                HLECommand command = new HLECommand(this);
+                command.previousHighlight = Highlight.read(input);
+                yield command;
+            }
+            default -> throw new IOException("Unknown command in undo journal: " + tag);
+        };
     }
 
     /**
@@ -53,7 +362,15 @@ public class ImageEditor {
      * @return boolean (true if width > 1, false otherwise)
      */
     public boolean checkImageWidth(){
-        return image.getWidth() > 1;
+        return version.getWidth() > 1;
+    }
+
+    /**
+     * checks if the height of the image is greater than 1 meaning that horizontal seams can be removed
+     * @return boolean (true if height > 1, false otherwise)
+     */
+    public boolean checkImageHeight() {
+        return version.getHeight() > 1;
     }
 
     /**
@@ -62,14 +379,14 @@ public class ImageEditor {
      */
     public void highlightGreenest() throws IOException {
         if(!checkImageWidth()){
-            System.out.println("[ERROR] Image Width not long enough for more operations");
+            messages.println("[ERROR] Image Width not long enough for more operations");
             return;
         }
         Command command = new HGCommand(this); // new instance of HGCommand is created
-        command.execute(); // HGCommand execute which highlights greenest seam
+        execute("HG", command); // HGCommand execute which highlights greenest seam
         commandHistory.push(command); // action is pushed onto undo stack
-        save("target/currentImg.png"); // saved for live image updates
-        System.out.println("[INFO] Highlighted Greenest Seam"); // terminal info message
+        preview("HG"); // saved for live image updates
+        messages.println("[INFO] Highlighted Greenest Seam"); // terminal info message
     }
 
     /**
@@ -78,14 +395,46 @@ public class ImageEditor {
      */
     public void highlightLowestEnergySeam() throws IOException {
         if(!checkImageWidth()){
-            System.out.println("[ERROR] Image Width not long enough for more operations");
+            messages.println("[ERROR] Image Width not long enough for more operations");
             return;
         }
         Command command = new HLECommand(this); // new instance of HLECommand
-        command.execute(); // highlights lowest energy seam
+        execute("HLE", command); // highlights lowest energy seam
         commandHistory.push(command); // adds command to undo stack
-        save("target/currentImg.png"); // saves image for live updates
-        System.out.println("[INFO] Highlighted Lowest Energy Seam"); // terminal info message
+        preview("HLE"); // saves image for live updates
+        messages.println("[INFO] Highlighted Lowest Energy Seam"); // terminal info message
+    }
+
+    /**
+     * highlights the greenest horizontal seam of the image
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    public void highlightGreenestHorizontal() throws IOException {
+        if (!checkImageHeight()) {
+            messages.println("[ERROR] Image Height not long enough for more operations");
+            return;
+        }
+        Command command = new HGCommand(this, true); // new instance of HGCommand for a horizontal seam
+        execute("HG", command); // highlights greenest horizontal seam
+        commandHistory.push(command); // action is pushed onto undo stack
+        preview("HG"); // saved for live image updates
+        messages.println("[INFO] Highlighted Greenest Horizontal Seam"); // terminal info message
+    }
+
+    /**
+     * highlights horizontal seam with lowest energy
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    public void highlightLowestEnergyHorizontalSeam() throws IOException {
+        if (!checkImageHeight()) {
+            messages.println("[ERROR] Image Height not long enough for more operations");
+            return;
+        }
+        Command command = new HLECommand(this, true); // new instance of HLECommand for a horizontal seam
+        execute("HLE", command); // highlights lowest energy horizontal seam
+        commandHistory.push(command); // adds command to undo stack
+        preview("HLE"); // saves image for live updates
+        messages.println("[INFO] Highlighted Lowest Energy Horizontal Seam"); // terminal info message
     }
 
     /**
@@ -94,36 +443,91 @@ public class ImageEditor {
      */
     public void removeHighlighted() throws IOException {
         // checks if image is too small to be modified
-        if(!checkImageWidth()){
-            System.out.println("[ERROR] Image Width not long enough for more operations");
+        if (highlight != null && highlight.horizontal() ? !checkImageHeight() : !checkImageWidth()) {
+            messages.println("[ERROR] Image not large enough for more operations");
             return;
         }
 
         // checks if there exists a highlighted seam to remove
-        if (highlightedSeam == null) {
+        if (highlight == null) {
             return;
         }
 
         Command command = new RHCommand(this); // new instance of RHCommand
-        command.execute(); // RHCommand execute which removes current highlighted column
+        execute("RH", command); // RHCommand execute which removes current highlighted column
         commandHistory.pop(); // removes highlighted command which was on undo stack previously (as the highlight cannot be undone as the highlighted seam will be removed)
         commandHistory.push(command); // adds remove highlighted action to undo stack
-        save("target/currentImg.png"); // save image for live updates
-        System.out.println("[INFO] Removed highlighted seam "); // terminal info message
+        preview("RH"); // save image for live updates
+        messages.println("[INFO] Removed highlighted seam "); // terminal info message
+    }
+
+    /**
+     * shrinks the image to the target width by removing seams of the given type, as a single command
+     * @param targetWidth width of the image after the seams are removed
+     * @param type type of seams to remove
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    public void retarget(int targetWidth, Image.SeamType type) throws IOException {
+        // checks if the target width is possible for the image
+        if (targetWidth < 1 || targetWidth >= version.getWidth()) {
+            messages.println("[ERROR] Target width must be between 1 and " + (version.getWidth() - 1));
+            return;
+        }
+
+        // checks that no highlighted seam is waiting for confirmation
+        if (highlight != null) {
+            messages.println("[ERROR] Remove or undo the highlighted seam first");
+            return;
+        }
+
+        Command command = new RSCommand(this, version.getWidth() - targetWidth, type); // new instance of RSCommand
+        execute("RS", command); // removes all seams
+        commandHistory.push(command); // whole retarget is undone at once
+        preview("RS"); // save image for live updates
+        messages.println("[INFO] Retargeted image to width " + version.getWidth()); // terminal info message
+    }
+
+    /**
+     * widens the image by inserting lowest energy seams next to the existing ones, as a single command
+     * @param targetWidth width of the image after the seams are inserted
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    public void widen(int targetWidth) throws IOException {
+        // checks if the target width is possible for the image (at most one new seam per column)
+        if (targetWidth <= version.getWidth() || targetWidth > 2 * version.getWidth()) {
+            messages.println("[ERROR] Target width must be between " + (version.getWidth() + 1) + " and "
+                    + 2 * version.getWidth());
+            return;
+        }
+
+        // checks that no highlighted seam is waiting for confirmation
+        if (highlight != null) {
+            messages.println("[ERROR] Remove or undo the highlighted seam first");
+            return;
+        }
+
+        Command command = new ASCommand(this, targetWidth - version.getWidth()); // new instance of ASCommand
+        execute("AS", command); // inserts all seams
+        commandHistory.push(command); // whole widening is undone at once
+        preview("AS"); // save image for live updates
+        messages.println("[INFO] Widened image to width " + version.getWidth()); // terminal info message
     }
 
     /**
      * undoes the last command through the command undo stack "commandHistory"
      * @throws IOException throws if image cannot be modified or accessed
      */
+    @SuppressWarnings("try")
     public void undo() throws IOException {
         if (!commandHistory.isEmpty()) { // if stack is not empty
             Command command = commandHistory.pop(); // removes latest command rom undo stack
-            command.undo(); // calls undo implementation of command
-            save("target/currentImg.png"); // saves image for live updates
-            System.out.println("[INFO] You have " + commandHistory.size() + " undo operations left."); // terminal info message
+            try (OperationMetrics.Scope scope = OperationMetrics.command("UNDO")) {
+                command.undo(); // calls undo implementation of command
+            }
+            preview("UNDO"); // saves image for live updates
+            messages.println("[INFO] You have " + commandHistory.size() + " undo operations left."); // terminal info message
         } else {
-            System.out.println("[INFO] You have no more operations to undo"); // undo stack is empty
+            messages.println("[INFO] You have no more operations to undo"); // undo stack is empty
         }
     }
 
@@ -132,13 +536,19 @@ public class ImageEditor {
      * Contains logic on how to execute (highlight greenest seam)
      *  and undoing an operation (undo)
      */
-    public class HGCommand implements Command{
+    public class HGCommand implements Command, UndoLog.Spillable {
+        static final byte TAG = 'G'; // marks the command in the undo journal
         private final ImageEditor editor; // internal version of editor
-        private List<Pixel> previousHighlighted;
-        private List<Color> originalColors;
+        private final boolean horizontal; // true to highlight a horizontal seam
+        private Highlight previousHighlight;
 
         public HGCommand(ImageEditor editor){ // constructor assinging value to editor
+            this(editor, false);
+        }
+
+        public HGCommand(ImageEditor editor, boolean horizontal) { // constructor for either seam direction
             this.editor = editor;
+            this.horizontal = horizontal;
         }
 
         /**
@@ -147,31 +557,29 @@ public class ImageEditor {
          */
         @Override
         public void execute() throws IOException {
-            previousHighlighted = editor.highlightedSeam;
-            List<Pixel> greenestSeam = editor.image.getGreenestSeam(); // gets greenest seam from image
-            originalColors = new ArrayList<>(greenestSeam.size()); // list of original seam colors before highlight
-
-            for (Pixel pixel : greenestSeam){
-                originalColors.add(pixel.getColor()); // gets original color from seam to be highlighted
-            }
-
-            // highlights greenest seam in green and returns old color values to highlighted seam
-            editor.highlightedSeam = editor.image.higlightSeam(greenestSeam, Color.GREEN);
+            previousHighlight = editor.kept(editor.highlight);
+            // highlights greenest seam in green over the previews, the image keeps its original colors
+            editor.highlight = editor.highlightSeam(Image.SeamType.GREENEST, horizontal, Color.GREEN);
         }
 
         /**
-         * Undoes highlighting of greenest seam by adding back original seam before the highlight
+         * Undoes highlighting of greenest seam by showing the highlight before it again
          * @throws IOException throws if image cannot be modified or accessed
          */
         @Override
         public void undo() throws IOException {
-            if(editor.highlightedSeam != null && originalColors != null){
-                List<Pixel> currentHighlighted = editor.highlightedSeam;
-                
-                editor.image.addSeam(currentHighlighted); // adds back old seam pre-highlight
-            }
+            editor.highlight = previousHighlight;
+        }
 
-            editor.highlightedSeam = previousHighlighted;
+        @Override
+        public long bytes() {
+            return UndoLog.OBJECT_BYTES + (previousHighlight == null ? 0 : previousHighlight.bytes());
+        }
+
+        @Override
+        public void write(DataOutputStream output) throws IOException {
+            output.writeByte(TAG);
+            Highlight.write(previousHighlight, output);
         }
     }
 
@@ -179,34 +587,213 @@ public class ImageEditor {
      * Remove highlighted command class (implements Command interface)
      * Contains logic for execute (removing highlighted seam) and undoing execute
      */
-    public class RHCommand implements Command {
+    public class RHCommand implements Command, UndoLog.Spillable {
+        static final byte TAG = 'R'; // marks the command in the undo journal
         private final ImageEditor editor;
-        private List<Pixel> removedSeam;
+        private SeamRecord removedSeam; // positions and colors of the removed seam
+        private ImageVersion before; // version switched back to on undo (null if read back from the journal)
+        private long beforeBytes; // memory held by before and not by the version after the removal
 
         public RHCommand(ImageEditor editor) {
             this.editor = editor;
         }
 
+        private RHCommand(ImageEditor editor, SeamRecord removedSeam) { // command read back from the undo journal
+            this.editor = editor;
+            this.removedSeam = removedSeam;
+        }
+
         /**
          * removes current highlighted seam
          */
         @Override
         public void execute(){
-            if(editor.highlightedSeam != null){
-                removedSeam = new ArrayList<>(editor.highlightedSeam); // sets removedSeam equal to current highlighted seam
-                editor.image.removeSeam(editor.highlightedSeam); // removes highlighted seam
-                editor.highlightedSeam = null;
+            if(editor.highlight != null){
+                Highlight removed = editor.highlight;
+                before = editor.version;
+                // keeps the seam for undo
+                removedSeam = SeamRecord.of(before, removed.positions().clone(), removed.horizontal());
+                editor.version = removedSeam.removeFrom(before); // removes highlighted seam
+                beforeBytes = before.bytesNotIn(editor.version);
+                editor.highlight = null;
             }
         }
 
         /**
-         * undoes removal of highlighted seam by adding back removedSeam
+         * undoes removal of highlighted seam by switching back to the version before it,
+         * or adding back removedSeam to the current version if that version was not kept
          */
         @Override
         public void undo(){
             if (removedSeam != null) {
-                editor.image.addSeam(removedSeam);
+                editor.version = before != null ? before : removedSeam.addTo(editor.version);
+            }
+        }
+
+        @Override
+        public long bytes() {
+            return removedSeam == null ? 0 : removedSeam.bytes() + beforeBytes;
+        }
+
+        @Override
+        public void write(DataOutputStream output) throws IOException {
+            output.writeByte(TAG);
+            removedSeam.write(output);
+        }
+    }
+
+    /**
+     * Remove seams command class (implements Command interface)
+     * Contains logic for execute (removing several seams at once) and undoing all of them
+     */
+    public class RSCommand implements Command, UndoLog.Spillable {
+        static final byte TAG = 'S'; // marks the command in the undo journal
+        private final ImageEditor editor;
+        private final int count;
+        private final Image.SeamType type;
+        private SeamRecord[] removedSeams; // positions and colors of the removed seams, in removal order
+        private ImageVersion before; // version switched back to on undo (null if read back from the journal)
+        private long beforeBytes; // memory held by before and not by the version after the removals
+
+        public RSCommand(ImageEditor editor, int count, Image.SeamType type) {
+            this.editor = editor;
+            this.count = count;
+            this.type = type;
+        }
+
+        /**
+         * removes count seams of the given type
+         */
+        @Override
+        public void execute() {
+            before = editor.version;
+            List<SeamRecord> removed = new ArrayList<>(count);
+            editor.version = before.withoutSeams(count, type, removed);
+            removedSeams = removed.toArray(new SeamRecord[0]);
+            beforeBytes = before.bytesNotIn(editor.version);
+        }
+
+        /**
+         * undoes removal of the seams by switching back to the version before them,
+         * or adding them back in the reverse order they were removed if that version was not kept
+         */
+        @Override
+        public void undo() {
+            if (removedSeams != null) {
+                ImageVersion restored = editor.version;
+                for (int i = removedSeams.length - 1; before == null && i >= 0; i--) {
+                    restored = removedSeams[i].addTo(restored);
+                }
+                editor.version = before != null ? before : restored;
+            }
+        }
+
+        @Override
+        public long bytes() {
+            long bytes = UndoLog.OBJECT_BYTES + beforeBytes;
+            for (SeamRecord seam : removedSeams) {
+                bytes += seam.bytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void write(DataOutputStream output) throws IOException {
+            output.writeByte(TAG);
+            output.writeByte(type.ordinal());
+            output.writeInt(removedSeams.length);
+            for (SeamRecord seam : removedSeams) {
+                seam.write(output);
+            }
+        }
+
+        static RSCommand read(ImageEditor editor, DataInputStream input) throws IOException {
+            Image.SeamType type = Image.SeamType.values()[input.readByte()];
+            SeamRecord[] removedSeams = new SeamRecord[input.readInt()];
+            for (int i = 0; i < removedSeams.length; i++) {
+                removedSeams[i] = SeamRecord.read(input);
             }
+            RSCommand command = editor.new RSCommand(editor, removedSeams.length, type);
+            command.removedSeams = removedSeams;
+            return command;
+        }
+    }
+
+    /**
+     * Add seams command class (implements Command interface)
+     * Contains logic for execute (inserting several seams at once) and undoing all of them
+     */
+    public class ASCommand implements Command, UndoLog.Spillable {
+        static final byte TAG = 'A'; // marks the command in the undo journal
+        private final ImageEditor editor;
+        private final int count;
+        private int[][] insertedColumns;
+        private ImageVersion before; // version switched back to on undo (null if read back from the journal)
+        private long beforeBytes; // memory held by before and not by the version after the insertion
+
+        public ASCommand(ImageEditor editor, int count) {
+            this.editor = editor;
+            this.count = count;
+        }
+
+        /**
+         * inserts count lowest energy seams
+         */
+        @Override
+        public void execute() {
+            before = editor.version;
+            Image image = before.toImage(); // dropped once the seams are in, only the version is kept
+            insertedColumns = image.addSeams(count);
+            editor.version = ImageVersion.of(image); // every row is changed, so nothing is shared
+            beforeBytes = before.bytes();
+        }
+
+        /**
+         * undoes the insertion by switching back to the version before it,
+         * or removing the inserted pixels from every row if that version was not kept
+         */
+        @Override
+        public void undo() {
+            if (insertedColumns != null && before != null) {
+                editor.version = before;
+            } else if (insertedColumns != null) {
+                Image image = editor.version.toImage();
+                image.removeColumns(insertedColumns);
+                editor.version = ImageVersion.of(image);
+            }
+        }
+
+        @Override
+        public long bytes() {
+            return UndoLog.OBJECT_BYTES + insertedColumns.length * (UndoLog.ARRAY_BYTES + 4L * count) + beforeBytes;
+        }
+
+        @Override
+        public void write(DataOutputStream output) throws IOException {
+            output.writeByte(TAG);
+            output.writeInt(insertedColumns.length);
+            output.writeInt(count);
+            for (int[] row : insertedColumns) {
+                int previous = 0;
+                for (int col : row) {
+                    output.writeInt(col - previous); // columns are increasing, so differences compress better
+                    previous = col;
+                }
+            }
+        }
+
+        static ASCommand read(ImageEditor editor, DataInputStream input) throws IOException {
+            int[][] insertedColumns = new int[input.readInt()][input.readInt()];
+            for (int[] row : insertedColumns) {
+                int previous = 0;
+                for (int i = 0; i < row.length; i++) {
+                    previous += input.readInt();
+                    row[i] = previous;
+                }
+            }
+            ASCommand command = editor.new ASCommand(editor, insertedColumns[0].length);
+            command.insertedColumns = insertedColumns;
+            return command;
         }
     }
 
@@ -214,13 +801,19 @@ public class ImageEditor {
      * Highlight lowest energy command class (implements Command interface)
      * Contains logic on execute (highlighting lowest overall energy seam) and undoing highlight
      */
-    public class HLECommand implements Command{
+    public class HLECommand implements Command, UndoLog.Spillable {
+        static final byte TAG = 'L'; // marks the command in the undo journal
         private final ImageEditor editor;
-        private List<Pixel> previousHighlightedSeam;
-        private List<Color> originalColors;
+        private final boolean horizontal; // true to highlight a horizontal seam
+        private Highlight previousHighlight;
 
         public HLECommand(ImageEditor editor) {
+            this(editor, false);
+        }
+
+        public HLECommand(ImageEditor editor, boolean horizontal) {
             this.editor = editor;
+            this.horizontal = horizontal;
         }
 
         /**
@@ -229,16 +822,11 @@ public class ImageEditor {
          */
         @Override
         public void execute() throws IOException {
-            previousHighlightedSeam = editor.highlightedSeam;
-
-            List<Pixel> lowestEnergySeam = editor.image.getLowestEnergySeam(); // gets lowest energy seam from image
-            originalColors = new ArrayList<>(lowestEnergySeam.size()); // list of original color of un-highlighted pixels
-
-            for (Pixel pixel : lowestEnergySeam) {
-                originalColors.add(pixel.getColor());
-            }
+            previousHighlight = editor.kept(editor.highlight);
 
-            editor.highlightedSeam = editor.image.higlightSeam(lowestEnergySeam, Color.RED); // highlights lowest energy seam red
+            editor.version = editor.version.withEnergy(); // same pixels, energy only calculated the first time
+            // highlights lowest energy seam red
+            editor.highlight = editor.highlightSeam(Image.SeamType.LOWEST_ENERGY, horizontal, Color.RED);
         }
 
         /**
@@ -247,12 +835,18 @@ public class ImageEditor {
          */
         @Override
         public void undo() throws IOException{
-            if (editor.highlightedSeam != null && originalColors != null) {
-                List<Pixel> currentHighlighted = editor.highlightedSeam;
-                editor.image.addSeam(currentHighlighted); // adds back pixels of the currently highlighted seam
-            }
+            editor.highlight = previousHighlight; // shows the highlight before this one again
+        }
 
-            editor.highlightedSeam = previousHighlightedSeam;
+        @Override
+        public long bytes() {
+            return UndoLog.OBJECT_BYTES + (previousHighlight == null ? 0 : previousHighlight.bytes());
+        }
+
+        @Override
+        public void write(DataOutputStream output) throws IOException {
+            output.writeByte(TAG);
+            Highlight.write(previousHighlight, output);
         }
     }
 
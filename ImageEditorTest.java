@@ -0,0 +1,193 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+class ImageEditorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void undoesEveryCommandFromTheJournal() throws IOException {
+        BufferedImage original = TestImages.synthetic(40, 30);
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(original, "png", file);
+
+        // no memory budget, so everything but the newest command is written to the journal
+        ImageEditor editor = new ImageEditor(new PreviewWriter(directory.resolve("preview.png").toString()), 0);
+        try {
+            editor.load(file.getPath());
+            for (int i = 0; i < 3; i++) {
+                editor.highlightLowestEnergySeam();
+                editor.removeHighlighted();
+                editor.highlightGreenestHorizontal();
+                editor.removeHighlighted();
+            }
+            editor.retarget(25, Image.SeamType.GREENEST);
+            editor.widen(35);
+            editor.highlightGreenest();
+            editor.removeHighlighted();
+
+            for (int i = 0; i < 9; i++) {
+                editor.undo();
+            }
+            editor.save(directory.resolve("undone.png").toString());
+        } finally {
+            editor.close();
+        }
+
+        assertSameImage(directory.resolve("undone.png"), original);
+    }
+
+    /**
+     * command holding a number, written to the journal as that number
+     */
+    private record NumberCommand(int number) implements ImageEditor.Command, UndoLog.Spillable {
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public void undo() {
+        }
+
+        @Override
+        public long bytes() {
+            return 100;
+        }
+
+        @Override
+        public void write(DataOutputStream output) throws IOException {
+            output.writeInt(number);
+        }
+
+        static NumberCommand read(DataInputStream input) throws IOException {
+            return new NumberCommand(input.readInt());
+        }
+    }
+
+    @Test
+    void undoLogKeepsNewestCommandsWithinBudget() throws IOException {
+        try (UndoLog log = new UndoLog(350, NumberCommand::read)) {
+            for (int i = 0; i < 10; i++) {
+                log.push(new NumberCommand(i));
+            }
+            Assertions.assertThat(log.size()).isEqualTo(10);
+            Assertions.assertThat(log.spilledCount()).isEqualTo(7);
+
+            for (int i = 9; i >= 0; i--) {
+                Assertions.assertThat(log.pop()).isEqualTo(new NumberCommand(i));
+            }
+            Assertions.assertThat(log.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    void undoesAHorizontalRemovalAfterTheEnergyIsCalculatedAgain() throws IOException {
+        BufferedImage original = TestImages.synthetic(20, 15);
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(original, "png", file);
+
+        ImageEditor editor = new ImageEditor(new PreviewWriter(directory.resolve("preview.png").toString()));
+        try {
+            editor.load(file.getPath());
+            editor.highlightGreenestHorizontal();
+            editor.removeHighlighted();
+            editor.highlightLowestEnergySeam(); // calculates the energy of the shorter image
+            editor.undo();
+            editor.undo(); // adds the row back below the rows the energy was calculated for
+            editor.save(directory.resolve("undone.png").toString());
+        } finally {
+            editor.close();
+        }
+        assertSameImage(directory.resolve("undone.png"), original);
+    }
+
+    @Test
+    void undoShowsAHighlightFoundIntoTheSameSeamBuffer() throws IOException {
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(TestImages.synthetic(40, 30), "png", file);
+
+        ImageEditor editor = new ImageEditor(new PreviewWriter(directory.resolve("preview.png").toString()));
+        ImageEditor expected = new ImageEditor(new PreviewWriter(directory.resolve("expected.png").toString()));
+        try {
+            editor.load(file.getPath());
+            expected.load(file.getPath());
+            for (int i = 0; i < 3; i++) { // highlighting and cancelling again and again
+                editor.highlightGreenest();
+                editor.undo();
+            }
+            editor.highlightGreenest();
+            editor.highlightLowestEnergySeam(); // writes the seam buffer of the greenest seam again
+            editor.undo();
+            editor.removeHighlighted();
+            expected.highlightGreenest();
+            expected.removeHighlighted();
+            editor.save(directory.resolve("edited.png").toString());
+            expected.save(directory.resolve("expected-edited.png").toString());
+        } finally {
+            editor.close();
+            expected.close();
+        }
+        assertSameImage(directory.resolve("edited.png"), ImageIO.read(directory.resolve("expected-edited.png")
+                .toFile()));
+    }
+
+    @Test
+    void resumesTheSessionWithItsUndoHistory() throws IOException {
+        BufferedImage original = TestImages.synthetic(40, 30);
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(original, "png", file);
+        String session = directory.resolve("editor" + ImageEditor.SESSION_EXTENSION).toString();
+
+        ImageEditor editor = new ImageEditor(new PreviewWriter(directory.resolve("preview.png").toString()));
+        ImageEditor resumed = new ImageEditor(new PreviewWriter(directory.resolve("resumed.png").toString()));
+        try {
+            editor.load(file.getPath());
+            editor.highlightGreenest();
+            editor.removeHighlighted();
+            editor.retarget(30, Image.SeamType.LOWEST_ENERGY);
+            editor.highlightLowestEnergyHorizontalSeam();
+            editor.checkpoint(session);
+            editor.save(directory.resolve("edited.png").toString());
+
+            resumed.resume(session);
+            resumed.save(directory.resolve("resumed-edited.png").toString());
+            assertSameImage(directory.resolve("resumed-edited.png"), ImageIO.read(directory.resolve("edited.png")
+                    .toFile()));
+
+            // the restored energy finds the same seams as the energy calculated by the first editor
+            editor.removeHighlighted();
+            resumed.removeHighlighted();
+            editor.highlightLowestEnergySeam();
+            resumed.highlightLowestEnergySeam();
+            editor.save(directory.resolve("edited.png").toString());
+            resumed.save(directory.resolve("resumed-edited.png").toString());
+            assertSameImage(directory.resolve("resumed-edited.png"), ImageIO.read(directory.resolve("edited.png")
+                    .toFile()));
+
+            for (int i = 0; i < 4; i++) {
+                resumed.undo();
+            }
+            resumed.save(directory.resolve("undone.png").toString());
+        } finally {
+            editor.close();
+            resumed.close();
+        }
+        assertSameImage(directory.resolve("undone.png"), original);
+    }
+
+    private static void assertSameImage(Path actualFile, BufferedImage expected) throws IOException {
+        TestImages.assertSamePixels(ImageIO.read(actualFile.toFile()), expected);
+    }
+}
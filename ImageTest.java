@@ -0,0 +1,357 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+class ImageTest {
+    private BufferedImage bufferedImage;
+    private Image image;
+
+    @BeforeEach
+    void setup() {
+        Random random = new Random(42);
+        bufferedImage = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < bufferedImage.getHeight(); row++) {
+            for (int col = 0; col < bufferedImage.getWidth(); col++) {
+                bufferedImage.setRGB(col, row, random.nextInt(0x1000000));
+            }
+        }
+        image = new Image(bufferedImage);
+    }
+
+    @Test
+    void incrementalEnergyMatchesFullRecalculation() {
+        image.setVerifyEnergy(true);
+        Deque<List<Pixel>> removed = new ArrayDeque<>();
+
+        Deque<Boolean> horizontal = new ArrayDeque<>();
+
+        for (int i = 0; i < 20; i++) {
+            boolean isHorizontal = i % 5 >= 3;
+            List<Pixel> seam = switch (i % 5) {
+                case 0, 2 -> image.getLowestEnergySeam();
+                case 1 -> image.getGreenestSeam();
+                case 3 -> image.getLowestEnergyHorizontalSeam();
+                default -> image.getGreenestHorizontalSeam();
+            };
+            image.higlightSeam(seam, Color.RED);
+            if (i % 3 == 0) {
+                image.addSeam(seam); // cancel the highlight
+                image.getLowestEnergySeam();
+                continue;
+            }
+            if (isHorizontal) {
+                image.removeHorizontalSeam(seam);
+            } else {
+                image.removeSeam(seam);
+            }
+            removed.push(seam);
+            horizontal.push(isHorizontal);
+            if (i % 4 == 0) {
+                image.getLowestEnergySeam();
+                undo(removed, horizontal);
+            }
+        }
+
+        // several removals without finding a lowest energy seam in between
+        for (int i = 0; i < 4; i++) {
+            boolean isHorizontal = i % 2 == 0;
+            List<Pixel> seam = isHorizontal ? image.getGreenestHorizontalSeam() : image.getGreenestSeam();
+            if (isHorizontal) {
+                image.removeHorizontalSeam(seam);
+            } else {
+                image.removeSeam(seam);
+            }
+            removed.push(seam);
+            horizontal.push(isHorizontal);
+        }
+        image.getLowestEnergySeam();
+
+        while (!removed.isEmpty()) {
+            undo(removed, horizontal);
+            image.getLowestEnergySeam();
+        }
+
+        Assertions.assertThat(image.getWidth()).isEqualTo(40);
+        Assertions.assertThat(image.getHeight()).isEqualTo(30);
+        TestImages.assertSamePixels(image.toBufferedImage(), bufferedImage);
+    }
+
+    private void undo(Deque<List<Pixel>> removed, Deque<Boolean> horizontal) {
+        if (horizontal.pop()) {
+            image.addHorizontalSeam(removed.pop());
+        } else {
+            image.addSeam(removed.pop());
+        }
+    }
+
+    @Test
+    void highlightIsPaintedIntoThePixelsUntilCancelled() {
+        List<Pixel> seam = image.getLowestEnergySeam();
+        Pixel seamPixel = seam.get(7);
+        image.higlightSeam(seam, Color.RED);
+
+        Assertions.assertThat(image.copyRow(7)[seamPixel.getCol()]).isEqualTo(Color.RED.getRGB());
+        BufferedImage highlighted = image.toBufferedImage();
+        for (Pixel pixel : seam) {
+            Assertions.assertThat(highlighted.getRGB(pixel.getCol(), pixel.getRow())).isEqualTo(Color.RED.getRGB());
+        }
+
+        image.addSeam(seam); // cancels the highlight
+        TestImages.assertSamePixels(image.toBufferedImage(), bufferedImage);
+
+        // the painted pixels move with an edit of another seam like any other
+        image.higlightSeam(seam, Color.RED);
+        List<Pixel> other = image.getGreenestHorizontalSeam();
+        image.removeHorizontalSeam(other);
+        image.addHorizontalSeam(other);
+        TestImages.assertSamePixels(image.toBufferedImage(), highlighted);
+        image.addSeam(seam);
+        TestImages.assertSamePixels(image.toBufferedImage(), bufferedImage);
+    }
+
+    @Test
+    void horizontalSeamsAreVerticalSeamsOfTransposedImage() {
+        BufferedImage transposedImage = new BufferedImage(30, 40, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < 30; row++) {
+            for (int col = 0; col < 40; col++) {
+                transposedImage.setRGB(row, col, bufferedImage.getRGB(col, row));
+            }
+        }
+        Image transposed = new Image(transposedImage);
+
+        for (int i = 0; i < 10; i++) {
+            List<Pixel> seam = i % 2 == 0 ? image.getLowestEnergyHorizontalSeam() : image.getGreenestHorizontalSeam();
+            List<Pixel> expected = i % 2 == 0 ? transposed.getLowestEnergySeam() : transposed.getGreenestSeam();
+            Assertions.assertThat(seam).extracting(Pixel::getRow)
+                    .isEqualTo(expected.stream().map(Pixel::getCol).toList());
+            image.removeHorizontalSeam(seam);
+            transposed.removeSeam(expected);
+        }
+
+        BufferedImage carved = image.toBufferedImage();
+        BufferedImage transposedCarved = transposed.toBufferedImage();
+        Assertions.assertThat(carved.getHeight()).isEqualTo(20);
+        for (int row = 0; row < carved.getHeight(); row++) {
+            for (int col = 0; col < carved.getWidth(); col++) {
+                Assertions.assertThat(carved.getRGB(col, row)).isEqualTo(transposedCarved.getRGB(row, col));
+            }
+        }
+    }
+
+    @Test
+    void removeSeamsMatchesRemovingOneAtATime() {
+        for (Image.SeamType type : Image.SeamType.values()) {
+            Image batch = new Image(bufferedImage);
+            Image single = new Image(bufferedImage);
+
+            List<List<Pixel>> removed = batch.removeSeams(25, type);
+
+            for (List<Pixel> seam : removed) {
+                List<Pixel> expected = type == Image.SeamType.GREENEST
+                        ? single.getGreenestSeam() : single.getLowestEnergySeam();
+                Assertions.assertThat(seam).extracting(Pixel::getCol).isEqualTo(
+                        expected.stream().map(Pixel::getCol).toList());
+                single.removeSeam(expected);
+            }
+            Assertions.assertThat(removed).hasSize(25);
+            TestImages.assertSamePixels(batch.toBufferedImage(), single.toBufferedImage());
+        }
+    }
+
+    @Test
+    void addSeamsInsertsAveragedPixelsAndRemoveColumnsUndoesThem() {
+        int[][] inserted = image.addSeams(15);
+
+        Assertions.assertThat(image.getWidth()).isEqualTo(55);
+        BufferedImage widened = image.toBufferedImage();
+        for (int row = 0; row < 30; row++) {
+            Assertions.assertThat(inserted[row]).isSorted().doesNotHaveDuplicates();
+            for (int i = 0; i < inserted[row].length; i++) {
+                // original column of the seam pixel the new pixel was inserted after
+                int col = inserted[row][i] - i - 1;
+                Color seamPixel = new Color(bufferedImage.getRGB(col, row));
+                Color neighbour = new Color(bufferedImage.getRGB(col < 39 ? col + 1 : col - 1, row));
+                Color expected = new Color((seamPixel.getRed() + neighbour.getRed()) / 2,
+                        (seamPixel.getGreen() + neighbour.getGreen()) / 2,
+                        (seamPixel.getBlue() + neighbour.getBlue()) / 2);
+                Assertions.assertThat(widened.getRGB(inserted[row][i], row)).isEqualTo(expected.getRGB());
+            }
+        }
+
+        image.removeColumns(inserted);
+        Assertions.assertThat(image.getWidth()).isEqualTo(40);
+        TestImages.assertSamePixels(image.toBufferedImage(), bufferedImage);
+
+        // energy is recalculated in full after the splice
+        image.setVerifyEnergy(true);
+        image.removeSeam(image.getLowestEnergySeam());
+        image.getLowestEnergySeam();
+    }
+
+    @Test
+    void pyramidSeamIsConnectedAndExactWithFullBand() {
+        BufferedImage largeImage = TestImages.synthetic(300, 260);
+        Image exact = new Image(largeImage);
+        Image approximate = new Image(largeImage);
+        Image fullBand = new Image(largeImage);
+        approximate.setPyramidBand(2);
+        fullBand.setPyramidBand(300);
+
+        for (int i = 0; i < 4; i++) {
+            List<Pixel> seam = i % 2 == 0 ? approximate.getLowestEnergySeam() : approximate.getGreenestHorizontalSeam();
+            Assertions.assertThat(seam).hasSize(i % 2 == 0 ? approximate.getHeight() : approximate.getWidth());
+            for (int j = 1; j < seam.size(); j++) {
+                int step = i % 2 == 0 ? seam.get(j).getCol() - seam.get(j - 1).getCol()
+                        : seam.get(j).getRow() - seam.get(j - 1).getRow();
+                Assertions.assertThat(step).isBetween(-1, 1);
+            }
+            if (i % 2 == 0) {
+                approximate.removeSeam(seam);
+            } else {
+                approximate.removeHorizontalSeam(seam);
+            }
+
+            List<Pixel> expected = exact.getLowestEnergySeam();
+            Assertions.assertThat(fullBand.getLowestEnergySeam()).extracting(Pixel::getCol)
+                    .isEqualTo(expected.stream().map(Pixel::getCol).toList());
+            exact.removeSeam(expected);
+            fullBand.removeSeam(expected);
+        }
+    }
+
+    @Test
+    void pyramidLevelsFollowRemovedSeams() {
+        for (boolean horizontal : new boolean[] {false, true}) {
+            Image image = new Image(TestImages.synthetic(300, 260));
+            image.setPyramidBand(2);
+            for (int i = 1; i <= 8; i++) {
+                if (horizontal) {
+                    image.removeHorizontalSeam(image.getGreenestHorizontalSeam());
+                } else {
+                    image.removeSeam(image.getLowestEnergySeam());
+                }
+                if (i % 4 == 0) {
+                    // every fourth removal the kept levels line up with levels built from scratch again
+                    Image rebuilt = new Image(image.toBufferedImage());
+                    rebuilt.setPyramidBand(2);
+                    if (horizontal) {
+                        Assertions.assertThat(image.getGreenestHorizontalSeam()).extracting(Pixel::getRow).isEqualTo(
+                                rebuilt.getGreenestHorizontalSeam().stream().map(Pixel::getRow).toList());
+                    } else {
+                        Assertions.assertThat(image.getLowestEnergySeam()).extracting(Pixel::getCol).isEqualTo(
+                                rebuilt.getLowestEnergySeam().stream().map(Pixel::getCol).toList());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void pyramidDeviationComparesWithTheExactSeam() {
+        Image image = new Image(TestImages.synthetic(300, 260));
+        Assertions.assertThat(image.pyramidDeviation(Image.SeamType.LOWEST_ENERGY)).isNull();
+
+        image.setPyramidBand(300);
+        Assertions.assertThat(image.pyramidDeviation(Image.SeamType.GREENEST))
+                .isEqualTo(new Image.SeamDeviation(0, 0, 1));
+
+        image.setPyramidBand(1);
+        Image.SeamDeviation deviation = image.pyramidDeviation(Image.SeamType.LOWEST_ENERGY);
+        Assertions.assertThat(deviation.maxColumns()).isGreaterThanOrEqualTo((int) deviation.meanColumns());
+        Assertions.assertThat(deviation.valueRatio()).isGreaterThanOrEqualTo(1);
+
+        Image small = new Image(TestImages.synthetic(100, 100));
+        small.setPyramidBand(1);
+        Assertions.assertThat(small.pyramidDeviation(Image.SeamType.GREENEST)).isNull();
+    }
+
+    @Test
+    void parallelSeamMatchesSerialSeam() {
+        BufferedImage largeImage = TestImages.synthetic(1200, 900);
+        Image serial = new Image(largeImage);
+        Image parallel = new Image(largeImage);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.setPool(pool);
+        try {
+            Assertions.assertThat(parallel.getLowestEnergySeam()).extracting(Pixel::getCol)
+                    .isEqualTo(serial.getLowestEnergySeam().stream().map(Pixel::getCol).toList());
+            Assertions.assertThat(parallel.getGreenestSeam()).extracting(Pixel::getCol)
+                    .isEqualTo(serial.getGreenestSeam().stream().map(Pixel::getCol).toList());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void vectorKernelsMatchScalarKernelsBitForBit() {
+        RowKernels vector = RowKernels.vectorized();
+        Assumptions.assumeTrue(vector != null, "run with --add-modules jdk.incubator.vector");
+        RowKernels scalar = RowKernels.select("scalar");
+
+        Random random = new Random(7);
+        for (int width : new int[] {1, 2, 3, 5, 8, 17, 64, 333}) {
+            int[] pixels = random.ints(width).toArray();
+            double[][] brightness = new double[3][width];
+            for (double[] row : brightness) {
+                scalar.brightness(random.ints(width).toArray(), row, 0, width - 1);
+            }
+            // small whole numbers, so that the seam search has plenty of ties to break
+            double[] above = random.ints(width, 0, 4).asDoubleStream().toArray();
+            double[] values = random.ints(width, -3, 1).asDoubleStream().toArray();
+
+            for (int from = 0; from < Math.min(width, 3); from++) {
+                int to = width - 1 - from;
+                double[] expected = new double[width];
+                double[] actual = new double[width];
+                scalar.brightness(pixels, expected, from, to);
+                vector.brightness(pixels, actual, from, to);
+                Assertions.assertThat(actual).isEqualTo(expected);
+
+                if (from > 0 && to < width - 1) {
+                    scalar.energy(brightness[0], brightness[1], brightness[2], expected, from, to);
+                    vector.energy(brightness[0], brightness[1], brightness[2], actual, from, to);
+                    Assertions.assertThat(actual).isEqualTo(expected);
+                }
+
+                double[] expectedSums = values.clone();
+                double[] actualSums = values.clone();
+                byte[] expectedMoves = new byte[width + 2];
+                byte[] actualMoves = new byte[width + 2];
+                scalar.maximizeRow(above, expectedSums, expectedMoves, 2, from, to, width);
+                vector.maximizeRow(above, actualSums, actualMoves, 2, from, to, width);
+                Assertions.assertThat(actualSums).isEqualTo(expectedSums);
+                Assertions.assertThat(actualMoves).isEqualTo(expectedMoves);
+            }
+        }
+    }
+
+    @Test
+    void rasterImportMatchesColorModelForEveryImageType() {
+        BufferedImage bgr = new BufferedImage(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage argb = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        bgr.getGraphics().drawImage(bufferedImage, 0, 0, null);
+        argb.getGraphics().drawImage(bufferedImage, 0, 0, null);
+
+        TestImages.assertSamePixels(new Image(bgr).toBufferedImage(), bgr);
+        TestImages.assertSamePixels(new Image(argb).toBufferedImage(), argb);
+        TestImages.assertSamePixels(image.toBufferedImage(), bufferedImage);
+
+        // part of a larger image shares its backing array, starting at an offset
+        BufferedImage part = bufferedImage.getSubimage(7, 5, 20, 12);
+        TestImages.assertSamePixels(new Image(part).toBufferedImage(), part);
+    }
+
+
+}
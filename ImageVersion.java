@@ -0,0 +1,973 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+
+import javax.imageio.ImageIO;
+
+/**
+ * immutable version of an image: every row is split into segments of packed ARGB ints, and an edit creates a new
+ * version which only copies the segments it changes and shares every other segment (and untouched rows) with
+ * the version it was made from, so editors forked from one decoded image hold the pixels they changed rather
+ * than a copy of the whole image; nothing is ever written after construction, so any thread can read a version
+ * without locking
+ * once its energy is calculated, a version keeps it in segments laid out like the pixels, and an edit copies the
+ * energy segments it changes along with the pixels and recalculates only the pixels within two rows and columns
+ * of the seam, so an editor finds and removes seams on its versions without a mutable copy of the image
+ */
+final class ImageVersion {
+
+    static final int SEGMENT_WIDTH = 256; // pixels per segment of a decoded row
+
+    // decoded images by file, kept until memory runs low so editors opening the same file share one version
+    private static final Map<Source, SoftReference<ImageVersion>> DECODED = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+    private final int[][][] rows; // segments of every row, never modified once the version is created
+    private final double[][][] energies; // energy of every pixel in segments like rows, null until calculated
+    private Values[] searchValues; // values read by the searches of this version, by seam type and direction
+
+    private ImageVersion(int width, int height, int[][][] rows, double[][][] energies) {
+        this.width = width;
+        this.height = height;
+        this.rows = rows;
+        this.energies = energies;
+    }
+
+    /**
+     * file a version was decoded from, changing whenever the file is written to
+     */
+    private record Source(String path, long modified, long length) {
+    }
+
+    /**
+     * decodes an image file, or returns the version decoded before if the file has not changed since
+     * @param file image file
+     * @return version of the image in the file
+     * @throws IOException throws if the file cannot be read or is not an image
+     */
+    static ImageVersion load(File file) throws IOException {
+        Source source = new Source(file.getCanonicalPath(), file.lastModified(), file.length());
+        SoftReference<ImageVersion> cached = DECODED.get(source);
+        ImageVersion version = cached == null ? null : cached.get();
+        if (version != null) {
+            return version;
+        }
+
+        BufferedImage img;
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.READ, 0, 0)) {
+            img = ImageIO.read(file);
+            if (img != null) {
+                phase.setSize(img.getWidth(), img.getHeight());
+            }
+        }
+        if (img == null) {
+            throw new IOException("Not a supported image: " + file);
+        }
+        version = of(img);
+        DECODED.values().removeIf(reference -> reference.get() == null);
+        DECODED.put(source, new SoftReference<>(version));
+        return version;
+    }
+
+    /**
+     * copies the pixels of a buffered image
+     * @param img buffered image
+     * @return version holding the pixels of the image
+     */
+    @SuppressWarnings("try")
+    static ImageVersion of(BufferedImage img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.CONSTRUCT, width,
+                height)) {
+            int[][][] rows = new int[height][][];
+            int[] pixels = new int[width];
+            for (int row = 0; row < height; row++) {
+                Image.readRow(img, row, pixels);
+                rows[row] = split(pixels, width);
+            }
+            return new ImageVersion(width, height, rows, null);
+        }
+    }
+
+    /**
+     * copies the pixels of an image
+     * @param image image, e.g. after an edit that changed every row
+     * @return version holding the pixels of the image
+     */
+    static ImageVersion of(Image image) {
+        int[][][] rows = new int[image.getHeight()][][];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = split(image.copyRow(row), image.getWidth());
+        }
+        return new ImageVersion(image.getWidth(), image.getHeight(), rows, null);
+    }
+
+    /**
+     * reads the pixels and energy of an image laid out row after row, e.g. from a memory-mapped session file,
+     * straight into the segments of the version
+     * @param width width of the image
+     * @param height height of the image
+     * @param pixels width * height packed ARGB ints
+     * @param energy width * height energies, or null if the energy was not saved
+     * @return version holding the pixels and energy
+     */
+    static ImageVersion of(int width, int height, IntBuffer pixels, DoubleBuffer energy) {
+        int[][][] rows = new int[height][][];
+        double[][][] energies = energy == null ? null : new double[height][][];
+        for (int row = 0; row < height; row++) {
+            int[][] segments = new int[(width + SEGMENT_WIDTH - 1) / SEGMENT_WIDTH][];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new int[Math.min(SEGMENT_WIDTH, width - i * SEGMENT_WIDTH)];
+                pixels.get(segments[i]);
+            }
+            rows[row] = segments;
+            if (energy != null) {
+                energies[row] = new double[segments.length][];
+                for (int i = 0; i < segments.length; i++) {
+                    energies[row][i] = new double[segments[i].length];
+                    energy.get(energies[row][i]);
+                }
+            }
+        }
+        return new ImageVersion(width, height, rows, energies);
+    }
+
+    /**
+     * splits a row into segments
+     * @param pixels packed ARGB ints of the row
+     * @param width number of pixels in the row
+     * @return segments of SEGMENT_WIDTH pixels, the last one possibly shorter
+     */
+    private static int[][] split(int[] pixels, int width) {
+        int[][] segments = new int[(width + SEGMENT_WIDTH - 1) / SEGMENT_WIDTH][];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = Arrays.copyOfRange(pixels, i * SEGMENT_WIDTH, Math.min(width, (i + 1) * SEGMENT_WIDTH));
+        }
+        return segments;
+    }
+
+    /**
+     * splits the energy of a row into segments as long as the segments of its pixels
+     * @param energy energy of the row
+     * @param segments segments of the pixels of the row
+     * @return segments of the energy
+     */
+    private static double[][] split(double[] energy, int[][] segments) {
+        double[][] split = new double[segments.length][];
+        int start = 0;
+        for (int i = 0; i < segments.length; i++) {
+            split[i] = Arrays.copyOfRange(energy, start, start + segments[i].length);
+            start += segments[i].length;
+        }
+        return split;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * gets the packed color of a pixel
+     * @param col column of the pixel
+     * @param row row of the pixel
+     * @return packed ARGB int
+     */
+    int getRGB(int col, int row) {
+        int[][] segments = rows[row];
+        int segment = segmentOf(segments, col);
+        return segments[segment][col - start(segments, segment)];
+    }
+
+    /**
+     * copies the pixels of a row
+     * @param row row of the image
+     * @return packed ARGB ints of the row, exactly width long
+     */
+    int[] copyRow(int row) {
+        int[] pixels = new int[width];
+        copyRow(row, pixels);
+        return pixels;
+    }
+
+    /**
+     * copies the pixels of a row into an existing array
+     * @param row row of the image
+     * @param pixels array of at least width pixels
+     */
+    void copyRow(int row, int[] pixels) {
+        int col = 0;
+        for (int[] segment : rows[row]) {
+            System.arraycopy(segment, 0, pixels, col, segment.length);
+            col += segment.length;
+        }
+    }
+
+    /**
+     * gets the packed colors of the pixels of a seam
+     * @param positions column of the seam in every row, or row of the seam in every column if horizontal
+     * @param horizontal true if the seam runs across the image
+     * @return packed color of every seam pixel
+     */
+    int[] colorsAt(int[] positions, boolean horizontal) {
+        int[] colors = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            colors[i] = horizontal ? getRGB(i, positions[i]) : getRGB(positions[i], i);
+        }
+        return colors;
+    }
+
+    /**
+     * checks if the energy has been calculated, so it can be searched and saved without calculating it
+     * @return true if this version holds the energy of its pixels
+     */
+    boolean hasEnergy() {
+        return energies != null;
+    }
+
+    /**
+     * copies the energy of a row into an existing array
+     * @param row row of the image
+     * @param energy array of at least width doubles
+     */
+    void copyEnergy(int row, double[] energy) {
+        int col = 0;
+        for (double[] segment : energies[row]) {
+            System.arraycopy(segment, 0, energy, col, segment.length);
+            col += segment.length;
+        }
+    }
+
+    /**
+     * writes the energy row after row, e.g. into a memory-mapped session file
+     * @param energy buffer with room for width * height doubles
+     */
+    void copyEnergy(DoubleBuffer energy) {
+        for (double[][] segments : energies) {
+            for (double[] segment : segments) {
+                energy.put(segment);
+            }
+        }
+    }
+
+    /**
+     * calculates the energy of every pixel, once per version and the versions edited from it
+     * @return this version if it has its energy, otherwise a version sharing its rows and holding their energy
+     */
+    @SuppressWarnings("try")
+    ImageVersion withEnergy() {
+        if (energies != null) {
+            return this;
+        }
+        double[][][] energy = new double[height][][];
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.ENERGY, width,
+                height)) {
+            int[] pixels = new int[width];
+            double[] above = new double[width];
+            double[] current = brightness(0, pixels, new double[width]);
+            double[] below = new double[width];
+            double[] values = new double[width];
+            for (int row = 0; row < height; row++) {
+                boolean edge = row == 0 || row == height - 1;
+                if (row + 1 < height) {
+                    brightness(row + 1, pixels, below);
+                }
+                Image.calculateEnergy(edge ? null : above, current, edge ? null : below, values, 0, width - 1, width);
+                energy[row] = split(values, rows[row]);
+
+                // each row of brightness moves up one for the next row
+                double[] swap = above;
+                above = current;
+                current = below;
+                below = swap;
+            }
+        }
+        return new ImageVersion(width, height, rows, energy);
+    }
+
+    /**
+     * calculates the brightness of every pixel of a row
+     * @param row row of the image
+     * @param pixels scratch array of width pixels
+     * @param brightness array the brightness of column x is written to at index x
+     * @return brightness
+     */
+    private double[] brightness(int row, int[] pixels, double[] brightness) {
+        copyRow(row, pixels);
+        RowKernels.ACTIVE.brightness(pixels, brightness, 0, width - 1);
+        return brightness;
+    }
+
+    /**
+     * finds the seam of this version maximizing the greenness or negative energy of its pixels
+     * @param type property of the pixels the seam is found by, LOWEST_ENERGY only once the version has its energy
+     * @param horizontal true to find a horizontal seam, searching the transposed version without copying it
+     * @param search scratch space of the search, kept by the caller between searches
+     * @return column of the seam in every row, or row of the seam in every column if horizontal
+     * @throws IllegalStateException if the seam is found by energy and this version has none
+     */
+    int[] findSeam(Image.SeamType type, boolean horizontal, SeamSearch search) {
+        return findSeam(type, horizontal, search, new int[horizontal ? width : height]);
+    }
+
+    /**
+     * finds the seam of this version maximizing the greenness or negative energy of its pixels, writing it into
+     * the given array, so a caller searching again and again can keep one seam buffer
+     * @param type property of the pixels the seam is found by, LOWEST_ENERGY only once the version has its energy
+     * @param horizontal true to find a horizontal seam, searching the transposed version without copying it
+     * @param search scratch space of the search, kept by the caller between searches
+     * @param seam array of at least the height (or the width if horizontal) the seam is written into
+     * @return seam, holding the column of the seam in every row, or row of the seam in every column if horizontal
+     * @throws IllegalStateException if the seam is found by energy and this version has none
+     */
+    int[] findSeam(Image.SeamType type, boolean horizontal, SeamSearch search, int[] seam) {
+        Values[] values = searchValues;
+        if (values == null) {
+            values = new Values[2 * Image.SeamType.values().length];
+            searchValues = values; // another thread creating its own values at the same time is harmless
+        }
+        int kind = 2 * type.ordinal() + (horizontal ? 1 : 0);
+        if (values[kind] == null) {
+            values[kind] = new Values(this, type, horizontal);
+        }
+        return horizontal ? search.findSeam(values[kind], height, width, null, seam)
+                : search.findSeam(values[kind], width, height, null, seam);
+    }
+
+    /**
+     * removes several seams of the given type one after another, as Image.removeSeams does, with the cumulative
+     * seam values kept between removals and only updated around each removed seam
+     * @param count number of seams to remove (at most width - 1 are removed)
+     * @param type type of seams to remove
+     * @param removed list the removed seams are added to, in the order they were removed
+     * @return version without the seams, holding its energy if this version does or the seams are found by energy
+     */
+    @SuppressWarnings("try")
+    ImageVersion withoutSeams(int count, Image.SeamType type, List<SeamRecord> removed) {
+        ImageVersion version = type == Image.SeamType.LOWEST_ENERGY ? withEnergy() : this;
+        Values values = new Values(version, type, false);
+        SeamCosts costs;
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, width,
+                height)) {
+            costs = new SeamCosts(values, width, height, null);
+        }
+        for (int i = 0; i < count && version.width > 1; i++) {
+            int[] cols;
+            try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.BACKTRACK,
+                    version.width, height)) {
+                cols = costs.findSeam();
+            }
+            SeamRecord seam = SeamRecord.of(version, cols, false);
+            version = version.withoutSeam(cols);
+            values.version = version; // the costs read the values around the seam from the version without it
+            try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH,
+                    version.width, height)) {
+                costs.removeSeam(cols);
+            }
+            removed.add(seam);
+        }
+        return version;
+    }
+
+    /**
+     * greenness or negative energy of the pixels of a version, read a row (or a column, if transposed) at a time
+     */
+    private static final class Values implements Image.PixelValue {
+        private ImageVersion version; // version the values are read from
+        private final boolean energy; // true for the negative energy, false for the greenness
+        private final boolean transposed; // true if rows of values are columns of the version
+
+        Values(ImageVersion version, Image.SeamType type, boolean transposed) {
+            this.version = version;
+            this.energy = type == Image.SeamType.LOWEST_ENERGY;
+            this.transposed = transposed;
+            if (energy && version.energies == null) {
+                throw new IllegalStateException("Calculate the energy of the version before searching it");
+            }
+        }
+
+        @Override
+        public void get(int row, int from, int to, double[] values) {
+            if (transposed) {
+                for (int y = from; y <= to; y++) {
+                    values[y] = energy ? -version.getEnergy(row, y) : Image.green(version.getRGB(row, y));
+                }
+            } else if (energy) {
+                double[][] segments = version.energies[row];
+                int start = 0;
+                for (int i = 0; i < segments.length && start <= to; i++) {
+                    double[] segment = segments[i];
+                    for (int x = Math.max(from, start); x <= to && x < start + segment.length; x++) {
+                        values[x] = -segment[x - start];
+                    }
+                    start += segment.length;
+                }
+            } else {
+                int[][] segments = version.rows[row];
+                int start = 0;
+                for (int i = 0; i < segments.length && start <= to; i++) {
+                    int[] segment = segments[i];
+                    for (int x = Math.max(from, start); x <= to && x < start + segment.length; x++) {
+                        values[x] = Image.green(segment[x - start]);
+                    }
+                    start += segment.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * gets the energy of a pixel
+     * @param col column of the pixel
+     * @param row row of the pixel
+     * @return energy
+     */
+    private double getEnergy(int col, int row) {
+        int[][] segments = rows[row];
+        int segment = segmentOf(segments, col);
+        return energies[row][segment][col - start(segments, segment)];
+    }
+
+    /**
+     * gets the identity of the pixels of a row: versions share the row, and the key, until an edit changes it
+     * @param row row of the image
+     * @return object that is the same for two rows only if they hold the same pixels
+     */
+    Object rowKey(int row) {
+        return rows[row];
+    }
+
+    /**
+     * gets the segments of a row: versions share a segment until an edit changes it, so a segment is the same array
+     * in two versions only if it holds the same pixels; the arrays must not be modified
+     * @param row row of the image
+     * @return segments of the row, from left to right
+     */
+    int[][] rowSegments(int row) {
+        return rows[row];
+    }
+
+    /**
+     * writes the pixels row after row, e.g. into a memory-mapped session file
+     * @param pixels buffer with room for width * height ints
+     */
+    void copyRows(IntBuffer pixels) {
+        for (int[][] segments : rows) {
+            for (int[] segment : segments) {
+                pixels.put(segment);
+            }
+        }
+    }
+
+    /**
+     * creates a mutable copy of this version which commands can run on
+     * @return new image
+     */
+    Image toImage() {
+        return new Image(this);
+    }
+
+    /**
+     * copies this version into a buffered image, every segment straight into its backing array
+     * @return buffered image of this version
+     */
+    @SuppressWarnings("try")
+    BufferedImage toBufferedImage() {
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.EXPORT, width,
+                height)) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData(); // rows of width pixels
+            for (int row = 0; row < height; row++) {
+                int index = row * width;
+                for (int[] segment : rows[row]) {
+                    for (int rgb : segment) {
+                        data[index++] = rgb & Pixel.RGB_MASK; // same as setRGB, which drops the alpha
+                    }
+                }
+            }
+            return image;
+        }
+    }
+
+    /**
+     * creates the version without a vertical seam, copying the one segment of every row the seam pixel is in
+     * @param cols column of the seam in every row
+     * @return new version, one pixel narrower
+     */
+    ImageVersion withoutSeam(int[] cols) {
+        int[][][] newRows = new int[height][][];
+        double[][][] newEnergies = energies == null ? null : new double[height][][];
+        for (int row = 0; row < height; row++) {
+            int[][] segments = rows[row];
+            int segment = segmentOf(segments, cols[row]);
+            int col = cols[row] - start(segments, segment);
+            int[] pixels = segments[segment];
+            if (pixels.length == 1) { // the segment is left empty, so it is dropped from the row
+                newRows[row] = withoutSegment(segments, segment);
+                if (energies != null) {
+                    newEnergies[row] = withoutSegment(energies[row], segment);
+                }
+                continue;
+            }
+            int[] newPixels = new int[pixels.length - 1];
+            System.arraycopy(pixels, 0, newPixels, 0, col);
+            System.arraycopy(pixels, col + 1, newPixels, col, pixels.length - col - 1);
+            newRows[row] = segments.clone();
+            newRows[row][segment] = newPixels;
+            if (energies != null) {
+                double[] energy = energies[row][segment];
+                double[] newEnergy = new double[energy.length - 1];
+                System.arraycopy(energy, 0, newEnergy, 0, col);
+                System.arraycopy(energy, col + 1, newEnergy, col, energy.length - col - 1);
+                newEnergies[row] = energies[row].clone();
+                newEnergies[row][segment] = newEnergy;
+            }
+        }
+        ImageVersion removed = new ImageVersion(width - 1, height, newRows, newEnergies);
+        removed.updateVerticalSeam(cols, this);
+        return removed;
+    }
+
+    /**
+     * creates the version with a vertical seam inserted, copying the one segment of every row the seam pixel goes in
+     * @param cols column of the seam in every row
+     * @param colors packed color of the seam pixel in every row
+     * @return new version, one pixel wider
+     */
+    ImageVersion withSeam(int[] cols, int[] colors) {
+        int[][][] newRows = new int[height][][];
+        double[][][] newEnergies = energies == null ? null : new double[height][][];
+        for (int row = 0; row < height; row++) {
+            int[][] segments = rows[row];
+            // a pixel after the end of the row goes at the end of the last segment
+            int segment = cols[row] == width ? segments.length - 1 : segmentOf(segments, cols[row]);
+            int col = cols[row] - start(segments, segment);
+            int[] pixels = segments[segment];
+            int[] newPixels = new int[pixels.length + 1];
+            System.arraycopy(pixels, 0, newPixels, 0, col);
+            newPixels[col] = colors[row];
+            System.arraycopy(pixels, col, newPixels, col + 1, pixels.length - col);
+            newRows[row] = segments.clone();
+            newRows[row][segment] = newPixels;
+            if (energies != null) {
+                double[] energy = energies[row][segment];
+                double[] newEnergy = new double[energy.length + 1]; // the new pixel's energy is calculated below
+                System.arraycopy(energy, 0, newEnergy, 0, col);
+                System.arraycopy(energy, col, newEnergy, col + 1, energy.length - col);
+                newEnergies[row] = energies[row].clone();
+                newEnergies[row][segment] = newEnergy;
+            }
+        }
+        ImageVersion added = new ImageVersion(width + 1, height, newRows, newEnergies);
+        added.updateVerticalSeam(cols, this);
+        return added;
+    }
+
+    /**
+     * creates the version without a horizontal seam: every column moves up over its seam pixel, so the rows above
+     * the highest seam pixel and below the lowest one are shared, and only the rows in between are copied
+     * @param seamRows row of the seam in every column
+     * @return new version, one pixel shorter
+     */
+    ImageVersion withoutHorizontalSeam(int[] seamRows) {
+        int top = Arrays.stream(seamRows).min().orElse(0);
+        int bottom = Arrays.stream(seamRows).max().orElse(0);
+        int[][][] newRows = new int[height - 1][][];
+        System.arraycopy(rows, 0, newRows, 0, top);
+        System.arraycopy(rows, bottom + 1, newRows, bottom, height - bottom - 1);
+        double[][][] newEnergies = null;
+        if (energies != null) {
+            newEnergies = new double[height - 1][][];
+            System.arraycopy(energies, 0, newEnergies, 0, top);
+            System.arraycopy(energies, bottom + 1, newEnergies, bottom, height - bottom - 1);
+        }
+        double[] energy = new double[width];
+        double[] energyBelow = new double[width];
+        for (int row = top; row < bottom; row++) {
+            int[] pixels = copyRow(row);
+            int[] below = copyRow(row + 1);
+            for (int col = 0; col < width; col++) {
+                if (row >= seamRows[col]) {
+                    pixels[col] = below[col];
+                }
+            }
+            newRows[row] = split(pixels, width);
+            if (energies != null) {
+                copyEnergy(row, energy);
+                copyEnergy(row + 1, energyBelow);
+                for (int col = 0; col < width; col++) {
+                    if (row >= seamRows[col]) {
+                        energy[col] = energyBelow[col];
+                    }
+                }
+                newEnergies[row] = split(energy, newRows[row]);
+            }
+        }
+        ImageVersion removed = new ImageVersion(width, height - 1, newRows, newEnergies);
+        removed.updateHorizontalSeam(seamRows, this, row -> row < bottom ? row : row + 1);
+        return removed;
+    }
+
+    /**
+     * creates the version with a horizontal seam inserted: every column moves down under its seam pixel, so the
+     * rows above the highest seam pixel and below the lowest one are shared, and only the rows in between are copied
+     * @param seamRows row of the seam in every column
+     * @param colors packed color of the seam pixel in every column
+     * @return new version, one pixel taller
+     */
+    ImageVersion withHorizontalSeam(int[] seamRows, int[] colors) {
+        int top = Arrays.stream(seamRows).min().orElse(0);
+        int bottom = Arrays.stream(seamRows).max().orElse(0);
+        int[][][] newRows = new int[height + 1][][];
+        System.arraycopy(rows, 0, newRows, 0, top);
+        System.arraycopy(rows, bottom, newRows, bottom + 1, height - bottom);
+        double[][][] newEnergies = null;
+        if (energies != null) {
+            newEnergies = new double[height + 1][][];
+            System.arraycopy(energies, 0, newEnergies, 0, top);
+            System.arraycopy(energies, bottom, newEnergies, bottom + 1, height - bottom);
+        }
+        double[] energy = new double[width];
+        double[] energyAbove = new double[width];
+        for (int row = top; row <= bottom; row++) {
+            int[] pixels = row < height ? copyRow(row) : new int[width];
+            int[] above = row > 0 ? copyRow(row - 1) : null;
+            for (int col = 0; col < width; col++) {
+                if (row == seamRows[col]) {
+                    pixels[col] = colors[col];
+                } else if (row > seamRows[col]) {
+                    pixels[col] = above[col];
+                }
+            }
+            newRows[row] = split(pixels, width);
+            if (energies != null) {
+                // the energy of the seam pixels is calculated below
+                if (row < height) {
+                    copyEnergy(row, energy);
+                }
+                if (row > 0) {
+                    copyEnergy(row - 1, energyAbove);
+                }
+                for (int col = 0; col < width; col++) {
+                    if (row > seamRows[col]) {
+                        energy[col] = energyAbove[col];
+                    }
+                }
+                newEnergies[row] = split(energy, newRows[row]);
+            }
+        }
+        ImageVersion added = new ImageVersion(width, height + 1, newRows, newEnergies);
+        added.updateHorizontalSeam(seamRows, this, row -> row <= bottom ? Math.min(row, height - 1) : row - 1);
+        return added;
+    }
+
+    /**
+     * removes a segment from a row whose pixel in it was removed
+     * @param segments segments of the row
+     * @param segment index of the segment
+     * @return segments of the row without it
+     */
+    private static int[][] withoutSegment(int[][] segments, int segment) {
+        int[][] newSegments = new int[segments.length - 1][];
+        System.arraycopy(segments, 0, newSegments, 0, segment);
+        System.arraycopy(segments, segment + 1, newSegments, segment, segments.length - segment - 1);
+        return newSegments;
+    }
+
+    private static double[][] withoutSegment(double[][] segments, int segment) {
+        double[][] newSegments = new double[segments.length - 1][];
+        System.arraycopy(segments, 0, newSegments, 0, segment);
+        System.arraycopy(segments, segment + 1, newSegments, segment, segments.length - segment - 1);
+        return newSegments;
+    }
+
+    /**
+     * recalculates the energy around a vertical seam that was just removed from or inserted into this version,
+     * while it is being created
+     * @param cols column of the seam in every row
+     * @param edited version the seam was removed from or inserted into, whose energy segments are not written
+     */
+    private void updateVerticalSeam(int[] cols, ImageVersion edited) {
+        if (energies == null) {
+            return;
+        }
+        int[] dirtyFrom = new int[height];
+        int[] dirtyTo = new int[height];
+        Arrays.fill(dirtyFrom, Integer.MAX_VALUE);
+        Arrays.fill(dirtyTo, -1);
+        for (int row = 0; row < height; row++) {
+            markDirty(dirtyFrom, dirtyTo, row, cols[row]);
+        }
+        updateEnergy(dirtyFrom, dirtyTo, edited, row -> row);
+    }
+
+    /**
+     * recalculates the energy around a horizontal seam that was just removed from or inserted into this version,
+     * while it is being created
+     * @param seamRows row of the seam in every column
+     * @param edited version the seam was removed from or inserted into, whose energy segments are not written
+     * @param editedRow row of the edited version every row of this version was copied or moved from
+     */
+    private void updateHorizontalSeam(int[] seamRows, ImageVersion edited, IntUnaryOperator editedRow) {
+        if (energies == null) {
+            return;
+        }
+        int[] dirtyFrom = new int[height];
+        int[] dirtyTo = new int[height];
+        Arrays.fill(dirtyFrom, Integer.MAX_VALUE);
+        Arrays.fill(dirtyTo, -1);
+        for (int col = 0; col < width; col++) {
+            markDirty(dirtyFrom, dirtyTo, seamRows[col], col);
+        }
+        updateEnergy(dirtyFrom, dirtyTo, edited, editedRow);
+    }
+
+    /**
+     * marks the pixels within two rows and columns of a changed pixel as dirty, as Image.markDirty does
+     * @param dirtyFrom first dirty column of every row
+     * @param dirtyTo last dirty column of every row
+     * @param row row of the changed pixel
+     * @param col column of the changed pixel
+     */
+    private void markDirty(int[] dirtyFrom, int[] dirtyTo, int row, int col) {
+        for (int y = Math.max(0, row - 2); y <= Math.min(height - 1, row + 2); y++) {
+            dirtyFrom[y] = Math.min(dirtyFrom[y], col - 2);
+            dirtyTo[y] = Math.max(dirtyTo[y], col + 2);
+        }
+    }
+
+    /**
+     * recalculates the energy of the dirty pixels from the brightness around them, copying every energy segment
+     * that is written to and still shared with the edited version
+     * @param dirtyFrom first dirty column of every row
+     * @param dirtyTo last dirty column of every row
+     * @param edited version this version was edited from
+     * @param editedRow row of the edited version every row of this version was copied or moved from
+     */
+    private void updateEnergy(int[] dirtyFrom, int[] dirtyTo, ImageVersion edited, IntUnaryOperator editedRow) {
+        int[] pixels = new int[width]; // only the columns around the dirty ones are filled in
+        double[][] brightness = new double[3][width]; // rows above, of and below the dirty pixels
+        double[] energy = new double[width];
+        for (int row = 0; row < height; row++) {
+            int from = Math.max(0, dirtyFrom[row]);
+            int to = Math.min(width - 1, dirtyTo[row]);
+            if (from > to) {
+                continue;
+            }
+            boolean edge = row == 0 || row == height - 1;
+            int left = Math.max(0, from - 1);
+            int right = Math.min(width - 1, to + 1);
+            for (int y = edge ? row : row - 1; y <= (edge ? row : row + 1); y++) {
+                copyColumns(rows[y], left, right, pixels);
+                RowKernels.ACTIVE.brightness(pixels, brightness[y - row + 1], left, right);
+            }
+            Image.calculateEnergy(edge ? null : brightness[0], brightness[1], edge ? null : brightness[2], energy,
+                    from, to, width);
+            energies[row] = writeColumns(energies[row], edited.energies[editedRow.applyAsInt(row)], from, to,
+                    energy);
+        }
+    }
+
+    /**
+     * copies the pixels of a row between two columns
+     * @param segments segments of the row
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     * @param pixels array the pixel of column x is written to at index x
+     */
+    private static void copyColumns(int[][] segments, int from, int to, int[] pixels) {
+        int start = 0;
+        for (int i = 0; i < segments.length && start <= to; i++) {
+            int end = start + segments[i].length;
+            if (end > from) {
+                int first = Math.max(from, start);
+                System.arraycopy(segments[i], first - start, pixels, first, Math.min(to + 1, end) - first);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * writes the energy of a row between two columns, copying the segments written to that are shared
+     * @param segments energy segments of the row
+     * @param shared energy segments of the row it was copied or moved from, which must not be written
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     * @param energy array holding the energy of column x at index x
+     * @return energy segments of the row, a copy of segments if that was shared
+     */
+    private static double[][] writeColumns(double[][] segments, double[][] shared, int from, int to,
+                                           double[] energy) {
+        double[][] written = segments == shared ? segments.clone() : segments;
+        int start = 0;
+        for (int i = 0; i < written.length && start <= to; i++) {
+            int end = start + written[i].length;
+            if (end > from) {
+                if (contains(shared, written[i])) {
+                    written[i] = written[i].clone();
+                }
+                int first = Math.max(from, start);
+                System.arraycopy(energy, first, written[i], first - start, Math.min(to + 1, end) - first);
+            }
+            start = end;
+        }
+        return written;
+    }
+
+    private static boolean contains(double[][] segments, double[] segment) {
+        for (double[] candidate : segments) {
+            if (candidate == segment) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * estimates the memory held by this version
+     * @return size in bytes of the rows and their segments, with the energy if it was calculated
+     */
+    long bytes() {
+        return rowBytes(rows) + (energies == null ? 0 : rowBytes(energies));
+    }
+
+    /**
+     * estimates the memory held by this version on top of one it was edited into, i.e. by the rows and segments
+     * it does not share; edits keep the order of the rows they share and move them by at most the rows they removed
+     * or added, so every row is only looked for near its own index, and the segments of a row that was replaced
+     * only in the row replacing it
+     * @param other version this version was edited into
+     * @return size in bytes
+     */
+    long bytesNotIn(ImageVersion other) {
+        long bytes = rowBytesNotIn(rows, other.rows);
+        if (energies != null) {
+            bytes += other.energies == null ? rowBytes(energies) : rowBytesNotIn(energies, other.energies);
+        }
+        return bytes;
+    }
+
+    /**
+     * estimates the memory held by the rows of pixels or energy of a version and not by the rows of another
+     * @param rows segments of every row
+     * @param otherRows segments of every row of the version edited into
+     * @return size in bytes
+     */
+    private static long rowBytesNotIn(Object[][] rows, Object[][] otherRows) {
+        int shift = Math.abs(rows.length - otherRows.length);
+        long bytes = 0;
+        int next = 0; // rows of other above it are shared with earlier rows or were added by the edit
+        for (int row = 0; row < rows.length; row++) {
+            int start = Math.max(next, row - shift);
+            int end = Math.min(otherRows.length, row + shift + 1);
+            int match = start;
+            while (match < end && otherRows[match] != rows[row]) {
+                match++;
+            }
+            if (match < end) {
+                next = match + 1;
+                continue;
+            }
+            // a vertical seam copies the row around the segments it leaves, a horizontal one copies the whole row
+            long notShared = segmentBytes(rows[row]);
+            for (int candidate = start; candidate < end; candidate++) {
+                long notIn = segmentBytesNotIn(rows[row], otherRows[candidate]);
+                if (notIn < notShared) {
+                    notShared = notIn;
+                    next = candidate + 1;
+                }
+            }
+            bytes += UndoLog.ARRAY_BYTES + 4L * rows[row].length + notShared;
+        }
+        return bytes;
+    }
+
+    /**
+     * estimates the memory held by the segments of a row and not by the row that replaced it
+     * @param segments segments of the row
+     * @param replacement segments of the row replacing it, in which shared segments keep their order
+     * @return size in bytes
+     */
+    private static long segmentBytesNotIn(Object[] segments, Object[] replacement) {
+        long bytes = 0;
+        int next = 0;
+        for (Object segment : segments) {
+            int match = next;
+            while (match < replacement.length && replacement[match] != segment) {
+                match++;
+            }
+            if (match < replacement.length) {
+                next = match + 1;
+            } else {
+                bytes += segmentBytes(segment);
+            }
+        }
+        return bytes;
+    }
+
+    private static long rowBytes(Object[][] rows) {
+        long bytes = 0;
+        for (Object[] segments : rows) {
+            bytes += UndoLog.ARRAY_BYTES + 4L * segments.length + segmentBytes(segments);
+        }
+        return bytes;
+    }
+
+    private static long segmentBytes(Object[] segments) {
+        long bytes = 0;
+        for (Object segment : segments) {
+            bytes += segmentBytes(segment);
+        }
+        return bytes;
+    }
+
+    private static long segmentBytes(Object segment) {
+        return UndoLog.ARRAY_BYTES + (segment instanceof int[] pixels
+                ? (long) Integer.BYTES * pixels.length : (long) Double.BYTES * ((double[]) segment).length);
+    }
+
+    /**
+     * finds the segment a column is in, going through the segments of the row in order
+     * @param segments segments of a row
+     * @param col column, less than the width
+     * @return index of the segment
+     */
+    private static int segmentOf(int[][] segments, int col) {
+        int segment = 0;
+        int end = segments[0].length; // first column after the segment
+        while (end <= col) {
+            end += segments[++segment].length;
+        }
+        return segment;
+    }
+
+    /**
+     * gets the column a segment starts at
+     * @param segments segments of a row
+     * @param segment index of the segment
+     * @return column of its first pixel
+     */
+    private static int start(int[][] segments, int segment) {
+        int start = 0;
+        for (int i = 0; i < segment; i++) {
+            start += segments[i].length;
+        }
+        return start;
+    }
+}
@@ -0,0 +1,175 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class ImageVersionTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void editsMatchTheImageAndShareUntouchedSegments() {
+        ImageVersion base = ImageVersion.of(TestImages.synthetic(1000, 30));
+        Image image = base.toImage();
+        ImageVersion version = base;
+
+        for (int i = 0; i < 6; i++) {
+            boolean horizontal = i % 3 == 2;
+            List<Pixel> seam = horizontal ? image.getLowestEnergyHorizontalSeam() : image.getLowestEnergySeam();
+            SeamRecord record = SeamRecord.of(seam, horizontal);
+            ImageVersion removed = record.removeFrom(version);
+            if (horizontal) {
+                image.removeHorizontalSeam(seam);
+            } else {
+                image.removeSeam(seam);
+                // every row gets a new array of its four segments, one of which is copied, the others are shared
+                Assertions.assertThat(removed.bytesNotIn(version))
+                        .isLessThanOrEqualTo(30 * (2 * 16 + 4L * (4 + ImageVersion.SEGMENT_WIDTH)));
+            }
+            assertSamePixels(removed, image);
+            assertSamePixels(record.addTo(removed), version.toImage());
+            version = removed;
+        }
+    }
+
+    @Test
+    void editorsShareOneDecodedVersionAndUndoSwitchesBack() throws IOException {
+        File file = directory.resolve("image.png").toFile();
+        ImageIO.write(TestImages.synthetic(60, 40), "png", file);
+
+        ImageEditor first = new ImageEditor(new PreviewWriter(directory.resolve("first.png").toString()));
+        ImageEditor second = new ImageEditor(new PreviewWriter(directory.resolve("second.png").toString()));
+        try {
+            first.load(file.getPath());
+            second.load(file.getPath());
+            ImageVersion base = first.version();
+            Assertions.assertThat(second.version()).isSameAs(base);
+
+            first.highlightLowestEnergySeam();
+            ImageVersion highlighted = first.version();
+            for (int row = 0; row < 40; row++) { // the energy is added, the highlight is only painted over previews
+                Assertions.assertThat(highlighted.rowKey(row)).isSameAs(base.rowKey(row));
+            }
+            first.removeHighlighted();
+            Assertions.assertThat(first.version().getWidth()).isEqualTo(59);
+            Assertions.assertThat(second.version()).isSameAs(base);
+            Assertions.assertThat(base.hasEnergy()).isFalse();
+
+            first.undo();
+            Assertions.assertThat(first.version()).isSameAs(highlighted);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    void energyFollowsEditsWithoutWritingEarlierVersions() {
+        ImageVersion version = ImageVersion.of(TestImages.synthetic(600, 40)).withEnergy();
+        SeamSearch search = new SeamSearch();
+        int[] acrossSegments = new int[40];
+        for (int row = 0; row < 40; row++) {
+            acrossSegments[row] = 254 + row % 3;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            boolean horizontal = i % 4 == 1 || i % 4 == 2;
+            int[] seam = i == 0 ? acrossSegments : version.findSeam(Image.SeamType.LOWEST_ENERGY, horizontal, search);
+            SeamRecord record = SeamRecord.of(version, seam, horizontal);
+            double[][] before = energyOf(version);
+
+            ImageVersion removed = record.removeFrom(version);
+            assertSameEnergy(removed);
+            ImageVersion restored = record.addTo(removed);
+            assertSameEnergy(restored);
+            Assertions.assertThat(energyOf(version)).isEqualTo(before);
+            Assertions.assertThat(energyOf(restored)).isEqualTo(before);
+            version = removed;
+        }
+    }
+
+    @Test
+    void searchesAndRetargetingMatchTheImage() {
+        ImageVersion base = ImageVersion.of(TestImages.synthetic(300, 50));
+        SeamSearch search = new SeamSearch();
+        for (Image.SeamType type : Image.SeamType.values()) {
+            ImageVersion version = base.withEnergy();
+            Image image = base.toImage();
+            for (boolean horizontal : new boolean[] {false, true}) {
+                Assertions.assertThat(version.findSeam(type, horizontal, search))
+                        .isEqualTo(image.findSeam(type, horizontal));
+            }
+
+            List<SeamRecord> records = new ArrayList<>();
+            ImageVersion retargeted = (type == Image.SeamType.GREENEST ? base : version).withoutSeams(40, type, records);
+            List<List<Pixel>> removed = image.removeSeams(40, type);
+            assertSamePixels(retargeted, image);
+            Assertions.assertThat(records).hasSize(40);
+            ImageVersion restored = retargeted;
+            for (int i = removed.size() - 1; i >= 0; i--) {
+                restored = records.get(i).addTo(restored);
+            }
+            assertSamePixels(restored, base.toImage());
+            if (type == Image.SeamType.LOWEST_ENERGY) {
+                assertSameEnergy(retargeted);
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void resumedVersionHoldsItsEnergyWithoutCalculatingIt() throws IOException {
+        ImageVersion version = ImageVersion.of(TestImages.synthetic(300, 40)).withEnergy();
+        SeamSearch search = new SeamSearch();
+        version = version.withoutSeam(version.findSeam(Image.SeamType.LOWEST_ENERGY, false, search));
+        version = version.withoutHorizontalSeam(version.findSeam(Image.SeamType.LOWEST_ENERGY, true, search));
+        Path file = directory.resolve("version" + ImageEditor.SESSION_EXTENSION);
+        SessionFile.write(file, version, output -> { });
+
+        OperationMetrics.reset();
+        SessionFile session;
+        try (OperationMetrics.Scope scope = OperationMetrics.command("RESUME")) {
+            session = SessionFile.read(file);
+        }
+
+        // the mapped planes are copied once, straight into the segments, and the energy is not calculated again
+        Assertions.assertThat(session.version.hasEnergy()).isTrue();
+        Assertions.assertThat(session.version.withEnergy()).isSameAs(session.version);
+        Assertions.assertThat(OperationMetrics.histogram(OperationMetrics.Phase.ENERGY, "RESUME")).isNull();
+        Assertions.assertThat(energyOf(session.version)).isEqualTo(energyOf(version));
+        assertSameEnergy(session.version);
+        for (int row = 0; row < version.getHeight(); row++) {
+            Assertions.assertThat(session.version.copyRow(row)).isEqualTo(version.copyRow(row));
+        }
+    }
+
+    private static double[][] energyOf(ImageVersion version) {
+        double[][] energy = new double[version.getHeight()][version.getWidth()];
+        for (int row = 0; row < energy.length; row++) {
+            version.copyEnergy(row, energy[row]);
+        }
+        return energy;
+    }
+
+    private static void assertSameEnergy(ImageVersion version) {
+        ImageVersion calculated = ImageVersion.of(version.toImage()).withEnergy();
+        Assertions.assertThat(energyOf(version)).isEqualTo(energyOf(calculated));
+    }
+
+    private static void assertSamePixels(ImageVersion version, Image image) {
+        Assertions.assertThat(version.getWidth()).isEqualTo(image.getWidth());
+        Assertions.assertThat(version.getHeight()).isEqualTo(image.getHeight());
+        for (int row = 0; row < image.getHeight(); row++) {
+            Assertions.assertThat(version.copyRow(row)).isEqualTo(image.copyRow(row));
+        }
+    }
+}
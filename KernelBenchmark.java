@@ -0,0 +1,101 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/*PERFORMANCE BENCHMARKS*/
+/**
+ * JMH benchmarks of the scalar and vectorized row kernels on one core, over every row of a synthetic image
+ * the vector parameter needs the jdk.incubator.vector module, which the vector profile adds (-Pbenchmarks,vector)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+
+    @Param({"1920x1080", "3840x2160"})
+    private String size;
+
+    @Param({"scalar", "vector"})
+    private String kernels;
+
+    private RowKernels rowKernels;
+    private int width;
+    private int height;
+    private int[][] pixels;
+    private double[][] brightness;
+    private double[][] energy;
+    private double[] above;
+    private double[] current;
+    private byte[] moves;
+
+    /**
+     * decodes the image of the benchmarked size into rows and calculates its brightness and energy once
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        rowKernels = RowKernels.select(kernels);
+        String[] dimensions = size.split("x");
+        width = Integer.parseInt(dimensions[0]);
+        height = Integer.parseInt(dimensions[1]);
+        BufferedImage image = TestImages.synthetic(width, height);
+        pixels = new int[height][];
+        for (int y = 0; y < height; y++) {
+            pixels[y] = image.getRGB(0, y, width, 1, null, 0, width);
+        }
+        brightness = new double[height][width];
+        energy = new double[height][width];
+        above = new double[width];
+        current = new double[width];
+        moves = new byte[width];
+        brightness();
+        energy();
+    }
+
+    @Benchmark
+    public double[][] brightness() {
+        for (int y = 0; y < height; y++) {
+            rowKernels.brightness(pixels[y], brightness[y], 0, width - 1);
+        }
+        return brightness;
+    }
+
+    @Benchmark
+    public double[][] energy() {
+        for (int y = 1; y < height - 1; y++) {
+            rowKernels.energy(brightness[y - 1], brightness[y], brightness[y + 1], energy[y], 1, width - 2);
+        }
+        return energy;
+    }
+
+    /**
+     * cumulative values of the seam search over every row, the energy of each row standing in for its values
+     * @return moves of the last row
+     */
+    @Benchmark
+    public byte[] maximizeRows() {
+        System.arraycopy(energy[0], 0, above, 0, width);
+        for (int y = 1; y < height; y++) {
+            System.arraycopy(energy[y], 0, current, 0, width);
+            rowKernels.maximizeRow(above, current, moves, 0, 0, width - 1, width);
+            System.arraycopy(current, 0, above, 0, width);
+        }
+        return moves;
+    }
+}
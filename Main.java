@@ -1,6 +1,7 @@
 package uk.ac.nulondon;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 /*APPLICATION CONTROLLER LAYER*/
@@ -14,7 +15,12 @@ public class Main {
         System.out.println("Please enter a command");
         System.out.println("g - Remove the greenest seam");
         System.out.println("e - Remove the seam with the lowest energy");
+        System.out.println("hg - Remove the greenest horizontal seam");
+        System.out.println("he - Remove the horizontal seam with the lowest energy");
+        System.out.println("r - Retarget the image to a smaller width");
+        System.out.println("w - Widen the image by inserting seams");
         System.out.println("u - Undo previous edit");
+        System.out.println("s - Save the session to resume later");
         System.out.println("q - Quit");
     }
 
@@ -65,6 +71,116 @@ public class Main {
         }
     }
 
+    /**
+     * Highlights lowest energy horizontal seam and asks for confirmation before removing it from image
+     * @param scan scanner for user input through terminal
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    private void energyHorizontal(Scanner scan) throws IOException {
+        // highlight and export intermediate image
+        editor.highlightLowestEnergyHorizontalSeam();
+        // ask for confirmation and try to execute
+        System.out.println("Remove a lowest energy horizontal seam. Continue? (Y/N)");
+        if ("y".equalsIgnoreCase(scan.next())) {
+            editor.removeHighlighted();
+        } else {
+            editor.undo();
+        }
+    }
+
+    /**
+     * Highlights greenest horizontal seam and asks for confirmation before removing it from image
+     * @param scan scanner for user input through terminal
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    private void greenestHorizontal(Scanner scan) throws IOException {
+        // highlight and export intermediate image
+        editor.highlightGreenestHorizontal();
+        // ask for confirmation and try to execute
+        System.out.println("Remove the greenest horizontal seam. Continue? (Y/N)");
+        if ("y".equalsIgnoreCase(scan.next())) {
+            editor.removeHighlighted();
+        } else {
+            editor.undo();
+        }
+    }
+
+    /**
+     * Asks for a target width and seam type and removes seams until the image has that width
+     * @param scan scanner for user input through terminal
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    private void retarget(Scanner scan) throws IOException {
+        System.out.println("Enter the target width");
+        if (!scan.hasNextInt()) {
+            System.out.println("That is not a valid width.");
+            scan.next();
+            return;
+        }
+        int targetWidth = scan.nextInt();
+        System.out.println("Remove greenest (g) or lowest energy (e) seams?");
+        Image.SeamType type = "g".equalsIgnoreCase(scan.next())
+                ? Image.SeamType.GREENEST : Image.SeamType.LOWEST_ENERGY;
+        editor.retarget(targetWidth, type);
+    }
+
+    /**
+     * Asks for a target width and inserts lowest energy seams until the image has that width
+     * @param scan scanner for user input through terminal
+     * @throws IOException throws if image cannot be modified or accessed
+     */
+    private void widen(Scanner scan) throws IOException {
+        System.out.println("Enter the target width");
+        if (!scan.hasNextInt()) {
+            System.out.println("That is not a valid width.");
+            scan.next();
+            return;
+        }
+        editor.widen(scan.nextInt());
+    }
+
+    /**
+     * Carves an image too large for the editor to a target width with MappedImage, which keeps it off the heap;
+     * only vertical seams are removed, and nothing can be undone
+     * @param scan scanner for user input through terminal
+     * @param filePath filepath of image
+     * @throws IOException throws if image cannot be read, carved or saved
+     */
+    private void carveMapped(Scanner scan, String filePath) throws IOException {
+        System.out.println("[INFO] The image is too large to edit in memory, it is carved off the heap instead");
+        Path output = Path.of("target/final_Img.png").toAbsolutePath();
+        try (MappedImage image = MappedImage.load(filePath, output.getParent(), MappedImage.DEFAULT_BAND_HEIGHT)) {
+            System.out.println("Enter the target width");
+            if (!scan.hasNextInt()) {
+                System.out.println("That is not a valid width.");
+                scan.next();
+                return;
+            }
+            int targetWidth = scan.nextInt();
+            // checks if the target width is possible for the image
+            if (targetWidth < 1 || targetWidth >= image.getWidth()) {
+                System.out.println("[ERROR] Target width must be between 1 and " + (image.getWidth() - 1));
+                return;
+            }
+            System.out.println("Remove greenest (g) or lowest energy (e) seams?");
+            Image.SeamType type = "g".equalsIgnoreCase(scan.next())
+                    ? Image.SeamType.GREENEST : Image.SeamType.LOWEST_ENERGY;
+            image.removeSeams(image.getWidth() - targetWidth, type);
+            image.save(output.toString());
+            System.out.println("[INFO] Carved to width " + image.getWidth() + ", saved to " + output);
+        }
+    }
+
+    /**
+     * Writes the session, with its undo history, to a file that can be entered instead of an image at the next start
+     * @throws IOException throws if the session cannot be written
+     */
+    private void checkpoint() throws IOException {
+        String sessionPath = "target/editor" + ImageEditor.SESSION_EXTENSION;
+        editor.checkpoint(sessionPath);
+        System.out.println("[INFO] Session saved to " + sessionPath);
+    }
+
     /**
      * Runner for program which allows user to modify image through terminal and ends where user types quit
      * @throws IOException throws if image cannot be modified or accessed
@@ -75,8 +191,16 @@ public class Main {
             // src/main/resources/beach.png
             System.out.println("Welcome! Enter file path");
             String filePath = scan.next();
-            // import the file
-            editor.load(filePath);
+            // import the file, or carry on with a saved session
+            if (filePath.endsWith(ImageEditor.SESSION_EXTENSION)) {
+                editor.resume(filePath);
+            } else if (ImageEditor.fitsInHeap(filePath)) {
+                editor.load(filePath);
+            } else {
+                carveMapped(scan, filePath);
+                editor.close();
+                return;
+            }
 
             String choice = "";
             while (!"q".equalsIgnoreCase(choice)) {
@@ -88,13 +212,22 @@ public class Main {
                     //Extract all the actions into methods besides the trivial ones
                     case "g" -> greenest(scan);
                     case "e" -> energy(scan);
+                    case "hg" -> greenestHorizontal(scan);
+                    case "he" -> energyHorizontal(scan);
+                    case "r" -> retarget(scan);
+                    case "w" -> widen(scan);
                     case "u" -> undo(scan);
+                    case "s" -> checkpoint();
                     case "q" -> System.out.println("Thanks for playing.");
                     default -> System.out.println("That is not a valid option.");
                 }
             }
             // After the user exits, export the final image
             editor.save("target/final_Img.png");
+            // waits for the last live update before the program ends
+            editor.close();
+            // prints the latency of every phase of the session if asked for with -Duk.ac.nulondon.metrics=true
+            OperationMetrics.printSummaryIfEnabled();
         }
     }
 
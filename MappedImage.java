@@ -0,0 +1,545 @@
+package uk.ac.nulondon;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * image kept in memory-mapped scratch files instead of on the heap, for images larger than the heap
+ * pixels and seam moves are stored off-heap and only one band of rows of each is mapped at a time,
+ * everything on the heap is a few rows long, so the resident set is bounded by the band height
+ * seams are vertical and found exactly like Image finds them; energy is calculated from the pixels while
+ * streaming over the rows instead of being stored
+ */
+public class MappedImage implements AutoCloseable {
+
+    public static final int DEFAULT_BAND_HEIGHT = 256; // rows of a file mapped at once
+
+    private final FileChannel pixelFile; // packed ARGB pixels, row y starts at int y * stride
+    private final FileChannel moveFile; // -1/0/+1 move of every pixel of the last seam search, laid out like pixels
+    private final int stride; // width the image was loaded with, rows keep their place when seams are removed
+    private final int bandHeight;
+    private int width;
+    private final int height;
+
+    // band of each file that is currently mapped
+    private IntBuffer pixelBand;
+    private int pixelBandStart = -1;
+    private ByteBuffer moveBand;
+    private int moveBandStart = -1;
+
+    /**
+     * creates an image with scratch files in the given directory, the pixels still have to be written
+     * @param width width of the image
+     * @param height height of the image
+     * @param scratchDirectory directory of the scratch files, which are deleted on close
+     * @param bandHeight rows of a file mapped at once (lowered if a band would not fit in one mapping)
+     * @throws IOException throws if the scratch files cannot be created
+     */
+    private MappedImage(int width, int height, Path scratchDirectory, int bandHeight) throws IOException {
+        if (width < 1 || height < 1 || bandHeight < 1) {
+            throw new IllegalArgumentException("Width, height and band height must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = width;
+        this.bandHeight = (int) Math.max(1, Math.min(bandHeight, Integer.MAX_VALUE / (4L * width)));
+        pixelFile = scratchFile(scratchDirectory, "pixels");
+        moveFile = scratchFile(scratchDirectory, "moves");
+    }
+
+    /**
+     * copies a buffered image into a new mapped image
+     * @param img buffered image
+     * @param scratchDirectory directory of the scratch files, which are deleted on close
+     * @param bandHeight rows of a file mapped at once
+     * @throws IOException throws if the scratch files cannot be written
+     */
+    public MappedImage(BufferedImage img, Path scratchDirectory, int bandHeight) throws IOException {
+        this(img.getWidth(), img.getHeight(), scratchDirectory, bandHeight);
+        writeRows(img, 0);
+    }
+
+    /**
+     * loads an image file into a new mapped image without decoding all of it on the heap
+     * 8 bit RGB, RGBA and palette PNGs are decoded a row at a time in one pass; other images are decoded
+     * a band of rows at a time by ImageIO, whose PNG reader inflates the image data from the top for every band
+     * @param filePath filepath of image
+     * @param scratchDirectory directory of the scratch files, which are deleted on close
+     * @param bandHeight rows of a file mapped and decoded at once
+     * @return loaded image
+     * @throws IOException throws if file cannot be read or accessed
+     */
+    public static MappedImage load(String filePath, Path scratchDirectory, int bandHeight) throws IOException {
+        try (PngRowReader png = PngRowReader.open(Path.of(filePath))) {
+            if (png != null) {
+                MappedImage image = new MappedImage(png.getWidth(), png.getHeight(), scratchDirectory, bandHeight);
+                try {
+                    int[] pixels = new int[image.width];
+                    for (int y = 0; y < image.height; y++) {
+                        png.readRow(pixels);
+                        image.writeRow(y, pixels);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    image.close();
+                    throw e;
+                }
+                return image;
+            }
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filePath))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image file " + filePath);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                MappedImage image = new MappedImage(reader.getWidth(0), reader.getHeight(0), scratchDirectory,
+                        bandHeight);
+                try {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    for (int y = 0; y < image.height; y += image.bandHeight) {
+                        int rows = Math.min(image.bandHeight, image.height - y);
+                        param.setSourceRegion(new Rectangle(0, y, image.width, rows));
+                        image.writeRows(reader.read(0, param), y);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    image.close();
+                    throw e;
+                }
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * creates a scratch file which is deleted when its channel is closed
+     * @param directory directory of the file
+     * @param name start of the file name
+     * @return channel of the file, open for reading and writing
+     * @throws IOException throws if the file cannot be created
+     */
+    private static FileChannel scratchFile(Path directory, String name) throws IOException {
+        Path file = Files.createTempFile(directory, name, ".bin");
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * writes the pixels of a buffered image into the rows starting at the given row, one row at a time
+     * @param img buffered image as wide as this image
+     * @param firstRow row the first row of img is written to
+     * @throws IOException throws if the pixel file cannot be mapped
+     */
+    private void writeRows(BufferedImage img, int firstRow) throws IOException {
+        int[] pixels = new int[width];
+        for (int row = 0; row < img.getHeight(); row++) {
+            img.getRGB(0, row, width, 1, pixels, 0, width);
+            for (int col = 0; col < width; col++) {
+                pixels[col] |= Pixel.OPAQUE; // images are opaque, same as Image
+            }
+            writeRow(firstRow + row, pixels);
+        }
+    }
+
+    /**
+     * width getter
+     * @return returns this.width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * height getter
+     * @return returns this.height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * maps the band of the pixel file holding a row, unless it is mapped already
+     * @param y row of the image
+     * @return index of the first pixel of the row in the mapped band
+     * @throws IOException throws if the file cannot be mapped
+     */
+    private int mapPixelRow(int y) throws IOException {
+        int start = y - y % bandHeight;
+        if (start != pixelBandStart) {
+            int rows = Math.min(bandHeight, height - start);
+            pixelBand = pixelFile.map(FileChannel.MapMode.READ_WRITE, 4L * start * stride, 4L * rows * stride)
+                    .asIntBuffer();
+            pixelBandStart = start;
+        }
+        return (y - start) * stride;
+    }
+
+    /**
+     * maps the band of the move file holding a row, unless it is mapped already
+     * @param y row of the image
+     * @return index of the first move of the row in the mapped band
+     * @throws IOException throws if the file cannot be mapped
+     */
+    private int mapMoveRow(int y) throws IOException {
+        int start = y - y % bandHeight;
+        if (start != moveBandStart) {
+            int rows = Math.min(bandHeight, height - start);
+            moveBand = moveFile.map(FileChannel.MapMode.READ_WRITE, (long) start * stride, (long) rows * stride);
+            moveBandStart = start;
+        }
+        return (y - start) * stride;
+    }
+
+    private void readRow(int y, int[] pixels) throws IOException {
+        int offset = mapPixelRow(y);
+        pixelBand.get(offset, pixels, 0, width);
+    }
+
+    private void writeRow(int y, int[] pixels) throws IOException {
+        int offset = mapPixelRow(y);
+        pixelBand.put(offset, pixels, 0, width);
+    }
+
+    /**
+     * removes count seams of the given type, one streaming pass over the image per seam
+     * every pass removes the previous seam from each row just before that row is searched
+     * @param count number of seams to remove (at most width - 1 are removed)
+     * @param type type of seams to remove
+     * @throws IOException throws if the scratch files cannot be accessed
+     */
+    public void removeSeams(int count, Image.SeamType type) throws IOException {
+        int[] removed = null;
+        for (int i = 0; i < count && (removed == null ? width : width - 1) > 1; i++) {
+            removed = findSeam(type, removed);
+        }
+        if (removed != null) {
+            removeSeam(removed);
+        }
+    }
+
+    /**
+     * finds the seam of the given type
+     * @param type type of the seam
+     * @return column of the seam in every row
+     * @throws IOException throws if the scratch files cannot be accessed
+     */
+    public int[] findSeam(Image.SeamType type) throws IOException {
+        return findSeam(type, null);
+    }
+
+    /**
+     * removes a seam from every row in one pass
+     * @param cols column of the seam in every row
+     * @throws IOException throws if the pixel file cannot be accessed
+     */
+    public void removeSeam(int[] cols) throws IOException {
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(y, pixels);
+            System.arraycopy(pixels, cols[y] + 1, pixels, cols[y], width - cols[y] - 1);
+            writeRow(y, pixels);
+        }
+        width--;
+    }
+
+    /**
+     * finds the seam with maximum cumulative value in one pass over the rows
+     * (the same search as Image, with the same tie-breaking, so both find the same seams)
+     * @param type type of the seam
+     * @param pending seam to remove from every row before it is searched, or null
+     * @return column of the seam in every row
+     * @throws IOException throws if the scratch files cannot be accessed
+     */
+    private int[] findSeam(Image.SeamType type, int[] pending) throws IOException {
+        int oldWidth = width;
+        if (pending != null) {
+            width--;
+        }
+
+        // rolling rows: pixels and brightness of the rows above, at and below the current row
+        int[] pixels = new int[oldWidth];
+        int[] pixelsBelow = new int[oldWidth];
+        double[] above = new double[width];
+        double[] current = new double[width];
+        double[] below = new double[width];
+        double[] values = new double[width];
+        double[] sumsAbove = new double[width];
+        double[] sumsCurrent = new double[width];
+        byte[] moves = new byte[width];
+        Image.PixelValue rowValues = (row, from, to, target) -> System.arraycopy(values, from, target, from,
+                to - from + 1);
+
+        loadRow(0, pending, oldWidth, pixels, current);
+        if (height > 1) {
+            loadRow(1, pending, oldWidth, pixelsBelow, below);
+        }
+        for (int y = 0; y < height; y++) {
+            if (type == Image.SeamType.GREENEST) {
+                for (int x = 0; x < width; x++) {
+                    values[x] = Image.green(pixels[x]);
+                }
+            } else {
+                negativeEnergyRow(y, above, current, below, values);
+            }
+
+            if (y == 0) {
+                System.arraycopy(values, 0, sumsAbove, 0, width);
+            } else {
+                SeamCosts.calculateRow(rowValues, y, sumsAbove, sumsCurrent, moves, 0, 0, width - 1, width);
+                int offset = mapMoveRow(y); // maps the band before moveBand is read
+                moveBand.put(offset, moves, 0, width);
+                double[] swap = sumsAbove;
+                sumsAbove = sumsCurrent;
+                sumsCurrent = swap;
+            }
+
+            // moves the rows up, reading the row after the next one
+            double[] swap = above;
+            above = current;
+            current = below;
+            below = swap;
+            int[] swapPixels = pixels;
+            pixels = pixelsBelow;
+            pixelsBelow = swapPixels;
+            if (y + 2 < height) {
+                loadRow(y + 2, pending, oldWidth, pixelsBelow, below);
+            }
+        }
+
+        // gets maximum value from last row
+        int maxCol = 0;
+        for (int x = 1; x < width; x++) {
+            if (sumsAbove[x] > sumsAbove[maxCol]) {
+                maxCol = x;
+            }
+        }
+
+        // goes from bottom to top following the stored moves
+        int[] cols = new int[height];
+        int col = maxCol;
+        for (int y = height - 1; y >= 0; y--) {
+            cols[y] = col;
+            if (y > 0) {
+                int offset = mapMoveRow(y);
+                col += moveBand.get(offset + col);
+            }
+        }
+        return cols;
+    }
+
+    /**
+     * reads a row, removing the pending seam from it first, and calculates its brightness
+     * @param y row of the image
+     * @param pending seam to remove from the row, or null
+     * @param oldWidth width of the row before the pending seam is removed
+     * @param pixels array the pixels of the row are read into
+     * @param brightness array the brightness of the row is written to
+     * @throws IOException throws if the pixel file cannot be accessed
+     */
+    private void loadRow(int y, int[] pending, int oldWidth, int[] pixels, double[] brightness) throws IOException {
+        int offset = mapPixelRow(y);
+        pixelBand.get(offset, pixels, 0, oldWidth);
+        if (pending != null) {
+            System.arraycopy(pixels, pending[y] + 1, pixels, pending[y], oldWidth - pending[y] - 1);
+            pixelBand.put(offset, pixels, 0, width);
+        }
+        RowKernels.ACTIVE.brightness(pixels, brightness, 0, width - 1);
+    }
+
+    /**
+     * writes the negative energy of every pixel of a row, calculated like Image calculates it
+     * @param y row of the pixels
+     * @param above brightness of the row above
+     * @param current brightness of the row
+     * @param below brightness of the row below
+     * @param values array the negative energy of column x is written to at index x
+     */
+    private void negativeEnergyRow(int y, double[] above, double[] current, double[] below, double[] values) {
+        // edge pixels (first/last row or column) take their brightness as energy
+        if (y == 0 || y == height - 1) {
+            System.arraycopy(current, 0, values, 0, width);
+        } else {
+            values[0] = current[0];
+            values[width - 1] = current[width - 1];
+            RowKernels.ACTIVE.energy(above, current, below, values, 1, width - 2);
+        }
+        for (int x = 0; x < width; x++) {
+            values[x] = -values[x];
+        }
+    }
+
+    /**
+     * copies the image into a buffered image, only for images that fit on the heap
+     * @return returns buffered image of internal image
+     * @throws IOException throws if the pixel file cannot be accessed
+     */
+    public BufferedImage toBufferedImage() throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(y, pixels);
+            image.setRGB(0, y, width, 1, pixels, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * saves the image as an 8 bit RGB PNG, encoding one row at a time
+     * @param filePath filepath where image should be saved
+     * @throws IOException throws if image cannot be saved at the given filepath
+     */
+    public void save(String filePath) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(Path.of(filePath))))) {
+            output.write(StripPngEncoder.SIGNATURE);
+
+            ByteBuffer header = ByteBuffer.allocate(StripPngEncoder.IHDR_LENGTH);
+            header.putInt(width).putInt(height).put(StripPngEncoder.BIT_DEPTH).put(StripPngEncoder.TRUECOLOR);
+            header.put((byte) 0).put((byte) 0).put((byte) 0); // deflate, no filtering, not interlaced
+            writeChunk(output, "IHDR", header.array(), header.position());
+
+            int[] pixels = new int[width];
+            byte[] scanline = new byte[1 + 3 * width]; // filter type 0 (none), then the pixels
+            try (DeflaterOutputStream data = new DeflaterOutputStream(new ChunkOutputStream(output), true)) {
+                for (int y = 0; y < height; y++) {
+                    readRow(y, pixels);
+                    for (int x = 0; x < width; x++) {
+                        scanline[1 + 3 * x] = (byte) (pixels[x] >> Pixel.RED_SHIFT);
+                        scanline[2 + 3 * x] = (byte) (pixels[x] >> Pixel.GREEN_SHIFT);
+                        scanline[3 + 3 * x] = (byte) pixels[x];
+                    }
+                    data.write(scanline);
+                }
+            }
+            writeChunk(output, "IEND", new byte[0], 0);
+        }
+    }
+
+    /**
+     * writes one PNG chunk: length, type, data and the CRC of type and data
+     * @param output stream the chunk is written to
+     * @param type four letter chunk type
+     * @param data chunk data
+     * @param length number of bytes of data to write
+     * @throws IOException throws if the stream cannot be written
+     */
+    private static void writeChunk(DataOutputStream output, String type, byte[] data, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        output.writeInt(length);
+        output.write(typeBytes);
+        output.write(data, 0, length);
+        output.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * stream of compressed image data which is written out as IDAT chunks of at most 64 KiB
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+        private static final int CHUNK_BYTES = 64 * 1024;
+        private final DataOutputStream output;
+        private final byte[] buffer = new byte[CHUNK_BYTES];
+        private int size = 0;
+
+        ChunkOutputStream(DataOutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) {
+                flushChunk();
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (size > 0) {
+                writeChunk(output, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk(); // the underlying stream stays open for the IEND chunk
+        }
+    }
+
+    /**
+     * closes and deletes the scratch files
+     * @throws IOException throws if a scratch file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        pixelBand = null;
+        moveBand = null;
+        try {
+            pixelFile.close();
+        } finally {
+            moveFile.close();
+        }
+    }
+
+    /**
+     * carves an image file to a smaller width without loading it onto the heap
+     * usage: MappedImage input targetWidth output [g|e] [bandHeight]
+     * @param args input file, target width, output file, seam type (lowest energy by default) and band height
+     * @throws IOException throws if an image cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: MappedImage input targetWidth output [g|e] [bandHeight]");
+            return;
+        }
+        Image.SeamType type = args.length > 3 && "g".equalsIgnoreCase(args[3])
+                ? Image.SeamType.GREENEST : Image.SeamType.LOWEST_ENERGY;
+        int bandHeight = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_BAND_HEIGHT;
+        Path scratch = Path.of(args[2]).toAbsolutePath().getParent();
+        try (MappedImage image = load(args[0], scratch, bandHeight)) {
+            image.removeSeams(image.getWidth() - Integer.parseInt(args[1]), type);
+            image.save(args[2]);
+            System.out.println("[INFO] Carved " + args[0] + " to width " + image.getWidth());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+class MappedImageTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void removesSameSeamsAsImage() throws IOException {
+        BufferedImage bufferedImage = TestImages.synthetic(60, 45);
+        for (Image.SeamType type : Image.SeamType.values()) {
+            Image image = new Image(bufferedImage);
+            image.removeSeams(20, type);
+
+            // bands of 7 rows, so rows are read across band boundaries
+            try (MappedImage mapped = new MappedImage(bufferedImage, directory, 7)) {
+                mapped.removeSeams(20, type);
+                Assertions.assertThat(mapped.getWidth()).isEqualTo(40);
+                TestImages.assertSamePixels(mapped.toBufferedImage(), image.toBufferedImage());
+            }
+        }
+    }
+
+    @Test
+    void loadsAndSavesPngInBands() throws IOException {
+        BufferedImage bufferedImage = TestImages.synthetic(50, 33);
+        File input = directory.resolve("input.png").toFile();
+        File output = directory.resolve("output.png").toFile();
+        ImageIO.write(bufferedImage, "png", input);
+
+        try (MappedImage mapped = MappedImage.load(input.getPath(), directory, 4)) {
+            mapped.save(output.getPath());
+        }
+
+        TestImages.assertSamePixels(ImageIO.read(output), bufferedImage);
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertThat(files).hasSize(2); // scratch files are deleted on close
+        }
+    }
+
+    @Test
+    void loadsPaletteAlphaAndGrayPngsLikeImageIo() throws IOException {
+        BufferedImage source = TestImages.synthetic(37, 21);
+        // palette and RGBA images are decoded in one pass, gray images by ImageIO in bands
+        for (int type : new int[]{BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage converted = new BufferedImage(37, 21, type);
+            converted.getGraphics().drawImage(source, 0, 0, null);
+            File input = directory.resolve("input-" + type + ".png").toFile();
+            ImageIO.write(converted, "png", input);
+
+            BufferedImage expected = ImageIO.read(input);
+            try (MappedImage mapped = MappedImage.load(input.getPath(), directory, 4)) {
+                TestImages.assertSamePixels(mapped.toBufferedImage(), new Image(expected).toBufferedImage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+package uk.ac.nulondon;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*INSTRUMENTATION*/
+/**
+ * times the phases of image operations: every phase is committed as a JFR event (uk.ac.nulondon.Phase, tagged with
+ * the command and the image size) and counted in an in-process latency histogram per phase and command,
+ * so a summary with p50/p99 latencies can be printed without attaching a profiler
+ * the command is taken from the running thread, set by the editor or the batch carver around each operation;
+ * while JFR does not record the events, every thread reuses its scopes and events, so timing allocates nothing
+ * scopes and phases are only opened and closed by try-with-resources, so the methods timing with them suppress the
+ * "try" lint warning of resources their body does not reference
+ */
+public final class OperationMetrics {
+
+    /**
+     * system property which, when true, prints a summary at the end of an editing session or a batch
+     */
+    public static final String SUMMARY_PROPERTY = "uk.ac.nulondon.metrics";
+
+    /**
+     * phases an operation spends its time in
+     */
+    public enum Phase {
+        READ, // decoding an image file
+        CONSTRUCT, // copying a decoded image into an Image
+        ENERGY, // calculating or updating the energy
+        SEARCH, // cumulative values of the seam search
+        BACKTRACK, // following the moves back up from the best bottom pixel
+        EXPORT, // copying an Image into a buffered image
+        WRITE // encoding a PNG file
+    }
+
+    static final double NANOS_PER_MILLI = 1e6;
+    static final double NANOS_PER_SECOND = 1e9;
+    static final double MEDIAN = 0.5; // fraction of the times at or below the p50 latency
+    static final double P99 = 0.99; // fraction of the times at or below the p99 latency
+
+    private static final String NO_COMMAND = "-";
+    private static final ThreadLocal<Context> CONTEXT = ThreadLocal.withInitial(Context::new);
+    private static final Scope END_COMMAND = () -> CONTEXT.get().endCommand(); // the same scope for every command
+    private static final PhaseEvent PROBE = new PhaseEvent(); // only asked whether JFR records the events
+    private static final Map<Phase, Map<String, Histogram>> HISTOGRAMS = new EnumMap<>(Phase.class); // by command
+
+    static {
+        for (Phase phase : Phase.values()) {
+            HISTOGRAMS.put(phase, new ConcurrentHashMap<>());
+        }
+    }
+
+    private OperationMetrics() {
+    }
+
+    /**
+     * sets the command the phases timed by this thread are tagged with, until the returned scope is closed
+     * @param command command type, such as HG, HLE or RH
+     * @return scope which restores the previous command when closed
+     */
+    public static Scope command(String command) {
+        Context context = CONTEXT.get();
+        context.commands.push(context.command);
+        context.command = command;
+        return END_COMMAND;
+    }
+
+    /**
+     * state of the running thread: its command, the commands of the scopes around it and the events it reuses
+     */
+    private static final class Context {
+        private String command = NO_COMMAND;
+        private final ArrayDeque<String> commands = new ArrayDeque<>(); // commands restored when scopes close
+        private PhaseEvent[] events = new PhaseEvent[4]; // events reused by the phases running inside each other
+        private int depth; // number of reused events running
+
+        void endCommand() {
+            command = commands.pop();
+        }
+
+        PhaseEvent event() {
+            if (depth == events.length) {
+                events = Arrays.copyOf(events, 2 * depth);
+            }
+            if (events[depth] == null) {
+                events[depth] = new PhaseEvent();
+                events[depth].context = this;
+            }
+            return events[depth++];
+        }
+    }
+
+    /**
+     * command scope, closing it does not throw
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * starts timing a phase, which is recorded when the returned event is closed
+     * @param phase phase of the operation
+     * @param width width of the image (0 if not known yet)
+     * @param height height of the image (0 if not known yet)
+     * @return running event
+     */
+    public static PhaseEvent begin(Phase phase, int width, int height) {
+        Context context = CONTEXT.get();
+        // a recorded event is committed and kept by JFR, so it is only reused while JFR does not record them
+        PhaseEvent event = PROBE.isEnabled() ? new PhaseEvent() : context.event();
+        event.key = phase;
+        event.phase = phase.name();
+        event.command = context.command;
+        event.width = width;
+        event.height = height;
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * JFR event of one phase of an operation, also counted in the histograms when closed
+     */
+    @Name("uk.ac.nulondon.Phase")
+    @Label("Image Operation Phase")
+    @Category("Image Editor")
+    @Description("Time spent in one phase of an image operation")
+    @StackTrace(false)
+    public static final class PhaseEvent extends Event implements AutoCloseable {
+        @Label("Phase")
+        String phase;
+
+        @Label("Command")
+        String command;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        private transient Phase key;
+        private transient long startNanos;
+        private transient Context context; // context which reuses the event, null if it is used once
+
+        /**
+         * sets the image size, for phases which only know it at the end (such as reading a file)
+         * @param imageWidth width of the image
+         * @param imageHeight height of the image
+         */
+        public void setSize(int imageWidth, int imageHeight) {
+            width = imageWidth;
+            height = imageHeight;
+        }
+
+        /**
+         * ends the phase, commits the event if JFR records it and adds its time to the histogram
+         */
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - startNanos;
+            end();
+            if (shouldCommit()) {
+                commit();
+            }
+            HISTOGRAMS.get(key).computeIfAbsent(command, name -> new Histogram())
+                    .record(nanos, (long) width * height);
+            if (context != null) {
+                context.depth--;
+            }
+        }
+    }
+
+    /**
+     * forgets everything recorded so far, e.g. at the start of a batch
+     */
+    public static void reset() {
+        for (Map<String, Histogram> histograms : HISTOGRAMS.values()) {
+            histograms.clear();
+        }
+    }
+
+    /**
+     * gets the histogram of a phase of a command
+     * @param phase phase of the operation
+     * @param command command type
+     * @return histogram, or null if nothing was recorded
+     */
+    static Histogram histogram(Phase phase, String command) {
+        return HISTOGRAMS.get(phase).get(command);
+    }
+
+    /**
+     * builds a table of every phase of every command recorded so far, in phase order
+     * @return summary table
+     */
+    public static String summary() {
+        StringBuilder table = new StringBuilder();
+        table.append("| phase | command | count | total ms | p50 ms | p99 ms | max ms | mean pixels |%n".formatted());
+        table.append("|-------|---------|-------|----------|--------|--------|--------|-------------|%n".formatted());
+        for (Phase phase : Phase.values()) {
+            new TreeMap<>(HISTOGRAMS.get(phase)).forEach((command, histogram) -> {
+                long count = histogram.count();
+                table.append(String.format(Locale.ROOT, "| %s | %s | %d | %.1f | %.3f | %.3f | %.3f | %d |%n",
+                        phase, command, count, histogram.totalNanos() / NANOS_PER_MILLI,
+                        histogram.percentile(MEDIAN) / NANOS_PER_MILLI, histogram.percentile(P99) / NANOS_PER_MILLI,
+                        histogram.maxNanos() / NANOS_PER_MILLI,
+                        count == 0 ? 0 : histogram.totalPixels() / count));
+            });
+        }
+        return table.toString();
+    }
+
+    /**
+     * prints the summary if the summary property is set
+     */
+    public static void printSummaryIfEnabled() {
+        if (Boolean.getBoolean(SUMMARY_PROPERTY)) {
+            System.out.println();
+            System.out.print(summary());
+        }
+    }
+
+    /**
+     * latency histogram with logarithmic buckets: each power of two of nanoseconds is split into 16 buckets,
+     * so percentiles are within about 3% of the recorded times; safe to record into from several threads
+     * (also used by CarvingLoadGenerator for the latency of its requests)
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder totalPixels = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * records one timed phase
+         * @param nanos time of the phase in nanoseconds
+         * @param pixels size of the image
+         */
+        void record(long nanos, long pixels) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            totalNanos.add(value);
+            totalPixels.add(pixels);
+            maxNanos.accumulateAndGet(value, Math::max);
+        }
+
+        /**
+         * gets the bucket of a time: times below 16 ns have a bucket each, larger times share a bucket
+         * with the times that have the same highest five bits
+         * @param nanos time in nanoseconds (not negative)
+         * @return index of the bucket
+         */
+        static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+            int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * gets the middle of the times that fall into a bucket
+         * @param bucket index of the bucket
+         * @return time in nanoseconds
+         */
+        static double middle(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            double width = Math.scalb(1.0, exponent - SUB_BUCKET_BITS);
+            return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width / 2;
+        }
+
+        /**
+         * gets a percentile of the recorded times
+         * @param fraction fraction of the times at or below the percentile, e.g. 0.99 for p99
+         * @return time in nanoseconds, 0 if nothing was recorded
+         */
+        double percentile(double fraction) {
+            long total = count();
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(middle(bucket), maxNanos());
+                }
+            }
+            return 0;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long totalNanos() {
+            return totalNanos.sum();
+        }
+
+        long totalPixels() {
+            return totalPixels.sum();
+        }
+
+        long maxNanos() {
+            return maxNanos.get();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package uk.ac.nulondon;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.assertj.core.api.Assertions;
+import org.assertj.core.data.Percentage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+class OperationMetricsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void histogramPercentilesAreWithinBucketPrecision() {
+        OperationMetrics.Histogram histogram = new OperationMetrics.Histogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000, 100);
+        }
+
+        Assertions.assertThat(histogram.count()).isEqualTo(1000);
+        Assertions.assertThat(histogram.percentile(0.5)).isCloseTo(500_000, Percentage.withPercentage(3));
+        Assertions.assertThat(histogram.percentile(0.99)).isCloseTo(990_000, Percentage.withPercentage(3));
+        Assertions.assertThat(histogram.percentile(1)).isCloseTo(1_000_000, Percentage.withPercentage(3))
+                .isLessThanOrEqualTo(histogram.maxNanos());
+        Assertions.assertThat(histogram.maxNanos()).isEqualTo(1_000_000);
+        Assertions.assertThat(histogram.totalPixels()).isEqualTo(100_000);
+
+        // every bucket holds the times it is the middle of
+        for (long nanos = 0; nanos < 1 << 20; nanos += 7) {
+            int bucket = OperationMetrics.Histogram.bucket(nanos);
+            Assertions.assertThat(OperationMetrics.Histogram.bucket((long) OperationMetrics.Histogram.middle(bucket)))
+                    .isEqualTo(bucket);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void eventsAreReusedWhileJfrDoesNotRecordThem() {
+        OperationMetrics.PhaseEvent outer;
+        try (OperationMetrics.Scope scope = OperationMetrics.command("OUTER");
+             OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, 1, 1)) {
+            outer = phase;
+            try (OperationMetrics.Scope inner = OperationMetrics.command("INNER");
+                 OperationMetrics.PhaseEvent nested = OperationMetrics.begin(OperationMetrics.Phase.BACKTRACK, 1, 1)) {
+                Assertions.assertThat(nested).isNotSameAs(phase);
+                Assertions.assertThat(inner).isSameAs(scope);
+            }
+        }
+        try (OperationMetrics.Scope scope = OperationMetrics.command("OUTER");
+             OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, 1, 1)) {
+            Assertions.assertThat(phase).isSameAs(outer);
+        }
+        Assertions.assertThat(OperationMetrics.histogram(OperationMetrics.Phase.BACKTRACK, "INNER").count())
+                .isEqualTo(1);
+        Assertions.assertThat(OperationMetrics.histogram(OperationMetrics.Phase.SEARCH, "OUTER").count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void phasesAreRecordedAsJfrEventsAndCountedPerCommand() throws IOException {
+        OperationMetrics.reset();
+        Path file = directory.resolve("phases.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("uk.ac.nulondon.Phase");
+            recording.start();
+
+            File image = directory.resolve("image.png").toFile();
+            ImageIO.write(TestImages.synthetic(60, 40), "png", image);
+            ImageEditor editor = new ImageEditor(new PreviewWriter(directory.resolve("preview.png").toString()));
+            editor.load(image.getPath());
+            editor.highlightLowestEnergySeam();
+            editor.removeHighlighted();
+            editor.close();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Assertions.assertThat(events).extracting(event -> event.getString("command") + " " + event.getString("phase"))
+                .contains("LOAD READ", "LOAD CONSTRUCT", "HLE ENERGY", "HLE SEARCH", "HLE BACKTRACK",
+                        "PREVIEW WRITE");
+        RecordedEvent read = events.stream().filter(event -> event.getString("phase").equals("READ")).findFirst()
+                .orElseThrow();
+        Assertions.assertThat(read.getInt("width")).isEqualTo(60);
+        Assertions.assertThat(read.getInt("height")).isEqualTo(40);
+
+        Assertions.assertThat(OperationMetrics.histogram(OperationMetrics.Phase.SEARCH, "HLE").count()).isEqualTo(1);
+        Assertions.assertThat(OperationMetrics.summary()).contains("| SEARCH | HLE | 1 |");
+    }
+}
@@ -4,29 +4,54 @@ import java.awt.Color;
 
 public class Pixel {
 
-    // pixel pointers
-    Pixel left;
-    Pixel right;
+    static final int OPAQUE = 0xFF000000; // alpha of a packed color, images are always opaque
+    static final int RGB_MASK = 0xFFFFFF; // red, green and blue of a packed color, without the alpha
+    static final int CHANNEL_MASK = 0xFF; // one channel of a packed color, once shifted down
+    static final int RED_SHIFT = 16; // bits the red channel of a packed color is shifted up by
+    static final int GREEN_SHIFT = 8; // bits the green channel of a packed color is shifted up by
 
-    double energy;
-    Color color;
+    int row; // row of the pixel in the image at the time it was taken from it
+    int col; // column of the pixel in the image at the time it was taken from it
 
-    public Pixel(int rgb) { // constructor that sets color field from inputted RGB
-        this.color = new Color(rgb);
+    int rgb; // packed ARGB color, which brightness and green are read from without decoding a Color
+    private Color color; // only created once getColor is called
+
+    public Pixel(int rgb) { // constructor that sets color from inputted RGB (always opaque, same as new Color(rgb))
+        this.rgb = OPAQUE | rgb;
     }
 
     public Pixel(Color color) { // constructor that sets color field to inputted color
+        this.rgb = color.getRGB();
         this.color = color;
     }
 
+    Pixel(int row, int col, int rgb) { // constructor for a seam pixel taken from the given position of the image
+        this.row = row;
+        this.col = col;
+        this.rgb = OPAQUE | rgb;
+    }
+
     public double brightness() { // gets brightness of pixel by getting the average of its RGB components
-        return (color.getBlue() + color.getRed() + color.getGreen()) / 3.0;
+        return Image.brightness(rgb);
     }
 
     public double getGreen() { // getter for green component of color in pixel
-        return color.getGreen();
+        return Image.green(rgb);
+    }
+
+    public Color getColor() { // getter for Color field, created from the packed color the first time
+        if (color == null) {
+            color = new Color(rgb, true);
+        }
+        return color;
+    }
+
+    public int getRow() { // getter for row field
+        return this.row;
     }
 
-    public Color getColor(){return this.color;} // getter for Color field
+    public int getCol() { // getter for column field
+        return this.col;
+    }
 
 }
@@ -12,5 +12,13 @@ class PixelTest {
     void testBrightness() {
         Assertions.assertThat(pixel.brightness()).isEqualTo(11.0);
     }
+
+    @Test
+    void testPackedColor() {
+        Pixel packed = new Pixel(0x0A0E09);
+        Assertions.assertThat(packed.getGreen()).isEqualTo(14.0);
+        Assertions.assertThat(packed.brightness()).isEqualTo(11.0);
+        Assertions.assertThat(packed.getColor()).isEqualTo(new Color(10, 14, 9));
+    }
     
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+package uk.ac.nulondon;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * reads the rows of a PNG one after another in a single pass over its compressed data, for images too large to
+ * decode at once; only non-interlaced 8 bit RGB, RGBA and palette images are read, whose pixels ImageIO reads
+ * the same way, other images are left to ImageIO
+ */
+final class PngRowReader implements AutoCloseable {
+
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int RGBA = 6;
+    private static final int INFLATE_BUFFER = 64 * 1024; // bytes of image data inflated at a time
+
+    private final DataInputStream file;
+    private final Inflater inflater = new Inflater();
+    private final DataInputStream data; // inflated rows, each a filter type followed by the filtered bytes
+    private final int width;
+    private final int height;
+    private final int colorType;
+    private final int bytesPerPixel;
+    private final int[] palette;
+    private byte[] previous; // unfiltered bytes of the row above
+    private byte[] current;
+    private int remaining; // bytes left in the IDAT chunk being read, -1 after the last one
+
+    private PngRowReader(DataInputStream file, int width, int height, int colorType, int[] palette) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.colorType = colorType;
+        this.bytesPerPixel = colorType == RGB ? 3 : colorType == RGBA ? 4 : 1;
+        this.palette = palette;
+        this.data = new DataInputStream(new InflaterInputStream(new IdatStream(), inflater, INFLATE_BUFFER));
+        this.previous = new byte[width * bytesPerPixel];
+        this.current = new byte[width * bytesPerPixel];
+    }
+
+    /**
+     * opens a PNG whose rows can be read one after another
+     * @param path image file
+     * @return reader positioned at the first row, or null if the file is not a PNG this reader supports
+     * @throws IOException throws if the file cannot be read
+     */
+    static PngRowReader open(Path path) throws IOException {
+        DataInputStream file = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        try {
+            if (file.readLong() != SIGNATURE || file.readInt() != StripPngEncoder.IHDR_LENGTH
+                    || !"IHDR".equals(type(file))) {
+                file.close();
+                return null;
+            }
+            int width = file.readInt();
+            int height = file.readInt();
+            int bitDepth = file.readUnsignedByte();
+            int colorType = file.readUnsignedByte();
+            file.skipNBytes(2); // compression and filter method, deflate and adaptive are the only ones
+            int interlace = file.readUnsignedByte();
+            file.skipNBytes(4); // CRC
+            boolean supported = colorType == RGB || colorType == PALETTE || colorType == RGBA;
+            if (bitDepth != StripPngEncoder.BIT_DEPTH || interlace != 0 || !supported) {
+                file.close();
+                return null;
+            }
+
+            int[] palette = null;
+            while (true) { // chunks before the image data
+                int length = file.readInt();
+                String type = type(file);
+                if ("IDAT".equals(type)) {
+                    if (colorType == PALETTE && palette == null) {
+                        throw new IOException("Palette image without a palette: " + path);
+                    }
+                    PngRowReader reader = new PngRowReader(file, width, height, colorType, palette);
+                    reader.remaining = length;
+                    return reader;
+                }
+                if ("PLTE".equals(type)) {
+                    palette = new int[length / 3];
+                    for (int i = 0; i < palette.length; i++) {
+                        palette[i] = Pixel.OPAQUE | file.readUnsignedByte() << Pixel.RED_SHIFT
+                                | file.readUnsignedByte() << Pixel.GREEN_SHIFT | file.readUnsignedByte();
+                    }
+                    file.skipNBytes(length - 3L * palette.length + 4);
+                } else {
+                    file.skipNBytes(length + 4L);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * reads the next row
+     * @param pixels array the opaque packed ARGB pixels of the row are written to
+     * @throws IOException throws if the file cannot be read or is truncated
+     */
+    void readRow(int[] pixels) throws IOException {
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+        int filter = data.readUnsignedByte();
+        data.readFully(current);
+        unfilter(filter);
+        for (int x = 0; x < width; x++) {
+            if (colorType == PALETTE) {
+                int index = Byte.toUnsignedInt(current[x]);
+                pixels[x] = index < palette.length ? palette[index] : Pixel.OPAQUE;
+            } else {
+                int i = x * bytesPerPixel;
+                pixels[x] = Pixel.OPAQUE | Byte.toUnsignedInt(current[i]) << Pixel.RED_SHIFT
+                        | Byte.toUnsignedInt(current[i + 1]) << Pixel.GREEN_SHIFT | Byte.toUnsignedInt(current[i + 2]);
+            }
+        }
+    }
+
+    /**
+     * reverses the filter of the current row, using the unfiltered row above
+     * @param filter filter type of the row
+     * @throws IOException throws if the filter type is unknown
+     */
+    private void unfilter(int filter) throws IOException {
+        for (int i = 0; i < current.length; i++) {
+            int left = i >= bytesPerPixel ? Byte.toUnsignedInt(current[i - bytesPerPixel]) : 0;
+            int up = Byte.toUnsignedInt(previous[i]);
+            int upLeft = i >= bytesPerPixel ? Byte.toUnsignedInt(previous[i - bytesPerPixel]) : 0;
+            int predicted = switch (filter) {
+                case 0 -> 0;
+                case 1 -> left;
+                case 2 -> up;
+                case 3 -> (left + up) / 2;
+                case 4 -> {
+                    int estimate = left + up - upLeft;
+                    int toLeft = Math.abs(estimate - left);
+                    int toUp = Math.abs(estimate - up);
+                    int toUpLeft = Math.abs(estimate - upLeft);
+                    yield toLeft <= toUp && toLeft <= toUpLeft ? left : toUp <= toUpLeft ? up : upLeft;
+                }
+                default -> throw new IOException("Unknown PNG filter type " + filter);
+            };
+            current[i] = (byte) (current[i] + predicted);
+        }
+    }
+
+    private static String type(DataInputStream file) throws IOException {
+        byte[] type = new byte[4];
+        file.readFully(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * compressed image data of the consecutive IDAT chunks, ending at the first other chunk
+     */
+    private final class IdatStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (remaining == 0) {
+                file.skipNBytes(4); // CRC of the chunk
+                int length = file.readInt();
+                remaining = "IDAT".equals(type(file)) ? length : -1;
+            }
+            if (remaining < 0) {
+                return -1;
+            }
+            int n = file.read(b, off, Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+}
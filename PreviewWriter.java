@@ -0,0 +1,247 @@
+package uk.ac.nulondon;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/*APPLICATION SERVICE LAYER*/
+public class PreviewWriter implements AutoCloseable {
+
+    /**
+     * frame waiting to be written: either an image, or a version with the highlighted seam painted over it
+     */
+    private record Frame(BufferedImage image, ImageVersion version, ImageEditor.Highlight highlight) {
+        BufferedImage toBufferedImage() {
+            return image != null ? image : ImageEditor.export(version, highlight);
+        }
+    }
+
+    public static final int DEFAULT_COMPRESSION_LEVEL = 1; // fast deflate, previews are rewritten after every edit
+
+    private final Path path;
+    private final double scale;
+    private final int compressionLevel;
+
+    private final StripPngEncoder encoder; // segments of the last full size version, only used by the writer thread
+    private final AtomicReference<Frame> latest = new AtomicReference<>(); // newest frame not written yet
+    private final AtomicReference<IOException> failure = new AtomicReference<>(); // last failed write, if any
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "preview-writer");
+        thread.setDaemon(true); // a pending preview never keeps the program running
+        return thread;
+    });
+
+    /**
+     * creates a writer which drops every frame, for editors whose previews nobody looks at, such as in benchmarks
+     */
+    private PreviewWriter() {
+        this.path = null;
+        this.scale = 1;
+        this.compressionLevel = 0;
+        this.encoder = null;
+    }
+
+    /**
+     * creates a writer which writes nothing, so submitting a frame costs nothing and no writer thread is started
+     * @return writer dropping every frame
+     */
+    public static PreviewWriter discarding() {
+        return new PreviewWriter();
+    }
+
+    /**
+     * creates a writer of full size previews
+     * @param filePath filepath where previews are written
+     */
+    public PreviewWriter(String filePath) {
+        this(filePath, 1.0, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * creates a writer of previews
+     * @param filePath filepath where previews are written
+     * @param scale factor previews are scaled down by, from 0 (exclusive) to 1 for full size
+     * @param compressionLevel deflate level of the PNG, from 0 (fastest) to 9 (smallest)
+     */
+    public PreviewWriter(String filePath, double scale, int compressionLevel) {
+        if (!(scale > 0 && scale <= 1)) {
+            throw new IllegalArgumentException("Scale must be greater than 0 and at most 1: " + scale);
+        }
+        if (compressionLevel < 0 || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + compressionLevel);
+        }
+        this.path = Path.of(filePath);
+        this.scale = scale;
+        this.compressionLevel = compressionLevel;
+        this.encoder = new StripPngEncoder(compressionLevel);
+    }
+
+    /**
+     * queues a frame to be written in the background and returns straight away
+     * if an older frame is still waiting it is dropped, only the newest frame is ever written
+     * @param frame snapshot of the image, which must not be modified afterwards
+     */
+    public void submit(BufferedImage frame) {
+        if (path != null) { // a discarding writer drops the frame straight away
+            submit(new Frame(frame, null, null));
+        }
+    }
+
+    /**
+     * queues a version to be written in the background and returns straight away, without copying its pixels;
+     * full size previews only encode the row segments that changed since the last preview
+     * @param version version of the image, which is never modified
+     * @param highlight seam painted over the preview, or null; copied, since the editor writes its seam again
+     */
+    void submit(ImageVersion version, ImageEditor.Highlight highlight) {
+        if (path != null) {
+            submit(new Frame(null, version, highlight == null ? null : highlight.copy()));
+        }
+    }
+
+    private void submit(Frame frame) {
+        // a write is only scheduled if none is waiting, a waiting write picks the new frame up itself
+        if (latest.getAndSet(frame) == null) {
+            writer.execute(this::writeLatest);
+        }
+    }
+
+    /**
+     * waits until the newest submitted frame has been written
+     * @throws IOException throws if writing a preview failed since the last flush
+     */
+    public void flush() throws IOException {
+        if (path == null) {
+            return;
+        }
+        try {
+            writer.submit(() -> { }).get(); // runs after every write scheduled before it
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing preview", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not write preview", e.getCause());
+        }
+        IOException e = failure.getAndSet(null);
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * writes the newest submitted frame, then stops the writer thread
+     * @throws IOException throws if writing a preview failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer.isShutdown()) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * takes the newest frame and writes it, if a newer write has not taken it already
+     */
+    @SuppressWarnings("try")
+    private void writeLatest() {
+        Frame frame = latest.getAndSet(null);
+        if (frame == null) {
+            return;
+        }
+        try (OperationMetrics.Scope scope = OperationMetrics.command("PREVIEW")) {
+            if (frame.version() != null && scale == 1) {
+                writeStrips(frame.version(), frame.highlight());
+            } else {
+                write(scale < 1 ? scaled(frame.toBufferedImage()) : frame.toBufferedImage());
+            }
+        } catch (IOException e) {
+            failure.set(e);
+        }
+    }
+
+    /**
+     * writes a frame next to the preview file, then moves it over the preview
+     * so that the preview is never seen half written
+     * @param frame image to write
+     * @throws IOException throws if the image cannot be saved
+     */
+    @SuppressWarnings("try")
+    private void write(BufferedImage frame) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        ImageWriter pngWriter = ImageIO.getImageWritersByFormatName("png").next();
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.WRITE,
+                frame.getWidth(), frame.getHeight());
+             ImageOutputStream output = ImageIO.createImageOutputStream(temporary.toFile())) {
+            ImageWriteParam param = pngWriter.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(param.getCompressionTypes()[0]);
+                // quality 1 is no compression
+                param.setCompressionQuality(1f - (float) compressionLevel / Deflater.BEST_COMPRESSION);
+            }
+            pngWriter.setOutput(output);
+            pngWriter.write(null, new IIOImage(frame, null, null), param);
+        } finally {
+            pngWriter.dispose();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * writes a version next to the preview file with the strip encoder, then moves it over the preview
+     * @param version version of the image
+     * @param highlight seam painted over the preview, or null
+     * @throws IOException throws if the image cannot be saved
+     */
+    @SuppressWarnings("try")
+    private void writeStrips(ImageVersion version, ImageEditor.Highlight highlight) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.WRITE,
+                version.getWidth(), version.getHeight());
+             OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+            encoder.write(version, highlight, output);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * scales a frame down by the scale of this writer
+     * @param frame image to scale
+     * @return scaled image, at least one pixel wide and high
+     */
+    private BufferedImage scaled(BufferedImage frame) {
+        int width = Math.max(1, (int) Math.round(frame.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(frame.getHeight() * scale));
+        BufferedImage preview = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = preview.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(frame, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return preview;
+    }
+}
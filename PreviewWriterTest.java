@@ -0,0 +1,46 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class PreviewWriterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesNewestFrame() throws IOException {
+        Path file = directory.resolve("preview.png");
+        try (PreviewWriter writer = new PreviewWriter(file.toString())) {
+            for (int width = 10; width <= 50; width += 10) {
+                writer.submit(TestImages.synthetic(width, 20));
+            }
+        }
+
+        TestImages.assertSamePixels(ImageIO.read(file.toFile()), TestImages.synthetic(50, 20));
+    }
+
+    @Test
+    void writesScaledPreviewAtCompressionLevel() throws IOException {
+        BufferedImage frame = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB); // compresses well
+        Path stored = directory.resolve("stored.png");
+        Path deflated = directory.resolve("deflated.png");
+        try (PreviewWriter storedWriter = new PreviewWriter(stored.toString(), 0.5, 0);
+             PreviewWriter deflatedWriter = new PreviewWriter(deflated.toString(), 0.5, 9)) {
+            storedWriter.submit(frame);
+            deflatedWriter.submit(frame);
+        }
+
+        BufferedImage written = ImageIO.read(stored.toFile());
+        Assertions.assertThat(written.getWidth()).isEqualTo(100);
+        Assertions.assertThat(written.getHeight()).isEqualTo(50);
+        Assertions.assertThat(Files.size(deflated)).isLessThan(Files.size(stored));
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.nulondon;
+
+/**
+ * per-row arithmetic of the energy calculation and the seam search
+ * the scalar kernels always work, vectorized kernels are used instead when the jdk.incubator.vector module
+ * is available (java --add-modules jdk.incubator.vector) and the CPU has SIMD lanes for doubles
+ * both give bit-identical results: they do the same IEEE operations in the same order, without fused multiply-add,
+ * so the floating point tolerance between them is 0
+ */
+interface RowKernels {
+
+    /**
+     * system property choosing the kernels: auto (default, vectorized if available), scalar or vector
+     */
+    String PROPERTY = "uk.ac.nulondon.kernels";
+
+    /**
+     * kernels used by Image, SeamCosts and MappedImage, chosen once when first used
+     */
+    RowKernels ACTIVE = select(System.getProperty(PROPERTY, "auto"));
+
+    /**
+     * calculates the brightness of the pixels of a row between two columns
+     * @param pixels packed pixels of the row
+     * @param brightness array the brightness of column x is written to at index x
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     */
+    void brightness(int[] pixels, double[] brightness, int from, int to);
+
+    /**
+     * calculates the energy of the pixels of a row between two columns which all have a column on each side
+     * @param above brightness of the row above
+     * @param current brightness of the row
+     * @param below brightness of the row below
+     * @param energy array the energy of column x is written to at index x
+     * @param from first column (at least 1)
+     * @param to last column (at most the width minus 2)
+     */
+    void energy(double[] above, double[] current, double[] below, double[] energy, int from, int to);
+
+    /**
+     * calculates the maximum cumulative value of the pixels of a row between two columns
+     * from the cumulative values of the row above, as SeamCosts.calculateRow describes
+     * @param above cumulative values of the row above
+     * @param current values of the row, replaced by their cumulative values for columns from to to
+     * @param moves moves of the row, written for columns from to to
+     * @param offset index of the move of column 0 in moves
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     * @param width width of the image
+     */
+    void maximizeRow(double[] above, double[] current, byte[] moves, int offset, int from, int to, int width);
+
+    /**
+     * gets the name of the kernels, for reports
+     * @return name
+     */
+    String name();
+
+    /**
+     * chooses the kernels
+     * @param choice auto, scalar or vector
+     * @return kernels, scalar if auto is chosen and vectorized kernels are not available
+     * @throws IllegalArgumentException if the choice is unknown, or vector is chosen but not available
+     */
+    static RowKernels select(String choice) {
+        RowKernels vector = "scalar".equals(choice) ? null : vectorized();
+        return switch (choice) {
+            case "scalar" -> Scalar.INSTANCE;
+            case "auto" -> vector != null ? vector : Scalar.INSTANCE;
+            case "vector" -> {
+                if (vector == null) {
+                    throw new IllegalArgumentException("Vectorized kernels need --add-modules jdk.incubator.vector");
+                }
+                yield vector;
+            }
+            default -> throw new IllegalArgumentException("Unknown kernels \"" + choice
+                    + "\", expected auto, scalar or vector");
+        };
+    }
+
+    /**
+     * loads the vectorized kernels by name, so that this interface still links without the incubator module
+     * @return vectorized kernels, or null if the module is missing or the CPU has no SIMD lanes for doubles
+     */
+    static RowKernels vectorized() {
+        try {
+            // the constructor throws if vectors would hold a single double
+            return (RowKernels) Class.forName("uk.ac.nulondon.VectorRowKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * one pixel at a time, the reference the vectorized kernels must match
+     */
+    final class Scalar implements RowKernels {
+
+        static final Scalar INSTANCE = new Scalar();
+
+        private Scalar() {
+        }
+
+        @Override
+        public void brightness(int[] pixels, double[] brightness, int from, int to) {
+            for (int x = from; x <= to; x++) {
+                brightness[x] = Image.brightness(pixels[x]);
+            }
+        }
+
+        @Override
+        public void energy(double[] above, double[] current, double[] below, double[] energy, int from, int to) {
+            for (int x = from; x <= to; x++) {
+                energy[x] = Image.energy(above, current, below, x);
+            }
+        }
+
+        @Override
+        public void maximizeRow(double[] above, double[] current, byte[] moves, int offset, int from, int to,
+                                int width) {
+            for (int x = from; x <= to; x++) {
+                double cValue = current[x]; // value of current pixel
+
+                // sums with above.left, above and above.right pixels (negative infinity if outside the image)
+                double alValue = x > 0 ? above[x - 1] + cValue : Double.NEGATIVE_INFINITY;
+                double aValue = above[x] + cValue;
+                double arValue = x < width - 1 ? above[x + 1] + cValue : Double.NEGATIVE_INFINITY;
+
+                // compares values of above pixels to get maximum cumulative value
+                if (alValue > aValue) {
+                    if (alValue > arValue) {
+                        moves[offset + x] = -1;
+                        current[x] = alValue;
+                    } else {
+                        moves[offset + x] = 1;
+                        current[x] = arValue;
+                    }
+                } else {
+                    if (aValue > arValue) {
+                        moves[offset + x] = 0;
+                        current[x] = aValue;
+                    } else {
+                        moves[offset + x] = 1;
+                        current[x] = arValue;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String name() {
+            return "scalar";
+        }
+    }
+}
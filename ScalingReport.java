@@ -0,0 +1,189 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/*PERFORMANCE REPORT*/
+public final class ScalingReport {
+
+    private static final int[][] SIZES = {{1920, 1080}, {3840, 2160}, {7680, 4320}}; // 1080p, 4K and 8K
+    private static final int RUNS = 5;
+    private static final int[] PYRAMID_BANDS = {2, 8}; // band widths of the pyramid search that are compared
+
+    private ScalingReport() {
+    }
+
+    /**
+     * gets the core counts to measure: powers of two up to the available processors, and the processors themselves
+     * @return core counts
+     */
+    private static List<Integer> coreCounts() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int cores = 1; cores < processors; cores *= 2) {
+            counts.add(cores);
+        }
+        counts.add(processors);
+        return counts;
+    }
+
+    /**
+     * times the fastest of several runs of an operation
+     * @param operation operation to time
+     * @return fastest run time in milliseconds
+     */
+    private static double time(Runnable operation) {
+        operation.run(); // warm up
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            operation.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / OperationMetrics.NANOS_PER_MILLI;
+    }
+
+    /**
+     * compares the pyramid search for every band width against the exact lowest energy seam search:
+     * time of a search once the levels are built, and the deviation of its seam from the exact seam
+     * @param table table the rows are appended to
+     * @param image image to search
+     * @param size width and height of the image
+     */
+    private static void appendPyramid(StringBuilder table, Image image, int[] size) {
+        double exact = time(image::getLowestEnergySeam);
+        for (int band : PYRAMID_BANDS) {
+            image.setPyramidBand(band);
+            Image.SeamDeviation deviation = image.pyramidDeviation(Image.SeamType.LOWEST_ENERGY);
+            double pyramid = time(image::getLowestEnergySeam);
+            image.setPyramidBand(0);
+            table.append("| %dx%d | %d | %.1f | %.1f | %.2f | %.1f | %d | %.3f |%n".formatted(size[0], size[1], band,
+                    exact, pyramid, exact / pyramid, deviation.meanColumns(), deviation.maxColumns(),
+                    deviation.valueRatio()));
+        }
+    }
+
+    /**
+     * times the row kernels on one core, once scalar and once vectorized if the vector module is available:
+     * brightness and energy of every row, and the cumulative values of the seam search over every row
+     * @param table table the rows are appended to
+     * @param source image whose pixels are used
+     * @param size width and height of the image
+     */
+    private static void appendKernels(StringBuilder table, BufferedImage source, int[] size) {
+        int width = size[0];
+        int height = size[1];
+        int[][] pixels = new int[height][];
+        for (int y = 0; y < height; y++) {
+            pixels[y] = source.getRGB(0, y, width, 1, null, 0, width);
+        }
+        double[][] brightness = new double[height][width];
+        double[][] energy = new double[height][width];
+        double[] above = new double[width];
+        double[] current = new double[width];
+        byte[] moves = new byte[width];
+
+        double[] scalar = null;
+        for (RowKernels kernels : new RowKernels[] {RowKernels.select("scalar"), RowKernels.vectorized()}) {
+            if (kernels == null) {
+                continue; // no vector module
+            }
+            double[] times = {
+                time(() -> {
+                    for (int y = 0; y < height; y++) {
+                        kernels.brightness(pixels[y], brightness[y], 0, width - 1);
+                    }
+                }),
+                time(() -> {
+                    for (int y = 1; y < height - 1; y++) {
+                        kernels.energy(brightness[y - 1], brightness[y], brightness[y + 1], energy[y], 1, width - 2);
+                    }
+                }),
+                time(() -> {
+                    for (int y = 1; y < height; y++) {
+                        System.arraycopy(energy[y], 0, current, 0, width);
+                        kernels.maximizeRow(above, current, moves, 0, 0, width - 1, width);
+                        System.arraycopy(current, 0, above, 0, width);
+                    }
+                })
+            };
+            if (scalar == null) {
+                scalar = times;
+            }
+            table.append("| %dx%d | %s | %.1f | %.1f | %.1f | %.2f | %.2f | %.2f |%n".formatted(width, height,
+                    kernels.name(), times[0], times[1], times[2], scalar[0] / times[0], scalar[1] / times[1],
+                    scalar[2] / times[2]));
+        }
+    }
+
+    /**
+     * prints the seam search and energy times and speedups against the number of cores for 1080p, 4K and 8K images,
+     * then the time of removing one lowest energy vertical seam (width reduction) against one horizontal seam
+     * (height reduction), the time of importing and exporting every image, and the time of the pyramid seam search
+     * with how far its seam is from the exact one, and the time of the scalar and vectorized row kernels
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        StringBuilder transfer = new StringBuilder();
+        transfer.append("| size | import ms | export ms |%n".formatted());
+        transfer.append("|------|-----------|-----------|%n".formatted());
+        StringBuilder pyramid = new StringBuilder();
+        pyramid.append("| size | band | exact ms | pyramid ms | speedup | mean deviation | max deviation | "
+                + "energy vs exact |%n".formatted());
+        pyramid.append("|------|------|----------|------------|---------|----------------|---------------|"
+                + "-----------------|%n".formatted());
+        StringBuilder kernels = new StringBuilder();
+        kernels.append("| size | kernels | brightness ms | energy ms | seam sums ms | brightness speedup | "
+                + "energy speedup | seam sums speedup |%n".formatted());
+        kernels.append("|------|---------|---------------|-----------|--------------|--------------------|"
+                + "----------------|-------------------|%n".formatted());
+        StringBuilder reduction = new StringBuilder();
+        reduction.append("| size | width reduction ms | height reduction ms |%n".formatted());
+        reduction.append("|------|--------------------|---------------------|%n".formatted());
+
+        System.out.println("| size | cores | seam ms | seam speedup | energy ms | energy speedup |");
+        System.out.println("|------|-------|---------|--------------|-----------|----------------|");
+        for (int[] size : SIZES) {
+            BufferedImage source = TestImages.synthetic(size[0], size[1]);
+            Image image = new Image(source);
+            double imported = time(() -> new Image(source));
+            double exported = time(image::toBufferedImage);
+            transfer.append("| %dx%d | %.1f | %.1f |%n".formatted(size[0], size[1], imported, exported));
+            List<Integer> seamCols = image.getGreenestSeam().stream().map(Pixel::getCol).toList();
+            double serialSeam = time(image::getGreenestSeam);
+            double serialEnergy = time(image::calculateEnergy);
+
+            for (int cores : coreCounts()) {
+                ForkJoinPool pool = new ForkJoinPool(cores);
+                image.setPool(pool);
+                if (!image.getGreenestSeam().stream().map(Pixel::getCol).toList().equals(seamCols)) {
+                    throw new IllegalStateException("Parallel seam differs from serial seam on " + cores + " cores");
+                }
+                double seam = time(image::getGreenestSeam);
+                double energy = time(image::calculateEnergy);
+                System.out.printf("| %dx%d | %d | %.1f | %.2f | %.1f | %.2f |%n", size[0], size[1], cores,
+                        seam, serialSeam / seam, energy, serialEnergy / energy);
+                image.setPool(null);
+                pool.shutdown();
+            }
+
+            appendPyramid(pyramid, image, size);
+            appendKernels(kernels, source, size);
+
+            double width = time(() -> image.removeSeam(image.getLowestEnergySeam()));
+            double height = time(() -> image.removeHorizontalSeam(image.getLowestEnergyHorizontalSeam()));
+            reduction.append("| %dx%d | %.1f | %.1f |%n".formatted(size[0], size[1], width, height));
+        }
+
+        System.out.println();
+        System.out.print(reduction);
+        System.out.println();
+        System.out.print(transfer);
+        System.out.println();
+        System.out.print(pyramid);
+        System.out.println();
+        System.out.print(kernels);
+    }
+}
@@ -0,0 +1,231 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * scaling and allocation regression suite: carves, undoes and exports deterministic synthetic images from 1 to 50
+ * megapixels and bounds the time, the bytes allocated (by every thread, so parallel work counts) and the live heap
+ * of every operation per pixel, or per row for operations that should not touch every pixel; since the bounds are
+ * per unit, work or allocation that grows faster than expected breaks them at the larger sizes, and the failure
+ * shows the whole growth curve
+ * tagged scaling and only run with mvn -Pscaling test, which gives the tests enough heap for 50 megapixels;
+ * -Dscaling.megapixels=1,4 runs fewer sizes
+ */
+@Tag("scaling")
+class ScalingTest {
+
+    private static final int REPEATS = 3; // the fastest and least allocating of the repeats is kept
+
+    /**
+     * what an operation is expected to grow with
+     */
+    private enum Unit {
+        PIXEL, ROW
+    }
+
+    /**
+     * upper bounds of an operation
+     * @param timeUnit what the time of the operation grows with
+     * @param nanos time per unit
+     * @param bytesUnit what the allocation of the operation grows with
+     * @param bytes bytes allocated per unit
+     */
+    private record Bound(Unit timeUnit, double nanos, Unit bytesUnit, double bytes) {
+    }
+
+    /**
+     * fastest and least allocating run of an operation on one image
+     * @param width width of the image
+     * @param height height of the image
+     * @param nanos time of the fastest run
+     * @param bytes bytes allocated by the least allocating run
+     */
+    private record Sample(int width, int height, long nanos, long bytes) {
+        double units(Unit unit) {
+            return unit == Unit.PIXEL ? (double) width * height : height;
+        }
+    }
+
+    private static final Map<String, Bound> BOUNDS = new LinkedHashMap<>();
+
+    static {
+        // the seam search visits every pixel, the removal only allocates the copied segments of every row
+        BOUNDS.put("carve", new Bound(Unit.PIXEL, 200, Unit.ROW, 8192));
+        // adding the seam back moves parts of every row, the version shares the segments it does not touch
+        BOUNDS.put("undo", new Bound(Unit.ROW, 50_000, Unit.ROW, 4096));
+        // a vertical seam or highlight changes one segment of every row, only those are filtered and deflated again
+        BOUNDS.put("export changed", new Bound(Unit.ROW, 200_000, Unit.ROW, 2048));
+        // nothing changed since the last export, so the chunk of every segment is copied from the last write
+        BOUNDS.put("export unchanged", new Bound(Unit.PIXEL, 20, Unit.ROW, 64));
+    }
+
+    private static final double LIVE_BYTES_PER_PIXEL = 48; // version with energy, search moves, encoded segments
+
+    @Test
+    void carveUndoAndExportScaleWithTheImage() throws IOException {
+        Map<String, List<Sample>> samples = new LinkedHashMap<>();
+        BOUNDS.keySet().forEach(operation -> samples.put(operation, new ArrayList<>()));
+        List<String> heapFailures = new ArrayList<>();
+        StringBuilder heapCurve = new StringBuilder();
+
+        for (double megapixels : megapixels()) {
+            int width = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+            int height = (int) Math.round(megapixels * 1e6 / width);
+            long baseline = liveHeap();
+
+            ImageVersion[] version = {ImageVersion.of(TestImages.synthetic(width, height)).withEnergy()};
+            SeamSearch search = new SeamSearch();
+            StripPngEncoder encoder = new StripPngEncoder(PreviewWriter.DEFAULT_COMPRESSION_LEVEL);
+            encoder.write(version[0], null, OutputStream.nullOutputStream()); // warms up and fills the segments
+            SeamRecord[] removed = new SeamRecord[1];
+
+            samples.get("carve").add(measure(width, height, () -> {
+                int[] seam = version[0].findSeam(Image.SeamType.LOWEST_ENERGY, false, search);
+                removed[0] = SeamRecord.of(version[0], seam, false);
+                version[0] = removed[0].removeFrom(version[0]);
+            }, () -> {
+            }));
+            samples.get("export changed").add(measure(width, height, () -> {
+                encoder.write(version[0], null, OutputStream.nullOutputStream());
+            }, () -> encoder.write(version[0], new ImageEditor.Highlight(false, new int[height], 0), OutputStream
+                    .nullOutputStream())));
+            samples.get("export unchanged").add(measure(width, height, () -> {
+                encoder.write(version[0], null, OutputStream.nullOutputStream());
+            }, () -> {
+            }));
+            long live = liveHeap() - baseline;
+            samples.get("undo").add(measure(width, height, () -> {
+                version[0] = removed[0].addTo(version[0]);
+            }, () -> {
+                int[] seam = version[0].findSeam(Image.SeamType.LOWEST_ENERGY, false, search);
+                removed[0] = SeamRecord.of(version[0], seam, false);
+                version[0] = removed[0].removeFrom(version[0]);
+            }));
+            live = Math.max(live, liveHeap() - baseline);
+
+            double perPixel = (double) live / ((double) width * height);
+            heapCurve.append(String.format(Locale.ROOT, "| %.0f MP | %dx%d | %d MB | %.1f |%n", megapixels, width,
+                    height, live >> 20, perPixel));
+            if (perPixel > LIVE_BYTES_PER_PIXEL) {
+                heapFailures.add(String.format(Locale.ROOT, "live heap of %.1f bytes per pixel at %dx%d exceeds %.0f",
+                        perPixel, width, height, LIVE_BYTES_PER_PIXEL));
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        StringBuilder curves = new StringBuilder();
+        samples.forEach((operation, curve) -> {
+            Bound bound = BOUNDS.get(operation);
+            curves.append(curve(operation, bound, curve));
+            for (Sample sample : curve) {
+                double nanos = sample.nanos() / sample.units(bound.timeUnit());
+                double bytes = sample.bytes() / sample.units(bound.bytesUnit());
+                if (nanos > bound.nanos() || bytes > bound.bytes()) {
+                    failures.add(String.format(Locale.ROOT,
+                            "%s at %dx%d: %.1f ns per %s and %.1f bytes per %s exceed %.0f ns and %.0f bytes",
+                            operation, sample.width(), sample.height(), nanos, name(bound.timeUnit()), bytes,
+                            name(bound.bytesUnit()), bound.nanos(), bound.bytes()));
+                }
+            }
+        });
+        failures.addAll(heapFailures);
+        String report = curves + "live heap\n| size | pixels | live | bytes/pixel |\n" + heapCurve;
+        Assertions.assertThat(failures).as(report).isEmpty();
+    }
+
+    /**
+     * gets the sizes to measure, in megapixels
+     * @return sizes from the scaling.megapixels property, 1, 4, 16 and 50 by default
+     */
+    private static double[] megapixels() {
+        return Arrays.stream(System.getProperty("scaling.megapixels", "1,4,16,50").split(","))
+                .mapToDouble(Double::parseDouble).toArray();
+    }
+
+    /**
+     * the operation being measured, which may throw
+     */
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    /**
+     * runs an operation several times, each after a reset that is not measured
+     * @param width width of the image
+     * @param height height of the image
+     * @param operation operation to measure
+     * @param reset brings the image back to where the operation starts from
+     * @return fastest time and fewest bytes allocated
+     * @throws IOException throws if the operation does
+     */
+    private static Sample measure(int width, int height, Operation operation, Operation reset) throws IOException {
+        long nanos = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        for (int i = 0; i < REPEATS; i++) {
+            reset.run();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            operation.run();
+            nanos = Math.min(nanos, System.nanoTime() - start);
+            bytes = Math.min(bytes, allocatedBytes() - allocated);
+        }
+        return new Sample(width, height, nanos, bytes);
+    }
+
+    /**
+     * formats the growth curve of an operation
+     * @param operation name of the operation
+     * @param bound bounds of the operation
+     * @param curve samples from the smallest to the largest image
+     * @return markdown table of the samples
+     */
+    private static String curve(String operation, Bound bound, List<Sample> curve) {
+        String timeUnit = name(bound.timeUnit());
+        String bytesUnit = name(bound.bytesUnit());
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+                "%s (at most %.0f ns per %s and %.0f bytes per %s)%n| size | ms | allocated | ns/%s | bytes/%s |%n",
+                operation, bound.nanos(), timeUnit, bound.bytes(), bytesUnit, timeUnit, bytesUnit));
+        for (Sample sample : curve) {
+            table.append(String.format(Locale.ROOT, "| %dx%d | %.1f | %d | %.1f | %.1f |%n", sample.width(),
+                    sample.height(), sample.nanos() / 1e6, sample.bytes(),
+                    sample.nanos() / sample.units(bound.timeUnit()), sample.bytes() / sample.units(bound.bytesUnit())));
+        }
+        return table.toString();
+    }
+
+    private static String name(Unit unit) {
+        return unit.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * sums the bytes allocated by every live thread, so the work of the fork/join pool is counted as well
+     * @return bytes allocated so far
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+                .filter(bytes -> bytes > 0).sum();
+    }
+
+    /**
+     * collects garbage and measures the heap that is still in use
+     * @return bytes of live objects
+     */
+    private static long liveHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,281 @@
+package uk.ac.nulondon;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cumulative seam values of every pixel of an image, kept between seam removals
+ * so that removing many seams in a row only recalculates the values that the removals changed
+ */
+class SeamCosts {
+
+    static final int PARALLEL_THRESHOLD = 1024 * 1024; // images with fewer pixels are always searched on one thread
+    static final int MIN_CHUNK_WIDTH = 512; // fewest columns of a row given to one thread
+
+    private final Image.PixelValue value; // value of a pixel which seams are maximized over
+    private final double[][] sums; // maximum cumulative value of every pixel, one array per row
+    private final byte[][] moves; // for every pixel, -1/0/+1 offset of the pixel above it got its max value from
+    private final double[] previous; // scratch copy of the part of a row being recalculated
+    private int width;
+
+    /**
+     * calculates the cumulative values of every pixel of an image
+     * @param value lambda function which writes the double values of a row of pixels
+     * @param width width of the image
+     * @param height height of the image
+     * @param pool pool the rows are split over (null to calculate on the calling thread)
+     */
+    SeamCosts(Image.PixelValue value, int width, int height, ForkJoinPool pool) {
+        this.value = value;
+        this.width = width;
+        sums = new double[height][width];
+        moves = new byte[height][width];
+        previous = new double[width];
+
+        value.get(0, 0, width - 1, sums[0]);
+        boolean parallel = isParallel(pool, width, height);
+        for (int y = 1; y < height; y++) {
+            if (parallel) {
+                calculateRow(pool, value, y, sums[y - 1], sums[y], moves[y], 0, width);
+            } else {
+                calculateRow(value, y, sums[y - 1], sums[y], moves[y], 0, 0, width - 1, width);
+            }
+        }
+    }
+
+    /**
+     * checks if an image is large enough for splitting its rows over a pool to pay off
+     * @param pool pool the rows would be split over (null if there is none)
+     * @param width width of the image
+     * @param height height of the image
+     * @return true if rows should be calculated in parallel
+     */
+    static boolean isParallel(ForkJoinPool pool, int width, int height) {
+        return pool != null && pool.getParallelism() > 1
+                && (long) width * height >= PARALLEL_THRESHOLD && width >= 2 * MIN_CHUNK_WIDTH;
+    }
+
+    /**
+     * calculates the maximum cumulative value of every pixel of a row, split into chunks of columns
+     * which are calculated in parallel; returns once the whole row is done, so the next row can read it
+     * @param pool pool the chunks are calculated in
+     * @param value lambda function which writes the double values of a row of pixels
+     * @param y row of the pixels (greater than 0)
+     * @param above cumulative values of the row above
+     * @param current cumulative values of the row
+     * @param moves moves of the row
+     * @param offset index of the move of column 0 in moves
+     * @param width width of the image
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    static void calculateRow(ForkJoinPool pool, Image.PixelValue value, int y, double[] above, double[] current,
+                             byte[] moves, int offset, int width) {
+        int chunks = Math.min(pool.getParallelism(), width / MIN_CHUNK_WIDTH);
+        int chunkWidth = (width + chunks - 1) / chunks;
+        pool.invoke(new RowChunk(value, y, above, current, moves, offset, 0, width - 1, width, chunkWidth));
+    }
+
+    /**
+     * part of a row calculated by one task, split in half until it is at most chunkWidth columns wide
+     */
+    private static final class RowChunk extends RecursiveAction {
+        private final Image.PixelValue value;
+        private final int y;
+        private final double[] above;
+        private final double[] current;
+        private final byte[] moves;
+        private final int offset;
+        private final int from;
+        private final int to;
+        private final int width;
+        private final int chunkWidth;
+
+        @SuppressWarnings("checkstyle:parameternumber")
+        RowChunk(Image.PixelValue value, int y, double[] above, double[] current, byte[] moves, int offset,
+                 int from, int to, int width, int chunkWidth) {
+            this.value = value;
+            this.y = y;
+            this.above = above;
+            this.current = current;
+            this.moves = moves;
+            this.offset = offset;
+            this.from = from;
+            this.to = to;
+            this.width = width;
+            this.chunkWidth = chunkWidth;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from + 1 <= chunkWidth) {
+                calculateRow(value, y, above, current, moves, offset, from, to, width);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowChunk(value, y, above, current, moves, offset, from, middle, width, chunkWidth),
+                    new RowChunk(value, y, above, current, moves, offset, middle + 1, to, width, chunkWidth));
+        }
+    }
+
+    /**
+     * calculates the maximum cumulative value of the pixels of a row between two columns
+     * from the cumulative values of the row above
+     * (the values of the pixels are first written into current, then replaced by their cumulative values)
+     * @param value lambda function which writes the double values of a row of pixels
+     * @param y row of the pixels (greater than 0)
+     * @param above cumulative values of the row above
+     * @param current cumulative values of the row, written for columns from to to
+     * @param moves moves of the row, written for columns from to to
+     * @param offset index of the move of column 0 in moves
+     * @param from first column (inclusive)
+     * @param to last column (inclusive)
+     * @param width width of the image
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    static void calculateRow(Image.PixelValue value, int y, double[] above, double[] current,
+                             byte[] moves, int offset, int from, int to, int width) {
+        value.get(y, from, to, current);
+        RowKernels.ACTIVE.maximizeRow(above, current, moves, offset, from, to, width);
+    }
+
+    /**
+     * finds the seam with maximum cumulative value
+     * @return column of the seam in every row
+     */
+    int[] findSeam() {
+        int height = sums.length;
+        double[] bottomRow = sums[height - 1];
+
+        // gets maximum value from last row
+        int maxCol = 0;
+        for (int x = 1; x < width; x++) {
+            if (bottomRow[x] > bottomRow[maxCol]) {
+                maxCol = x;
+            }
+        }
+
+        // goes from bottom to top following the stored moves
+        int[] cols = new int[height];
+        int col = maxCol;
+        for (int y = height - 1; y >= 0; y--) {
+            cols[y] = col;
+            col += moves[y][col];
+        }
+        return cols;
+    }
+
+    /**
+     * finds several seams from the one set of cumulative values, without recalculating anything between them
+     * seams start at the columns of the bottom row with the highest cumulative values; going up, a seam follows its
+     * stored move unless another seam already took that pixel, then it moves to the best free pixel above it instead
+     * (seams only share a pixel when all three pixels above are taken)
+     * @param count number of seams to find (at most width)
+     * @return for every seam, its column in every row
+     */
+    int[][] findSeams(int count) {
+        int height = sums.length;
+        double[] bottomRow = sums[height - 1];
+
+        // columns of the bottom row from highest to lowest cumulative value (leftmost first on ties)
+        Integer[] order = new Integer[width];
+        for (int x = 0; x < width; x++) {
+            order[x] = x;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(bottomRow[b], bottomRow[a]));
+
+        boolean[][] taken = new boolean[height][width];
+        int[][] seams = new int[count][height];
+        for (int i = 0; i < count; i++) {
+            int col = order[i];
+            for (int y = height - 1; y >= 0; y--) {
+                seams[i][y] = col;
+                taken[y][col] = true;
+                if (y > 0) {
+                    col = nextFreeColumn(sums[y - 1], taken[y - 1], col, col + moves[y][col]);
+                }
+            }
+        }
+        return seams;
+    }
+
+    /**
+     * picks the column a seam continues at in the row above
+     * @param above cumulative values of the row above
+     * @param taken pixels of the row above that other seams already go through
+     * @param col column of the seam in the current row
+     * @param move column the stored move points to
+     * @return move if it is free, otherwise the free column next to col with the highest cumulative value
+     */
+    private int nextFreeColumn(double[] above, boolean[] taken, int col, int move) {
+        if (!taken[move]) {
+            return move;
+        }
+        int best = -1;
+        for (int x = Math.max(0, col - 1); x <= Math.min(width - 1, col + 1); x++) {
+            if (!taken[x] && (best < 0 || above[x] > above[best])) {
+                best = x;
+            }
+        }
+        return best < 0 ? move : best;
+    }
+
+    /**
+     * updates the cumulative values after a seam has been removed from the image
+     * only pixels next to the seam, and pixels below values that changed (the cone under the seam), are recalculated
+     * @param cols column of the removed seam in every row
+     */
+    void removeSeam(int[] cols) {
+        int height = sums.length;
+        width--;
+
+        // columns of the row above whose cumulative value changed
+        int changedFrom = Integer.MAX_VALUE;
+        int changedTo = -1;
+
+        for (int y = 0; y < height; y++) {
+            int col = cols[y];
+            System.arraycopy(sums[y], col + 1, sums[y], col, width - col);
+            System.arraycopy(moves[y], col + 1, moves[y], col, width - col);
+
+            // pixels whose value or neighbours above changed with the removal
+            int from = col;
+            int to = col;
+            if (y > 0) {
+                from = Math.min(from, cols[y - 1]);
+                to = Math.max(to, cols[y - 1]);
+            }
+            if (y < height - 1) {
+                from = Math.min(from, cols[y + 1]);
+                to = Math.max(to, cols[y + 1]);
+            }
+            from -= 2;
+            to += 2;
+
+            // pixels below a changed cumulative value
+            if (changedFrom <= changedTo) {
+                from = Math.min(from, changedFrom - 1);
+                to = Math.max(to, changedTo + 1);
+            }
+
+            from = Math.max(0, from);
+            to = Math.min(width - 1, to);
+
+            System.arraycopy(sums[y], from, previous, from, to - from + 1);
+            if (y == 0) {
+                value.get(0, from, to, sums[0]);
+            } else {
+                calculateRow(value, y, sums[y - 1], sums[y], moves[y], 0, from, to, width);
+            }
+
+            changedFrom = Integer.MAX_VALUE;
+            changedTo = -1;
+            for (int x = from; x <= to; x++) {
+                if (Double.compare(previous[x], sums[y][x]) != 0) {
+                    changedFrom = Math.min(changedFrom, x);
+                    changedTo = x;
+                }
+            }
+        }
+    }
+}
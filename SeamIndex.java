@@ -0,0 +1,296 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * removal order of every pixel of an image: carving the image down to one column once, and noting for every pixel
+ * the seam it was removed with, gives every narrower width of the image by keeping the pixels removed last,
+ * in one pass over the pixels without any energy or seam search
+ * the index is written next to the image in a compressed sidecar file (image.png.seams), with a checksum of the
+ * pixels it was built from so a changed image is not resized with a stale index
+ */
+public final class SeamIndex {
+
+    private static final int MAGIC = 0x5345414D; // "SEAM"
+    private static final int FORMAT = 1;
+    private static final int BATCH = 64; // seams removed per search while building, bounds the seam pixels held
+    private static final int MAX_SHORT_WIDTH = 1 << Short.SIZE; // widest image whose removal orders fit in two bytes
+    private static final int MAX_PIXELS = Integer.MAX_VALUE - 8; // largest array the JVM allocates
+
+    private final Image.SeamType type;
+    private final int width;
+    private final int height;
+    private final long checksum; // CRC32 of the pixels of the source image
+    private final int[] orders; // seam every pixel is removed with (width - 1 if never), row after row
+
+    private SeamIndex(Image.SeamType type, int width, int height, long checksum, int[] orders) {
+        this.type = type;
+        this.width = width;
+        this.height = height;
+        this.checksum = checksum;
+        this.orders = orders;
+    }
+
+    /**
+     * builds the index by removing seams until a single column is left, which takes as long as carving the image
+     * to one column; the seams are the same as removeSeams finds when carving to any width
+     * @param img source image
+     * @param type type of seams to remove
+     * @return index of the image
+     */
+    static SeamIndex build(BufferedImage img, Image.SeamType type) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        Image image = new Image(img);
+        int[] orders = new int[width * height];
+        int[][] columns = new int[height][width]; // column in the source of every pixel left in the image
+        for (int[] row : columns) {
+            for (int col = 0; col < width; col++) {
+                row[col] = col;
+            }
+        }
+
+        int removed = 0;
+        while (removed < width - 1) {
+            for (List<Pixel> seam : image.removeSeams(Math.min(BATCH, width - 1 - removed), type)) {
+                for (int row = 0; row < height; row++) {
+                    int col = seam.get(row).col;
+                    int[] left = columns[row];
+                    orders[row * width + left[col]] = removed;
+                    System.arraycopy(left, col + 1, left, col, width - removed - col - 1);
+                }
+                removed++;
+            }
+        }
+        for (int row = 0; row < height; row++) {
+            orders[row * width + columns[row][0]] = width - 1; // the last column is never removed
+        }
+        return new SeamIndex(type, width, height, checksum(img), orders);
+    }
+
+    /**
+     * gets the type of seams the index was built with
+     * @return seam type
+     */
+    Image.SeamType getType() {
+        return type;
+    }
+
+    /**
+     * checks if the index was built from the pixels of an image
+     * @param img image, e.g. decoded again from the file the index was built for
+     * @return true if the image has the size and pixels the index was built from
+     */
+    boolean matches(BufferedImage img) {
+        return img.getWidth() == width && img.getHeight() == height && checksum(img) == checksum;
+    }
+
+    /**
+     * narrows the image the index was built from, keeping in every row the pixels whose seams are removed last
+     * @param img image the index was built from
+     * @param targetWidth width of the narrowed image, between 1 and the width of the image
+     * @return new image, with the same pixels as removing seams of the index type until it is targetWidth wide
+     * @throws IllegalArgumentException if the image does not have the size of the index or the width is out of range
+     */
+    BufferedImage retarget(BufferedImage img, int targetWidth) {
+        if (img.getWidth() != width || img.getHeight() != height) {
+            throw new IllegalArgumentException("Index is for a " + width + "x" + height + " image");
+        }
+        if (targetWidth < 1 || targetWidth > width) {
+            throw new IllegalArgumentException("Target width must be between 1 and " + width);
+        }
+        int removed = width - targetWidth; // pixels removed by seams before this one are dropped
+        BufferedImage image = new BufferedImage(targetWidth, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData(); // rows of targetWidth pixels
+        int[] pixels = new int[width];
+        int index = 0;
+        for (int row = 0; row < height; row++) {
+            Image.readRow(img, row, pixels);
+            int start = row * width;
+            for (int col = 0; col < width; col++) {
+                if (orders[start + col] >= removed) {
+                    data[index++] = pixels[col] & Pixel.RGB_MASK; // same as setRGB, which drops the alpha
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * gets the sidecar file of an image, next to it with .seams appended to its name
+     * @param image image file
+     * @return sidecar file
+     */
+    static Path sidecarOf(Path image) {
+        return image.resolveSibling(image.getFileName() + ".seams");
+    }
+
+    /**
+     * reads the index of an image from its sidecar, building and writing the sidecar if it is missing, stale or
+     * built with other seams
+     * @param image image file
+     * @param img pixels of the image file
+     * @param type type of seams to remove
+     * @return index of the image
+     * @throws IOException throws if the sidecar cannot be written
+     */
+    static SeamIndex forImage(Path image, BufferedImage img, Image.SeamType type) throws IOException {
+        Path sidecar = sidecarOf(image);
+        if (Files.exists(sidecar)) {
+            try {
+                SeamIndex index = read(sidecar);
+                if (index.type == type && index.matches(img)) {
+                    return index;
+                }
+            } catch (IOException e) {
+                // a broken sidecar is built again
+            }
+        }
+        SeamIndex index = build(img, type);
+        index.write(sidecar);
+        return index;
+    }
+
+    /**
+     * writes the index, every removal order as two bytes for images up to 65536 pixels wide (four bytes otherwise),
+     * deflated since neighbouring pixels are often removed close together
+     * the index is written next to the file, then moved over it so that it is never seen half written
+     * @param file file the index is written to
+     * @throws IOException throws if the file cannot be written
+     */
+    void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(temporary))))) {
+            output.writeInt(MAGIC);
+            output.writeByte(FORMAT);
+            output.writeByte(type.ordinal());
+            output.writeInt(width);
+            output.writeInt(height);
+            output.writeLong(checksum);
+            for (int order : orders) {
+                if (width <= MAX_SHORT_WIDTH) {
+                    output.writeShort(order);
+                } else {
+                    output.writeInt(order);
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * reads an index written by write
+     * @param file file the index is read from
+     * @return index
+     * @throws IOException throws if the file cannot be read or is not a valid seam index
+     */
+    static SeamIndex read(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file))))) {
+            if (input.readInt() != MAGIC || input.readByte() != FORMAT) {
+                throw new IOException("Not a seam index: " + file);
+            }
+            int ordinal = input.readUnsignedByte();
+            if (ordinal >= Image.SeamType.values().length) {
+                throw new IOException("Unknown seam type " + ordinal + " in " + file);
+            }
+            Image.SeamType type = Image.SeamType.values()[ordinal];
+            int width = input.readInt();
+            int height = input.readInt();
+            if (width < 1 || height < 1 || (long) width * height > MAX_PIXELS) {
+                throw new IOException("Invalid image size " + width + "x" + height + " in " + file);
+            }
+            long checksum = input.readLong();
+            int[] orders = new int[width * height];
+            boolean[] seen = new boolean[width]; // every row removes each seam exactly once
+            for (int row = 0; row < height; row++) {
+                Arrays.fill(seen, false);
+                for (int i = row * width; i < (row + 1) * width; i++) {
+                    int order = width <= MAX_SHORT_WIDTH ? input.readUnsignedShort() : input.readInt();
+                    if (order < 0 || order >= width || seen[order]) {
+                        throw new IOException("Invalid removal order " + order + " in row " + row + " of " + file);
+                    }
+                    seen[order] = true;
+                    orders[i] = order;
+                }
+            }
+            return new SeamIndex(type, width, height, checksum, orders);
+        }
+    }
+
+    /**
+     * computes the checksum of the opaque packed pixels of an image
+     * @param img image
+     * @return CRC32 of the pixels, row after row
+     */
+    private static long checksum(BufferedImage img) {
+        CRC32 crc = new CRC32();
+        int[] pixels = new int[img.getWidth()];
+        byte[] bytes = new byte[Integer.BYTES * pixels.length];
+        IntBuffer ints = ByteBuffer.wrap(bytes).asIntBuffer(); // big-endian, most significant byte first
+        for (int row = 0; row < img.getHeight(); row++) {
+            Image.readRow(img, row, pixels);
+            ints.clear();
+            ints.put(pixels);
+            crc.update(bytes);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * builds the lowest energy seam index of an image if its sidecar is missing or stale, then writes the image at
+     * every given width next to it (image-300.png for a width of 300)
+     * usage: SeamIndex image [width ...]
+     * @param args image file and the widths to write it at
+     * @throws IOException throws if an image or the sidecar cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: SeamIndex image [width ...]");
+            return;
+        }
+        Path image = Path.of(args[0]);
+        BufferedImage img = ImageIO.read(image.toFile());
+        if (img == null) {
+            throw new IOException("Not a supported image: " + image);
+        }
+
+        long start = System.nanoTime();
+        SeamIndex index = forImage(image, img, Image.SeamType.LOWEST_ENERGY);
+        System.out.printf(Locale.ROOT, "[INFO] Seam index of %dx%d image ready in %.1f ms (%s, %d bytes)%n",
+                img.getWidth(), img.getHeight(), (System.nanoTime() - start) / OperationMetrics.NANOS_PER_MILLI,
+                sidecarOf(image), Files.size(sidecarOf(image)));
+
+        String name = image.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+        for (int i = 1; i < args.length; i++) {
+            int width = Integer.parseInt(args[i]);
+            start = System.nanoTime();
+            BufferedImage narrowed = index.retarget(img, width);
+            double millis = (System.nanoTime() - start) / OperationMetrics.NANOS_PER_MILLI;
+            Path output = image.resolveSibling(name + "-" + width + ".png");
+            ImageIO.write(narrowed, "png", output.toFile());
+            System.out.printf(Locale.ROOT, "[INFO] Narrowed to width %d in %.1f ms, written to %s%n", width, millis,
+                    output);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+
+class SeamIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void retargetingMatchesRemovingSeams() {
+        BufferedImage source = TestImages.synthetic(150, 30);
+        for (Image.SeamType type : Image.SeamType.values()) {
+            SeamIndex index = SeamIndex.build(source, type);
+            for (int width : new int[] {150, 149, 100, 37, 1}) {
+                Image carved = new Image(source);
+                carved.removeSeams(150 - width, type);
+                TestImages.assertSamePixels(index.retarget(source, width), carved.toBufferedImage());
+            }
+        }
+    }
+
+    @Test
+    void sidecarIsReusedUntilTheImageChanges() throws IOException {
+        BufferedImage source = TestImages.synthetic(40, 20);
+        Path file = directory.resolve("image.png");
+        ImageIO.write(source, "png", file.toFile());
+
+        SeamIndex built = SeamIndex.forImage(file, source, Image.SeamType.LOWEST_ENERGY);
+        Path sidecar = SeamIndex.sidecarOf(file);
+        Assertions.assertThat(sidecar).exists();
+        byte[] written = Files.readAllBytes(sidecar);
+        // dated back, so a rewrite shows even where file times are coarse
+        FileTime stamp = FileTime.fromMillis(Files.getLastModifiedTime(sidecar).toMillis() - 60_000);
+        Files.setLastModifiedTime(sidecar, stamp);
+
+        SeamIndex reused = SeamIndex.forImage(file, source, Image.SeamType.LOWEST_ENERGY);
+        Assertions.assertThat(Files.getLastModifiedTime(sidecar)).isEqualTo(stamp);
+        Assertions.assertThat(Files.readAllBytes(sidecar)).isEqualTo(written);
+        TestImages.assertSamePixels(reused.retarget(source, 25), built.retarget(source, 25));
+
+        SeamIndex read = SeamIndex.read(sidecar);
+        Assertions.assertThat(read.matches(source)).isTrue();
+        TestImages.assertSamePixels(read.retarget(source, 25), built.retarget(source, 25));
+
+        BufferedImage changed = TestImages.synthetic(40, 20);
+        changed.setRGB(3, 4, 0x123456);
+        Assertions.assertThat(read.matches(changed)).isFalse();
+        Assertions.assertThat(SeamIndex.forImage(file, changed, Image.SeamType.LOWEST_ENERGY).matches(changed))
+                .isTrue();
+        Assertions.assertThat(Files.getLastModifiedTime(sidecar)).isNotEqualTo(stamp);
+        Assertions.assertThat(Files.readAllBytes(sidecar)).isNotEqualTo(written);
+        Assertions.assertThat(SeamIndex.read(sidecar).matches(changed)).isTrue();
+    }
+
+    @Test
+    void brokenSidecarsAreBuiltAgain() throws IOException {
+        BufferedImage source = TestImages.synthetic(40, 20);
+        Path file = directory.resolve("image.png");
+        Path sidecar = SeamIndex.sidecarOf(file);
+        int[][] headers = {
+            {Image.SeamType.values().length, 40, 20}, // unknown seam type
+            {0, -40, 20}, // negative width
+            {0, 1 << 16, 1 << 16}, // more pixels than an array holds
+            {0, 40, 20}, // header fine, but no removal orders
+        };
+        for (int[] header : headers) {
+            try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(
+                    Files.newOutputStream(sidecar)))) {
+                output.writeInt(0x5345414D);
+                output.writeByte(1);
+                output.writeByte(header[0]);
+                output.writeInt(header[1]);
+                output.writeInt(header[2]);
+                output.writeLong(0);
+            }
+            Assertions.assertThatThrownBy(() -> SeamIndex.read(sidecar)).isInstanceOf(IOException.class);
+            Assertions.assertThat(SeamIndex.forImage(file, source, Image.SeamType.LOWEST_ENERGY).matches(source))
+                    .isTrue();
+            Assertions.assertThat(SeamIndex.read(sidecar).matches(source)).isTrue();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertThat(files).containsExactly(sidecar); // no temporary file left behind
+        }
+    }
+
+}
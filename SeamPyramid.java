@@ -0,0 +1,378 @@
+package uk.ac.nulondon;
+
+import java.util.Arrays;
+
+/**
+ * approximate seam search on a pyramid of downsampled pixel values
+ * the seam is found exactly on the coarsest level, then every finer level only searches a band of columns
+ * around the seam of the level above it, projected to the finer level
+ */
+class SeamPyramid {
+
+    static final int MIN_LEVEL_SIZE = 64; // levels are added while the next one would be at least this wide and high
+
+    private final int band; // columns searched on each side of the projected seam
+
+    // levels 1, 2, ... of averaged 2x2 blocks, kept between searches (rows can be longer than the level width)
+    private double[][][] levels = new double[0][][];
+    private int[] widths = new int[0]; // width of every level, level 0 being the image as seen by source
+    private int[] heights = new int[0];
+    private Image.PixelValue source = null; // values the levels were built from, null if they must be built again
+    private boolean transposed; // true if source sees the image transposed
+
+    /*
+    the levels are kept across seam removals like SeamCosts keeps its sums: a removed seam takes one cell out of
+    every row of the level below, and every second removal one block out of every row of a level; after two
+    removals the blocks right of both are paired with the same cells as before, so only the blocks around and
+    between the two removed cells (from dirtyFrom to dirtyTo inclusive) are averaged again before the next search;
+    in between, the blocks right of the first removed cell are off by one cell of the level below
+     */
+    private int[][] dirtyFrom = new int[0][];
+    private int[][] dirtyTo = new int[0][];
+    private int[][] pending = new int[0][]; // block of the unpaired removal of every row of a level, -1 if none
+
+    // scratch space of the banded search, reused between searches
+    private double[] above = new double[0];
+    private double[] current = new double[0];
+    private byte[] moves = new byte[0]; // move of every pixel in the band of every row, band width apart
+    private int[] bandFrom = new int[0]; // first column of the band of every row
+
+    /**
+     * creates a pyramid search
+     * @param band columns searched on each side of the projected seam (at least 1)
+     */
+    SeamPyramid(int band) {
+        if (band < 1) {
+            throw new IllegalArgumentException("Band must be at least 1: " + band);
+        }
+        this.band = band;
+    }
+
+    /**
+     * checks if an image is large enough to have at least one downsampled level
+     * @param width width of the image
+     * @param height height of the image
+     * @return true if the pyramid search applies to the image
+     */
+    static boolean applies(int width, int height) {
+        return width / 2 >= MIN_LEVEL_SIZE && height / 2 >= MIN_LEVEL_SIZE;
+    }
+
+    /**
+     * counts the levels of an image, level 0 being the image itself
+     * @param width width of the image
+     * @param height height of the image
+     * @return number of levels
+     */
+    private static int levelCount(int width, int height) {
+        int count = 1;
+        while (width >> count >= MIN_LEVEL_SIZE && height >> count >= MIN_LEVEL_SIZE) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * finds an approximation of the seam with maximum cumulative value
+     * the levels are built on the first search, and only updated around the removed seams on later searches
+     * of the same values
+     * @param value lambda function which writes the double values of a row of pixels
+     * @param width width of the image as seen by value
+     * @param height height of the image as seen by value
+     * @param horizontal true if value sees the image transposed, for horizontal seams
+     * @return column of the seam in every row
+     */
+    int[] findSeam(Image.PixelValue value, int width, int height, boolean horizontal) {
+        int count = levelCount(width, height);
+        if (value != source || horizontal != transposed || widths.length != count || widths[0] != width
+                || heights[0] != height) {
+            buildLevels(value, width, height, count);
+            transposed = horizontal;
+        } else {
+            updateLevels();
+        }
+
+        // exact search on the coarsest level, then banded searches down to the image
+        int coarsest = count - 1;
+        int[] seam = bandedSeam(levelValue(coarsest), widths[coarsest], heights[coarsest], null);
+        for (int level = coarsest - 1; level >= 0; level--) {
+            Image.PixelValue levelValue = level == 0 ? value : levelValue(level);
+            seam = bandedSeam(levelValue, widths[level], heights[level], seam);
+        }
+        return seam;
+    }
+
+    /**
+     * drops the levels, so the next search builds them again, after an edit other than a seam removal
+     */
+    void invalidate() {
+        source = null;
+    }
+
+    /**
+     * takes a removed seam out of the levels, moving the blocks right of it and marking the blocks around it
+     * to be averaged again before the next search
+     * @param cols column of the removed seam in every row of the image as seen by the values the levels were
+     *             built from (the row of a horizontal seam in every column if transposed)
+     * @param horizontal true if a horizontal seam was removed
+     */
+    void removeSeam(int[] cols, boolean horizontal) {
+        if (source == null || horizontal != transposed || cols.length != heights[0]
+                || levelCount(widths[0] - 1, heights[0]) != widths.length) {
+            invalidate();
+            return;
+        }
+        widths[0]--;
+        int[] removed = cols;
+        for (int level = 1; level < widths.length && removed != null; level++) {
+            removed = removeCells(level, removed);
+        }
+    }
+
+    /**
+     * takes one cell of every row of the level below out of a level
+     * @param level level of the pyramid (at least 1)
+     * @param removed cell removed from every row of the level below
+     * @return block removed from every row of the level, or null if the level kept its width
+     */
+    private int[] removeCells(int level, int[] removed) {
+        int width = widths[level];
+        boolean shrinks = widths[level - 1] >> 1 < width;
+        int[] blocks = shrinks ? new int[heights[level]] : null;
+        int[] from = dirtyFrom[level];
+        int[] to = dirtyTo[level];
+        for (int y = 0; y < heights[level]; y++) {
+            int first = Math.min(width - 1, Math.min(removed[2 * y], removed[2 * y + 1]) >> 1);
+            int last = Math.min(width - 1, Math.max(removed[2 * y], removed[2 * y + 1]) >> 1);
+            if (from[y] <= to[y]) { // blocks marked earlier may have moved by one
+                from[y]--;
+                to[y]++;
+            }
+            if (shrinks) {
+                double[] row = levels[level][y];
+                System.arraycopy(row, first + 1, row, first, width - first - 1);
+                blocks[y] = first;
+            }
+            // the blocks right of a removed cell are paired with the wrong cells until a second cell is removed
+            int earlier = pending[level][y];
+            if (earlier < 0) {
+                pending[level][y] = first;
+            } else {
+                pending[level][y] = -1;
+                first = Math.min(first, earlier);
+                last = Math.max(last, earlier);
+            }
+            // values within two cells of the seam change, in the rows next to it as well
+            for (int row = Math.max(0, y - 1); row <= Math.min(heights[level] - 1, y + 1); row++) {
+                from[row] = Math.min(from[row], first - 2);
+                to[row] = Math.max(to[row], last + 2);
+            }
+        }
+        if (shrinks) {
+            widths[level]--;
+        }
+        return blocks;
+    }
+
+    /**
+     * averages every 2x2 block of each level into the next level
+     * @param value lambda function which writes the double values of a row of pixels
+     * @param width width of the image as seen by value
+     * @param height height of the image as seen by value
+     * @param count number of levels
+     */
+    private void buildLevels(Image.PixelValue value, int width, int height, int count) {
+        widths = new int[count];
+        heights = new int[count];
+        for (int level = 0; level < count; level++) {
+            widths[level] = width >> level;
+            heights[level] = height >> level;
+        }
+        if (levels.length < count) {
+            levels = Arrays.copyOf(levels, count);
+            dirtyFrom = Arrays.copyOf(dirtyFrom, count);
+            dirtyTo = Arrays.copyOf(dirtyTo, count);
+            pending = Arrays.copyOf(pending, count);
+        }
+        for (int level = 1; level < count; level++) {
+            if (levels[level] == null || levels[level].length < heights[level]
+                    || levels[level][0].length < widths[level]) {
+                levels[level] = new double[heights[level]][widths[level] + widths[level] / 4];
+            }
+            if (pending[level] == null || pending[level].length < heights[level]) {
+                dirtyFrom[level] = new int[heights[level]];
+                dirtyTo[level] = new int[heights[level]];
+                pending[level] = new int[heights[level]];
+            }
+            Arrays.fill(pending[level], -1);
+            // every block is dirty, updating the levels builds them
+            Arrays.fill(dirtyFrom[level], 0);
+            Arrays.fill(dirtyTo[level], Integer.MAX_VALUE);
+        }
+        source = value;
+        updateLevels();
+    }
+
+    /**
+     * averages the dirty blocks of every level again, level after level, marking the blocks of the next level
+     * they are averaged into as dirty
+     */
+    private void updateLevels() {
+        ensureRows(widths[0]);
+        for (int level = 1; level < widths.length; level++) {
+            int width = widths[level];
+            int[] from = dirtyFrom[level];
+            int[] to = dirtyTo[level];
+            double[][] coarser = levels[level];
+            double[][] finer = level == 1 ? null : levels[level - 1];
+            for (int y = 0; y < heights[level]; y++) {
+                int first = Math.max(0, from[y]);
+                int last = Math.min(width - 1, to[y]);
+                if (first > last) {
+                    continue;
+                }
+                // blocks right of an unpaired removal move onto other cells with the next removal,
+                // so they stay dirty to be averaged again then
+                int unpaired = pending[level][y];
+                from[y] = unpaired >= 0 && unpaired <= last ? Math.max(first, unpaired) : Integer.MAX_VALUE;
+                to[y] = unpaired >= 0 && unpaired <= last ? last : -1;
+                double[] top;
+                double[] bottom;
+                if (finer == null) {
+                    source.get(2 * y, 2 * first, 2 * last + 1, above);
+                    source.get(2 * y + 1, 2 * first, 2 * last + 1, current);
+                    top = above;
+                    bottom = current;
+                } else {
+                    top = finer[2 * y];
+                    bottom = finer[2 * y + 1];
+                }
+                double[] row = coarser[y];
+                for (int x = first; x <= last; x++) {
+                    row[x] = (top[2 * x] + top[2 * x + 1] + bottom[2 * x] + bottom[2 * x + 1]) / 4;
+                }
+                if (level + 1 < widths.length && y / 2 < heights[level + 1]) {
+                    dirtyFrom[level + 1][y / 2] = Math.min(dirtyFrom[level + 1][y / 2], first / 2);
+                    dirtyTo[level + 1][y / 2] = Math.max(dirtyTo[level + 1][y / 2], last / 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * reads the values of a downsampled level
+     * @param level level of the pyramid (at least 1)
+     * @return lambda function which writes the values of a row of the level
+     */
+    private Image.PixelValue levelValue(int level) {
+        double[][] rows = levels[level];
+        return (row, from, to, values) -> System.arraycopy(rows[row], from, values, from, to - from + 1);
+    }
+
+    /**
+     * makes sure the row scratch arrays hold a row of the given width
+     * @param width width of the row
+     */
+    private void ensureRows(int width) {
+        if (above.length < width) {
+            above = new double[width];
+            current = new double[width];
+        }
+    }
+
+    /**
+     * finds the seam with maximum cumulative value of a level, only searching a band around a coarser seam
+     * (same tie-breaking as the exact search, pixels outside the band count as outside the image)
+     * @param value lambda function which writes the double values of a row of the level
+     * @param width width of the level
+     * @param height height of the level
+     * @param coarse seam of the next coarser level, or null to search every column
+     * @return column of the seam in every row of the level
+     */
+    private int[] bandedSeam(Image.PixelValue value, int width, int height, int[] coarse) {
+        int bandWidth = coarse == null ? width : Math.min(width, 2 * band + 2);
+        ensureRows(width);
+        if (moves.length < bandWidth * height) {
+            moves = new byte[bandWidth * height];
+        }
+        if (bandFrom.length < height) {
+            bandFrom = new int[height];
+        }
+
+        // band of every row: the coarse seam column doubled, widened by band columns on each side
+        for (int y = 0; y < height; y++) {
+            if (coarse == null) {
+                bandFrom[y] = 0;
+            } else {
+                int center = 2 * coarse[Math.min(y / 2, coarse.length - 1)];
+                bandFrom[y] = Math.max(0, Math.min(width - bandWidth, center - band));
+            }
+        }
+
+        double[] sumsAbove = above;
+        double[] sums = current;
+        int from = bandFrom[0];
+        int to = from + bandWidth - 1;
+        value.get(0, from, to, sumsAbove);
+        for (int y = 1; y < height; y++) {
+            int aboveFrom = from;
+            int aboveTo = to;
+            from = bandFrom[y];
+            to = from + bandWidth - 1;
+            value.get(y, from, to, sums);
+            int offset = y * bandWidth - from;
+            for (int x = from; x <= to; x++) {
+                double cValue = sums[x];
+
+                // sums with above.left, above and above.right pixels (negative infinity if outside the band)
+                double alValue = x - 1 >= aboveFrom && x - 1 <= aboveTo ? sumsAbove[x - 1] + cValue
+                        : Double.NEGATIVE_INFINITY;
+                double aValue = x >= aboveFrom && x <= aboveTo ? sumsAbove[x] + cValue : Double.NEGATIVE_INFINITY;
+                double arValue = x + 1 >= aboveFrom && x + 1 <= aboveTo ? sumsAbove[x + 1] + cValue
+                        : Double.NEGATIVE_INFINITY;
+
+                if (alValue > aValue) {
+                    if (alValue > arValue) {
+                        moves[offset + x] = -1;
+                        sums[x] = alValue;
+                    } else {
+                        moves[offset + x] = 1;
+                        sums[x] = arValue;
+                    }
+                } else {
+                    if (aValue > arValue) {
+                        moves[offset + x] = 0;
+                        sums[x] = aValue;
+                    } else {
+                        moves[offset + x] = 1;
+                        sums[x] = arValue;
+                    }
+                }
+            }
+
+            // current row becomes the row above for the next one
+            double[] swap = sumsAbove;
+            sumsAbove = sums;
+            sums = swap;
+        }
+
+        // gets maximum value from last row
+        int maxCol = from;
+        for (int x = from + 1; x <= to; x++) {
+            if (sumsAbove[x] > sumsAbove[maxCol]) {
+                maxCol = x;
+            }
+        }
+
+        // goes from bottom to top following the stored moves
+        int[] seam = new int[height];
+        int col = maxCol;
+        for (int y = height - 1; y >= 0; y--) {
+            seam[y] = col;
+            if (y > 0) {
+                col += moves[y * bandWidth - bandFrom[y] + col];
+            }
+        }
+        return seam;
+    }
+}
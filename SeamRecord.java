@@ -0,0 +1,119 @@
+package uk.ac.nulondon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * removed seam as kept by the undo history: the position and packed color of every seam pixel in two int arrays,
+ * instead of a list of Pixel objects each holding a Color
+ */
+final class SeamRecord {
+
+    private static final long RECORD_BYTES = 48; // estimated size of the record object with its header and fields
+
+    private final boolean horizontal; // true if the seam runs across the image (one pixel per column)
+    private final int[] positions; // column of the seam in every row, or row of the seam in every column
+    private final int[] colors; // packed color of every seam pixel
+
+    private SeamRecord(boolean horizontal, int[] positions, int[] colors) {
+        this.horizontal = horizontal;
+        this.positions = positions;
+        this.colors = colors;
+    }
+
+    /**
+     * records a seam
+     * @param seam seam of pixels with their original colors
+     * @param horizontal true if the seam runs across the image
+     * @return record of the seam
+     */
+    static SeamRecord of(List<Pixel> seam, boolean horizontal) {
+        int[] positions = new int[seam.size()];
+        int[] colors = new int[seam.size()];
+        for (int i = 0; i < positions.length; i++) {
+            Pixel pixel = seam.get(i);
+            positions[i] = horizontal ? pixel.getRow() : pixel.getCol();
+            colors[i] = pixel.rgb;
+        }
+        return new SeamRecord(horizontal, positions, colors);
+    }
+
+    /**
+     * records a seam of a version given by its positions, reading the colors of its pixels from the version
+     * @param version version the seam is in
+     * @param positions column of the seam in every row, or row of the seam in every column if horizontal
+     * @param horizontal true if the seam runs across the image
+     * @return record of the seam
+     */
+    static SeamRecord of(ImageVersion version, int[] positions, boolean horizontal) {
+        return new SeamRecord(horizontal, positions, version.colorsAt(positions, horizontal));
+    }
+
+    /**
+     * adds the seam back to a version of the image it was removed from
+     * @param version version without the seam
+     * @return new version sharing every row segment the seam is not in
+     */
+    ImageVersion addTo(ImageVersion version) {
+        return horizontal ? version.withHorizontalSeam(positions, colors) : version.withSeam(positions, colors);
+    }
+
+    /**
+     * removes the seam from a version of the image
+     * @param version version with the seam
+     * @return new version sharing every row segment the seam is not in
+     */
+    ImageVersion removeFrom(ImageVersion version) {
+        return horizontal ? version.withoutHorizontalSeam(positions) : version.withoutSeam(positions);
+    }
+
+    /**
+     * estimates the memory held by the record
+     * @return size in bytes
+     */
+    long bytes() {
+        return RECORD_BYTES + 2 * (UndoLog.ARRAY_BYTES + 4L * positions.length);
+    }
+
+    /**
+     * writes the record, positions as differences to the previous one since they mostly are -1, 0 or 1
+     * @param output stream the record is written to
+     * @throws IOException throws if the stream cannot be written
+     */
+    void write(DataOutputStream output) throws IOException {
+        output.writeBoolean(horizontal);
+        output.writeInt(positions.length);
+        int previous = 0;
+        for (int position : positions) {
+            output.writeInt(position - previous);
+            previous = position;
+        }
+        for (int color : colors) {
+            output.writeInt(color);
+        }
+    }
+
+    /**
+     * reads a record written by write
+     * @param input stream the record is read from
+     * @return record
+     * @throws IOException throws if the stream cannot be read
+     */
+    static SeamRecord read(DataInputStream input) throws IOException {
+        boolean horizontal = input.readBoolean();
+        int length = input.readInt();
+        int[] positions = new int[length];
+        int[] colors = new int[length];
+        int previous = 0;
+        for (int i = 0; i < length; i++) {
+            previous += input.readInt();
+            positions[i] = previous;
+        }
+        for (int i = 0; i < length; i++) {
+            colors[i] = input.readInt();
+        }
+        return new SeamRecord(horizontal, positions, colors);
+    }
+}
@@ -0,0 +1,93 @@
+package uk.ac.nulondon;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * exact search for the seam maximizing a value, keeping only two rows of cumulative values and one byte offset
+ * per pixel for the path; the scratch arrays are kept between searches, so an image or editor searching
+ * again and again allocates nothing but the returned path, or nothing at all when it passes its own path
+ */
+final class SeamSearch {
+
+    private double[] sumsAbove = new double[0]; // maximum cumulative values of the row above
+    private double[] sumsCurrent = new double[0]; // maximum cumulative values of the current row
+    private byte[] moves = new byte[0]; // for every pixel, -1/0/+1 offset of the pixel above it got its max value from
+
+    /**
+     * finds seam with maximum cumulative value defined by the valueGetter lambda function
+     * on large images with a pool set, every row is split into column chunks calculated in parallel
+     * @param valueGetter lambda function which writes the double values of a row of pixels
+     *                    (such as energy or a color component)
+     * @param viewWidth width of the image as seen by valueGetter (height if it is transposed)
+     * @param viewHeight height of the image as seen by valueGetter (width if it is transposed)
+     * @param pool pool the rows are split over (null to search on the calling thread)
+     * @return column of the seam with maximum cumulative value in every row
+     */
+    int[] findSeam(Image.PixelValue valueGetter, int viewWidth, int viewHeight, ForkJoinPool pool) {
+        return findSeam(valueGetter, viewWidth, viewHeight, pool, new int[viewHeight]);
+    }
+
+    /**
+     * finds seam with maximum cumulative value, writing it into the given path
+     * @param valueGetter lambda function which writes the double values of a row of pixels
+     * @param viewWidth width of the image as seen by valueGetter (height if it is transposed)
+     * @param viewHeight height of the image as seen by valueGetter (width if it is transposed)
+     * @param pool pool the rows are split over (null to search on the calling thread)
+     * @param path array of at least viewHeight columns the seam is written into
+     * @return path, holding the column of the seam with maximum cumulative value in every row
+     */
+    @SuppressWarnings("try")
+    int[] findSeam(Image.PixelValue valueGetter, int viewWidth, int viewHeight, ForkJoinPool pool, int[] path) {
+        if (sumsCurrent.length < viewWidth) {
+            sumsAbove = new double[viewWidth];
+            sumsCurrent = new double[viewWidth];
+        }
+        if (moves.length < viewWidth * viewHeight) {
+            moves = new byte[viewWidth * viewHeight];
+        }
+
+        double[] above = sumsAbove;
+        double[] current = sumsCurrent;
+
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.SEARCH, viewWidth,
+                viewHeight)) {
+            // intializes first row of values
+            valueGetter.get(0, 0, viewWidth - 1, above);
+
+            boolean parallel = SeamCosts.isParallel(pool, viewWidth, viewHeight);
+            for (int y = 1; y < viewHeight; y++) {
+                if (parallel) {
+                    SeamCosts.calculateRow(pool, valueGetter, y, above, current, moves, y * viewWidth, viewWidth);
+                } else {
+                    SeamCosts.calculateRow(valueGetter, y, above, current, moves, y * viewWidth, 0, viewWidth - 1,
+                            viewWidth);
+                }
+
+                // current row becomes the row above for the next one
+                double[] swap = above;
+                above = current;
+                current = swap;
+            }
+        }
+
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.BACKTRACK, viewWidth,
+                viewHeight)) {
+            // gets maximum value from last row
+            int maxCol = 0;
+            for (int x = 1; x < viewWidth; x++) {
+                if (above[x] > above[maxCol]) {
+                    maxCol = x;
+                }
+            }
+
+            // goes from bottom to top of image following the stored moves, creating a maximum seam
+            int col = maxCol;
+            for (int y = viewHeight - 1; y >= 0; y--) {
+                path[y] = col;
+                col += moves[y * viewWidth + col];
+            }
+
+            return path;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package uk.ac.nulondon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * checkpoint of an editing session: a fixed header, then the pixels and (if it was calculated) the energy of every
+ * pixel as raw planes, then the state of the editor (highlight and undo history) it writes itself
+ * the planes are memory-mapped on both sides, so resuming copies them once, straight into the segments of a version,
+ * instead of decoding a PNG and calculating the energy again
+ */
+final class SessionFile {
+
+    /**
+     * writes the state of the editor after the planes
+     */
+    interface State {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private static final int MAGIC = 0x49534553; // "ISES"
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 32; // keeps the planes aligned to their element size
+    private static final byte HAS_ENERGY = 1;
+
+    final ImageVersion version; // holds the saved energy, if it was saved
+    final DataInputStream state;
+
+    private SessionFile(ImageVersion version, DataInputStream state) {
+        this.version = version;
+        this.state = state;
+    }
+
+    /**
+     * writes a session to a temporary file next to the target, then moves it over the target,
+     * so a failed checkpoint leaves the previous one intact
+     * @param file session file
+     * @param version current version of the image, whose energy is saved if it has been calculated
+     * @param state writes the state of the editor
+     * @throws IOException throws if the file cannot be written or the image is too large to map
+     */
+    @SuppressWarnings("try")
+    static void write(Path file, ImageVersion version, State state) throws IOException {
+        int width = version.getWidth();
+        int height = version.getHeight();
+        boolean energy = version.hasEnergy();
+        long pixelBytes = checkedSize(4L * width * height);
+        long energyOffset = HEADER_BYTES + (pixelBytes + 7 & ~7L);
+        long stateOffset = energy ? energyOffset + checkedSize((long) Double.BYTES * width * height) : energyOffset;
+
+        ByteArrayOutputStream stateBytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(stateBytes)) {
+            state.write(output);
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.WRITE, width, height);
+             FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT).putInt(width).putInt(height).putLong(stateOffset)
+                    .put(energy ? HAS_ENERGY : 0);
+            channel.write(header.clear(), 0);
+
+            MappedByteBuffer pixels = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, pixelBytes);
+            version.copyRows(pixels.asIntBuffer());
+            pixels.force();
+            if (energy) {
+                MappedByteBuffer energies = channel.map(FileChannel.MapMode.READ_WRITE, energyOffset,
+                        stateOffset - energyOffset);
+                version.copyEnergy(energies.asDoubleBuffer());
+                energies.force();
+            }
+            ByteBuffer stateBuffer = ByteBuffer.wrap(stateBytes.toByteArray());
+            while (stateBuffer.hasRemaining()) {
+                channel.write(stateBuffer, stateOffset + stateBuffer.position());
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * maps a session file written by write
+     * @param file session file
+     * @return the version of the session, and a stream of the editor state
+     * @throws IOException throws if the file cannot be read, is not a session file or is truncated
+     */
+    @SuppressWarnings("try")
+    static SessionFile read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            int read = 0;
+            while (header.hasRemaining() && read >= 0) { // a header shorter than HEADER_BYTES is rejected below
+                read = channel.read(header, header.position());
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != FORMAT) {
+                throw new IOException("Not a session file: " + file);
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            long stateOffset = header.getLong();
+            boolean energy = header.get() == HAS_ENERGY;
+            long pixelBytes = checkedSize(4L * width * height);
+            long energyOffset = HEADER_BYTES + (pixelBytes + 7 & ~7L);
+            if (channel.size() < stateOffset || stateOffset < energyOffset) {
+                throw new IOException("Truncated session file: " + file);
+            }
+
+            try (OperationMetrics.PhaseEvent phase = OperationMetrics.begin(OperationMetrics.Phase.READ,
+                    width, height)) {
+                ImageVersion version = ImageVersion.of(width, height,
+                        channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, pixelBytes).asIntBuffer(),
+                        energy ? channel.map(FileChannel.MapMode.READ_ONLY, energyOffset,
+                                stateOffset - energyOffset).asDoubleBuffer() : null);
+                byte[] state = new byte[(int) (channel.size() - stateOffset)];
+                channel.map(FileChannel.MapMode.READ_ONLY, stateOffset, state.length).get(state);
+                return new SessionFile(version, new DataInputStream(new ByteArrayInputStream(state)));
+            }
+        }
+    }
+
+    /**
+     * checks that a plane can be mapped at once
+     * @param bytes size of the plane
+     * @return size of the plane
+     * @throws IOException throws if the plane is larger than a mapping can be
+     */
+    private static long checkedSize(long bytes) throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Image too large for a session file");
+        }
+        return bytes;
+    }
+}
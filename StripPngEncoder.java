@@ -0,0 +1,291 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder that keeps the compressed output of every row segment between writes
+ * every row is filtered with the Sub filter, which only looks at the pixel to the left, and every segment of a row
+ * (see ImageVersion) is deflated on its own, into an IDAT chunk of its own, so a segment whose pixels, left
+ * neighbour and highlighted pixels are unchanged since the last write is copied as it was, whatever row or column
+ * it has moved to:
+ * a vertical seam or highlight only encodes again the segment it passes through in every row, and a horizontal one
+ * the rows between its highest and lowest pixel
+ * an encoder is not thread safe, every writer of an image sequence keeps its own
+ */
+final class StripPngEncoder {
+
+    static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    static final int IHDR_LENGTH = 13; // width, height, bit depth, color type, compression, filter and interlace
+    static final byte BIT_DEPTH = 8; // bits per sample, the only depth written and read
+    static final byte TRUECOLOR = 2; // color type of RGB pixels without alpha
+    private static final int CHUNK_OVERHEAD = 12; // length, type and CRC around the data of a chunk
+    private static final byte[] ZLIB_HEADER = {0x78, 0x01}; // deflate with a 32K window, no preset dictionary
+    private static final int ADLER_BASE = 65521;
+    private static final int ADLER_SUM_BITS = 16; // the second sum of an Adler-32 is above the first one
+    private static final int ADLER_SUM_MASK = 0xFFFF;
+    private static final byte FILTER_SUB = 1; // every row, each pixel only depends on the pixel to its left
+    private static final int[] NO_OVERLAY = {}; // segment without highlighted pixels, whatever their color
+    private static final int NO_LEFT = -1; // left neighbour of the first segment of a row (colors are 24 bits)
+
+    /**
+     * compressed row segment, with what it was encoded from
+     * @param left color of the pixel left of the segment its first pixel is filtered against, or NO_LEFT
+     * @param overlay columns of the highlighted pixels within the segment, followed by their color
+     * @param chunk IDAT chunk holding the deflated, filtered pixels, after the filter type of the row for the first
+     *              segment of a row
+     * @param adler Adler-32 of the filtered pixels
+     * @param rawLength length of the filtered pixels
+     */
+    private record EncodedSegment(int left, int[] overlay, byte[] chunk, long adler, int rawLength) {
+    }
+
+    private final Deflater deflater;
+    private final Adler32 adler = new Adler32();
+    // segments encoded by the last write and by the running one, by the pixel array they were encoded from
+    private Map<int[], EncodedSegment> previous = new IdentityHashMap<>();
+    private Map<int[], EncodedSegment> encoded = new IdentityHashMap<>();
+    private int encodedSegments = 0;
+    private byte[] raw = new byte[0]; // filtered pixels of the segment being encoded
+    private byte[] compressed = new byte[0]; // deflated pixels of the segment being encoded
+
+    /**
+     * creates an encoder
+     * @param compressionLevel deflate level, from 0 (fastest) to 9 (smallest)
+     */
+    StripPngEncoder(int compressionLevel) {
+        this.deflater = new Deflater(compressionLevel, true);
+    }
+
+    /**
+     * writes a version as an RGB PNG, with the highlighted seam painted over it,
+     * encoding only the row segments that changed since the last write
+     * @param version pixels to write
+     * @param highlight seam painted over the pixels, or null
+     * @param output stream the PNG is written to
+     * @throws IOException throws if the stream cannot be written
+     */
+    void write(ImageVersion version, ImageEditor.Highlight highlight, OutputStream output) throws IOException {
+        int width = version.getWidth();
+        int height = version.getHeight();
+        int[] rowStarts = highlight == null ? null : new int[height + 1];
+        int[] highlighted = highlight == null ? NO_OVERLAY : highlightedColumns(highlight, rowStarts);
+        int rgb = highlight == null ? 0 : highlight.rgb() & Pixel.RGB_MASK;
+
+        output.write(SIGNATURE);
+        byte[] header = ByteBuffer.allocate(IHDR_LENGTH)
+                .putInt(width).putInt(height).put(BIT_DEPTH).put(TRUECOLOR).array(); // deflate, no interlacing
+        output.write(chunk("IHDR", header, header.length));
+        output.write(chunk("IDAT", ZLIB_HEADER, ZLIB_HEADER.length));
+
+        encodedSegments = 0;
+        long checksum = 1;
+        for (int row = 0; row < height; row++) {
+            int from = rowStarts == null ? 0 : rowStarts[row]; // first highlighted column of the row left to write
+            int to = rowStarts == null ? 0 : rowStarts[row + 1];
+            int left = NO_LEFT;
+            int start = 0;
+            for (int[] pixels : version.rowSegments(row)) {
+                int end = start + pixels.length;
+                int next = from;
+                while (next < to && highlighted[next] < end) {
+                    next++;
+                }
+                EncodedSegment segment = previous.get(pixels);
+                if (segment == null || segment.left != left
+                        || !sameOverlay(segment.overlay, highlighted, from, next, start, rgb)) {
+                    segment = encode(pixels, left, overlay(highlighted, from, next, start, rgb));
+                    encodedSegments++;
+                }
+                encoded.put(pixels, segment);
+                output.write(segment.chunk);
+                checksum = combineAdler(checksum, segment.adler, segment.rawLength);
+
+                // the next segment is filtered against the last pixel as written, highlighted or not
+                left = next > from && highlighted[next - 1] == end - 1
+                        ? rgb : pixels[pixels.length - 1] & Pixel.RGB_MASK;
+                start = end;
+                from = next;
+            }
+        }
+
+        byte[] end = ByteBuffer.allocate(2 + Integer.BYTES) // empty final block, then the checksum of every segment
+                .put((byte) 0x03).put((byte) 0x00).putInt((int) checksum).array();
+        output.write(chunk("IDAT", end, end.length));
+        output.write(chunk("IEND", end, 0));
+
+        // only the segments of this write are kept for the next one
+        Map<int[], EncodedSegment> swap = previous;
+        previous = encoded;
+        encoded = swap;
+        encoded.clear();
+    }
+
+    /**
+     * gets the number of row segments the last write had to encode
+     * @return segments encoded, the others were copied from the write before
+     */
+    int encodedSegments() {
+        return encodedSegments;
+    }
+
+    /**
+     * sorts the highlighted pixels by row, and by column within a row
+     * @param highlight highlighted seam
+     * @param rowStarts array of height + 1 entries, set to the index of the first highlighted column of every row
+     * @return highlighted columns of every row, one row after the other
+     */
+    private static int[] highlightedColumns(ImageEditor.Highlight highlight, int[] rowStarts) {
+        int[] positions = highlight.positions();
+        if (!highlight.horizontal()) { // one pixel in every row
+            for (int row = 0; row < rowStarts.length; row++) {
+                rowStarts[row] = Math.min(row, positions.length);
+            }
+            return positions;
+        }
+        for (int position : positions) {
+            rowStarts[position + 1]++;
+        }
+        for (int row = 1; row < rowStarts.length; row++) {
+            rowStarts[row] += rowStarts[row - 1];
+        }
+        int[] columns = new int[positions.length];
+        int[] sizes = new int[rowStarts.length];
+        for (int col = 0; col < positions.length; col++) {
+            int row = positions[col];
+            columns[rowStarts[row] + sizes[row]++] = col;
+        }
+        return columns;
+    }
+
+    /**
+     * checks if a segment was encoded with the highlighted pixels it has now
+     * @param overlay highlighted pixels the segment was encoded with
+     * @param highlighted highlighted columns of the image
+     * @param from index of the first highlighted column in the segment
+     * @param to index after the last highlighted column in the segment
+     * @param start first column of the segment
+     * @param rgb color of the highlight
+     * @return true if the segment has the same highlighted pixels, of the same color
+     */
+    private static boolean sameOverlay(int[] overlay, int[] highlighted, int from, int to, int start, int rgb) {
+        if (from == to) {
+            return overlay.length == 0;
+        }
+        if (overlay.length != to - from + 1 || overlay[overlay.length - 1] != rgb) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (overlay[i - from] != highlighted[i] - start) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * gets the highlighted pixels of a segment
+     * @param highlighted highlighted columns of the image
+     * @param from index of the first highlighted column in the segment
+     * @param to index after the last highlighted column in the segment
+     * @param start first column of the segment
+     * @param rgb color of the highlight
+     * @return columns of the highlighted pixels within the segment, followed by their color
+     */
+    private static int[] overlay(int[] highlighted, int from, int to, int start, int rgb) {
+        if (from == to) {
+            return NO_OVERLAY;
+        }
+        int[] overlay = new int[to - from + 1];
+        for (int i = from; i < to; i++) {
+            overlay[i - from] = highlighted[i] - start;
+        }
+        overlay[to - from] = rgb;
+        return overlay;
+    }
+
+    /**
+     * filters and deflates a row segment
+     * @param pixels pixels of the segment
+     * @param left color of the pixel left of the segment, or NO_LEFT for the first segment of a row
+     * @param overlay highlighted pixels of the segment
+     * @return compressed segment
+     */
+    private EncodedSegment encode(int[] pixels, int left, int[] overlay) {
+        int length = (left == NO_LEFT ? 1 : 0) + 3 * pixels.length;
+        if (raw.length < length) {
+            raw = new byte[length];
+            compressed = new byte[2 * length]; // grown below if deflating makes the pixels larger
+        }
+        int offset = 0;
+        if (left == NO_LEFT) {
+            raw[offset++] = FILTER_SUB;
+        }
+        int before = left == NO_LEFT ? 0 : left; // the pixel left of the first pixel of a row counts as 0
+        int next = 0;
+        for (int col = 0; col < pixels.length; col++) {
+            int rgb = pixels[col];
+            if (next + 1 < overlay.length && overlay[next] == col) {
+                rgb = overlay[overlay.length - 1];
+                next++;
+            }
+            raw[offset++] = (byte) ((rgb >> Pixel.RED_SHIFT) - (before >> Pixel.RED_SHIFT));
+            raw[offset++] = (byte) ((rgb >> Pixel.GREEN_SHIFT) - (before >> Pixel.GREEN_SHIFT));
+            raw[offset++] = (byte) (rgb - before);
+            before = rgb;
+        }
+
+        adler.reset();
+        adler.update(raw, 0, length);
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        int size = 0;
+        do { // a sync flush ends the segment on a byte boundary, without a final block, so segments can be joined
+            if (size == compressed.length) {
+                compressed = Arrays.copyOf(compressed, 2 * size);
+            }
+            size += deflater.deflate(compressed, size, compressed.length - size, Deflater.SYNC_FLUSH);
+        } while (size == compressed.length);
+        return new EncodedSegment(left, overlay, chunk("IDAT", compressed, size), adler.getValue(), length);
+    }
+
+    /**
+     * computes the Adler-32 of two pieces of data joined, from the checksums of the pieces
+     * @param first checksum of the first piece
+     * @param second checksum of the second piece
+     * @param secondLength length of the second piece
+     * @return checksum of the joined data
+     */
+    private static long combineAdler(long first, long second, int secondLength) {
+        long remainder = secondLength % ADLER_BASE;
+        long sum1 = first & ADLER_SUM_MASK;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (second & ADLER_SUM_MASK) + ADLER_BASE - 1;
+        sum2 += (first >> ADLER_SUM_BITS & ADLER_SUM_MASK) + (second >> ADLER_SUM_BITS & ADLER_SUM_MASK)
+                + ADLER_BASE - remainder;
+        return sum1 % ADLER_BASE | sum2 % ADLER_BASE << ADLER_SUM_BITS;
+    }
+
+    /**
+     * builds a PNG chunk
+     * @param type four letter chunk type
+     * @param data chunk data
+     * @param length length of the data
+     * @return length, type, data and CRC of the chunk
+     */
+    private static byte[] chunk(String type, byte[] data, int length) {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_OVERHEAD + length);
+        chunk.putInt(length).put(type.getBytes(StandardCharsets.US_ASCII)).put(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), Integer.BYTES, chunk.position() - Integer.BYTES);
+        return chunk.putInt((int) crc.getValue()).array();
+    }
+}
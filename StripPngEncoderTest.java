@@ -0,0 +1,82 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+class StripPngEncoderTest {
+
+    @Test
+    void writesThePixelsWithTheHighlightPaintedOver() throws IOException {
+        ImageVersion version = ImageVersion.of(TestImages.synthetic(70, 50));
+        int[] rows = new int[70];
+        Arrays.fill(rows, 33);
+        rows[5] = 49;
+        ImageEditor.Highlight highlight = new ImageEditor.Highlight(true, rows, 0xFFFF0000);
+        StripPngEncoder encoder = new StripPngEncoder(1);
+
+        TestImages.assertSamePixels(write(encoder, version, null), ImageEditor.export(version, null));
+        TestImages.assertSamePixels(write(encoder, version, highlight), ImageEditor.export(version, highlight));
+    }
+
+    @Test
+    void onlyEncodesTheSegmentsThatChanged() throws IOException {
+        ImageVersion version = ImageVersion.of(TestImages.synthetic(600, 40)); // three segments in every row
+        StripPngEncoder encoder = new StripPngEncoder(1);
+        write(encoder, version, null);
+        Assertions.assertThat(encoder.encodedSegments()).isEqualTo(120);
+
+        write(encoder, version, null);
+        Assertions.assertThat(encoder.encodedSegments()).isZero();
+
+        // a horizontal seam between rows 20 and 21 only copies row 20, the rows below it move up unchanged
+        int[] seam = new int[600];
+        for (int col = 0; col < 600; col++) {
+            seam[col] = 20 + col % 2;
+        }
+        ImageVersion removed = SeamRecord.of(version, seam, true).removeFrom(version);
+        BufferedImage written = write(encoder, removed, null);
+        Assertions.assertThat(encoder.encodedSegments()).isEqualTo(3);
+        TestImages.assertSamePixels(written, removed.toBufferedImage());
+
+        // a vertical seam changes the middle segment of every row, the last one moves left unchanged
+        int[] cols = new int[39];
+        for (int row = 0; row < cols.length; row++) {
+            cols[row] = 300 + row % 3;
+        }
+        removed = SeamRecord.of(removed, cols, false).removeFrom(removed);
+        written = write(encoder, removed, null);
+        Assertions.assertThat(encoder.encodedSegments()).isEqualTo(39);
+        TestImages.assertSamePixels(written, removed.toBufferedImage());
+
+        // a horizontal highlight changes the segments of the rows it passes through
+        int[] highlighted = new int[599];
+        Arrays.fill(highlighted, 3);
+        ImageEditor.Highlight highlight = new ImageEditor.Highlight(true, highlighted, 0xFF00FF00);
+        written = write(encoder, removed, highlight);
+        Assertions.assertThat(encoder.encodedSegments()).isEqualTo(3);
+        TestImages.assertSamePixels(written, ImageEditor.export(removed, highlight));
+
+        // a vertical highlight on the last column of the first segment also changes the neighbour it is filtered for
+        int[] rows = new int[39];
+        Arrays.fill(rows, 255);
+        highlight = new ImageEditor.Highlight(false, rows, 0xFFFF0000);
+        written = write(encoder, removed, highlight);
+        Assertions.assertThat(encoder.encodedSegments()).isEqualTo(2 * 39 + 1);
+        TestImages.assertSamePixels(written, ImageEditor.export(removed, highlight));
+    }
+
+    private static BufferedImage write(StripPngEncoder encoder, ImageVersion version,
+                                       ImageEditor.Highlight highlight) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.write(version, highlight, output);
+        return ImageIO.read(new ByteArrayInputStream(output.toByteArray()));
+    }
+
+}
@@ -0,0 +1,48 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * images shared by the tests, benchmarks and performance reports, and the pixel comparison they check them with
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * creates a reproducible noisy image
+     * @param width width of the image
+     * @param height height of the image
+     * @return generated image
+     */
+    static BufferedImage synthetic(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                image.setRGB(col, row, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * checks that two images have the same size and the same color at every pixel
+     * @param actual image to check
+     * @param expected image it must match
+     */
+    static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        Assertions.assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        Assertions.assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        for (int row = 0; row < expected.getHeight(); row++) {
+            for (int col = 0; col < expected.getWidth(); col++) {
+                Assertions.assertThat(actual.getRGB(col, row)).as("pixel at %d, %d", col, row)
+                        .isEqualTo(expected.getRGB(col, row));
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package uk.ac.nulondon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * undo stack of editor commands with a memory budget
+ * the newest commands stay in memory; once they hold more than the budget, the oldest ones that can be written out
+ * are compressed into a journal file on disk, and read back when the undo history reaches them
+ */
+class UndoLog implements AutoCloseable {
+
+    static final long OBJECT_BYTES = 32; // estimated size of a command object with its header and fields
+    static final long ARRAY_BYTES = 16; // estimated header of an array, added to the size of its elements
+    private static final int INITIAL_RECORDS = 16; // records the journal offsets have room for before growing
+
+    /**
+     * command whose undo data can be written to the journal
+     */
+    interface Spillable {
+        /**
+         * estimates the memory held by the command
+         * @return size in bytes
+         */
+        long bytes();
+
+        /**
+         * writes what is needed to recreate the command, starting with a tag telling the reader which command it is
+         * @param output stream the command is written to
+         * @throws IOException throws if the stream cannot be written
+         */
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    /**
+     * recreates commands written to the journal
+     */
+    interface Reader {
+        ImageEditor.Command read(DataInputStream input) throws IOException;
+    }
+
+    private final long budget; // bytes of undo data kept in memory
+    private final Reader reader;
+
+    private final Deque<ImageEditor.Command> recent = new ArrayDeque<>(); // newest commands, top of the stack first
+    private long recentBytes = 0;
+
+    // journal of the oldest commands, one compressed record each, newest at the end of the file
+    private Path journalPath;
+    private RandomAccessFile journal;
+    private long[] offsets = new long[INITIAL_RECORDS]; // start of every record in the journal
+    private int spilled = 0;
+
+    /**
+     * creates an empty undo log
+     * @param budget bytes of undo data kept in memory before the oldest commands are written to disk
+     * @param reader recreates commands from the journal
+     */
+    UndoLog(long budget, Reader reader) {
+        this.budget = budget;
+        this.reader = reader;
+    }
+
+    /**
+     * pushes a command on top of the stack, writing the oldest commands to the journal if over budget
+     * (the newest command always stays in memory)
+     * @param command command that was executed
+     * @throws IOException throws if the journal cannot be written
+     */
+    void push(ImageEditor.Command command) throws IOException {
+        recent.push(command);
+        recentBytes += bytes(command);
+        while (recentBytes > budget && recent.size() > 1 && recent.peekLast() instanceof Spillable) {
+            spill();
+        }
+    }
+
+    /**
+     * removes the command on top of the stack, reading it back from the journal if it was written out
+     * @return newest command
+     * @throws IOException throws if the journal cannot be read
+     * @throws NoSuchElementException if the stack is empty
+     */
+    ImageEditor.Command pop() throws IOException {
+        if (!recent.isEmpty()) {
+            ImageEditor.Command command = recent.pop();
+            recentBytes -= bytes(command);
+            return command;
+        }
+        if (spilled == 0) {
+            throw new NoSuchElementException();
+        }
+
+        long offset = offsets[--spilled];
+        byte[] record = new byte[(int) (journal.length() - offset)];
+        journal.seek(offset);
+        journal.readFully(record);
+        journal.setLength(offset);
+        try (DataInputStream input = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(record)))) {
+            return reader.read(input);
+        }
+    }
+
+    boolean isEmpty() {
+        return recent.isEmpty() && spilled == 0;
+    }
+
+    int size() {
+        return recent.size() + spilled;
+    }
+
+    /**
+     * gets the number of commands written to the journal
+     * @return number of commands on disk
+     */
+    int spilledCount() {
+        return spilled;
+    }
+
+    /**
+     * writes the whole undo history, oldest command first, every command as the compressed record it has in
+     * the journal, so a session file can carry the history without keeping the journal
+     * @param output stream the history is written to
+     * @throws IOException throws if the journal cannot be read, the stream cannot be written or a command in
+     * memory cannot be written out
+     */
+    void write(DataOutputStream output) throws IOException {
+        output.writeInt(size());
+        for (int i = 0; i < spilled; i++) {
+            long end = i + 1 < spilled ? offsets[i + 1] : journal.length();
+            byte[] record = new byte[(int) (end - offsets[i])];
+            journal.seek(offsets[i]);
+            journal.readFully(record);
+            output.writeInt(record.length);
+            output.write(record);
+        }
+        Iterator<ImageEditor.Command> commands = recent.descendingIterator();
+        while (commands.hasNext()) {
+            ImageEditor.Command command = commands.next();
+            if (!(command instanceof Spillable spillable)) {
+                throw new IOException("Command cannot be saved: " + command.getClass().getSimpleName());
+            }
+            byte[] record = compress(spillable);
+            output.writeInt(record.length);
+            output.write(record);
+        }
+    }
+
+    /**
+     * replaces the undo history with one written by write; its commands go to the journal as they are
+     * and are only read back when undone
+     * @param input stream the history is read from
+     * @throws IOException throws if the stream cannot be read or the journal cannot be written
+     */
+    void read(DataInputStream input) throws IOException {
+        recent.clear();
+        recentBytes = 0;
+        spilled = 0;
+        if (journal != null) {
+            journal.setLength(0);
+        }
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            byte[] record = new byte[input.readInt()];
+            input.readFully(record);
+            append(record);
+        }
+    }
+
+    /**
+     * writes the oldest command in memory to the end of the journal
+     * @throws IOException throws if the journal cannot be written
+     */
+    private void spill() throws IOException {
+        ImageEditor.Command command = recent.peekLast();
+        append(compress((Spillable) command));
+        recent.removeLast();
+        recentBytes -= bytes(command);
+    }
+
+    /**
+     * compresses what is needed to recreate a command into a journal record
+     * @param command command to compress
+     * @return compressed record
+     * @throws IOException throws if the command cannot be written
+     */
+    private static byte[] compress(Spillable command) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            command.write(output);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * appends a record to the journal, creating the journal on first use
+     * @param record compressed record of a command
+     * @throws IOException throws if the journal cannot be written
+     */
+    private void append(byte[] record) throws IOException {
+        if (journal == null) {
+            journalPath = Files.createTempFile("undo", ".journal");
+            journal = new RandomAccessFile(journalPath.toFile(), "rw");
+        }
+        if (spilled == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * spilled);
+        }
+        long offset = journal.length();
+        journal.seek(offset);
+        journal.write(record);
+        offsets[spilled++] = offset;
+    }
+
+    private static long bytes(ImageEditor.Command command) {
+        return command instanceof Spillable spillable ? spillable.bytes() : 0;
+    }
+
+    /**
+     * deletes the journal
+     * @throws IOException throws if the journal cannot be closed or deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            Files.deleteIfExists(journalPath);
+            journal = null;
+            spilled = 0;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package uk.ac.nulondon;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * row kernels working on as many pixels at once as the CPU has SIMD lanes for doubles
+ * only loaded by RowKernels.vectorized, the columns left over at the ends of a range are done by the scalar kernels
+ */
+final class VectorRowKernels implements RowKernels {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = DOUBLES.length();
+
+    // packed pixels are read with as many lanes as doubles, so each converts to one vector of doubles
+    private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    // moves are stored from the smallest byte vector with enough lanes, only its first LANES lanes are written
+    private static final VectorSpecies<Byte> BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, LANES * 8)));
+    private static final VectorMask<Byte> MOVE_LANES = BYTES.indexInRange(0, LANES);
+
+    private static final int COMPONENT_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+
+    private static final DoubleVector LEFT = DoubleVector.broadcast(DOUBLES, -1);
+    private static final DoubleVector UP = DoubleVector.broadcast(DOUBLES, 0);
+    private static final DoubleVector RIGHT = DoubleVector.broadcast(DOUBLES, 1);
+
+    /**
+     * creates the kernels
+     * @throws UnsupportedOperationException if vectors of doubles have a single lane, so nothing would be gained
+     */
+    VectorRowKernels() {
+        if (LANES < 2) {
+            throw new UnsupportedOperationException("No SIMD lanes for doubles");
+        }
+    }
+
+    @Override
+    public void brightness(int[] pixels, double[] brightness, int from, int to) {
+        int x = from;
+        for (; x + LANES - 1 <= to; x += LANES) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, x);
+            IntVector sum = argb.and(COMPONENT_MASK)
+                    .add(argb.lanewise(VectorOperators.ASHR, RED_SHIFT).and(COMPONENT_MASK))
+                    .add(argb.lanewise(VectorOperators.ASHR, GREEN_SHIFT).and(COMPONENT_MASK));
+            // same as the scalar kernel: the integer sum converted to double, then divided by 3
+            ((DoubleVector) sum.convertShape(VectorOperators.I2D, DOUBLES, 0)).div(3.0).intoArray(brightness, x);
+        }
+        Scalar.INSTANCE.brightness(pixels, brightness, x, to);
+    }
+
+    @Override
+    public void energy(double[] above, double[] current, double[] below, double[] energy, int from, int to) {
+        int x = from;
+        for (; x + LANES - 1 <= to; x += LANES) {
+            DoubleVector aboveLeft = DoubleVector.fromArray(DOUBLES, above, x - 1);
+            DoubleVector aboveRight = DoubleVector.fromArray(DOUBLES, above, x + 1);
+            DoubleVector belowLeft = DoubleVector.fromArray(DOUBLES, below, x - 1);
+            DoubleVector belowRight = DoubleVector.fromArray(DOUBLES, below, x + 1);
+
+            // Sobel sums added up in the order of Image.getHorizontalEnergy and Image.getVerticalEnergy
+            DoubleVector horizontal = aboveLeft.add(DoubleVector.fromArray(DOUBLES, current, x - 1).mul(2))
+                    .add(belowLeft)
+                    .sub(aboveRight.add(DoubleVector.fromArray(DOUBLES, current, x + 1).mul(2)).add(belowRight));
+            DoubleVector vertical = aboveLeft.add(DoubleVector.fromArray(DOUBLES, above, x).mul(2)).add(aboveRight)
+                    .sub(belowLeft.add(DoubleVector.fromArray(DOUBLES, below, x).mul(2)).add(belowRight));
+
+            horizontal.mul(horizontal).add(vertical.mul(vertical)).lanewise(VectorOperators.SQRT)
+                    .intoArray(energy, x);
+        }
+        Scalar.INSTANCE.energy(above, current, below, energy, x, to);
+    }
+
+    @Override
+    public void maximizeRow(double[] above, double[] current, byte[] moves, int offset, int from, int to, int width) {
+        // the first and last columns have a pixel above them missing, the scalar kernel handles them
+        int first = Math.max(from, 1);
+        int last = Math.min(to, width - 2);
+        if (last - first + 1 < LANES) {
+            Scalar.INSTANCE.maximizeRow(above, current, moves, offset, from, to, width);
+            return;
+        }
+        Scalar.INSTANCE.maximizeRow(above, current, moves, offset, from, first - 1, width);
+
+        int x = first;
+        for (; x + LANES - 1 <= last; x += LANES) {
+            DoubleVector value = DoubleVector.fromArray(DOUBLES, current, x);
+            DoubleVector left = DoubleVector.fromArray(DOUBLES, above, x - 1).add(value);
+            DoubleVector up = DoubleVector.fromArray(DOUBLES, above, x).add(value);
+            DoubleVector right = DoubleVector.fromArray(DOUBLES, above, x + 1).add(value);
+
+            // same comparisons as the scalar kernel: left wins if greater than both, up if greater than right,
+            // and right wins every tie
+            VectorMask<Double> leftOverUp = left.compare(VectorOperators.GT, up);
+            VectorMask<Double> takeLeft = leftOverUp.and(left.compare(VectorOperators.GT, right));
+            VectorMask<Double> takeUp = leftOverUp.not().and(up.compare(VectorOperators.GT, right));
+
+            right.blend(up, takeUp).blend(left, takeLeft).intoArray(current, x);
+            ByteVector move = (ByteVector) RIGHT.blend(UP, takeUp).blend(LEFT, takeLeft)
+                    .convertShape(VectorOperators.D2B, BYTES, 0);
+            if (BYTES.length() == LANES) {
+                move.intoArray(moves, offset + x);
+            } else {
+                move.intoArray(moves, offset + x, MOVE_LANES);
+            }
+        }
+        Scalar.INSTANCE.maximizeRow(above, current, moves, offset, x, to, width);
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + LANES + " doubles)";
+    }
+}